@@ -0,0 +1,56 @@
+/* Copyright (C) 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.plus.samples.haikuplus;
+
+import com.google.plus.samples.haikuplus.api.AvatarUrls;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for {@link AvatarUrls}.
+ */
+@SmallTest
+public class AvatarUrlsTest extends TestCase {
+    private static final String PHOTO =
+            "https://lh3.googleusercontent.com/-abc/AAAAAAAAAAI/AAAAAAAAAAA/xyz/photo.jpg";
+
+    public void testVariantsOfOnePhotoMatch() {
+        String expected = PHOTO + "?sz=150";
+        assertEquals(expected, AvatarUrls.forSize(PHOTO + "?sz=50", 150));
+        assertEquals(expected, AvatarUrls.forSize(PHOTO, 150));
+        assertEquals(expected, AvatarUrls.forSize(
+                "http://lh5.googleusercontent.com/-abc/AAAAAAAAAAI/AAAAAAAAAAA/xyz/s96-c/photo.jpg"
+                        + "?sz=96", 150));
+    }
+
+    public void testOtherParametersKept() {
+        assertEquals(PHOTO + "?sz=150&v=2", AvatarUrls.forSize(PHOTO + "?v=2&sz=50", 150));
+    }
+
+    public void testSizeOptions() {
+        String url = "https://lh3.googleusercontent.com/a-/AOh14Gi";
+        assertEquals(url + "=s150-c", AvatarUrls.forSize(url + "=s96-c", 150));
+        assertEquals(url + "=s150-c", AvatarUrls.forSize(url, 150));
+    }
+
+    public void testOtherUrlsUnchanged() {
+        String url = "http://example.com/image.jpg?sz=50";
+        assertEquals(url, AvatarUrls.forSize(url, 150));
+        assertNull(AvatarUrls.forSize(null, 150));
+    }
+}
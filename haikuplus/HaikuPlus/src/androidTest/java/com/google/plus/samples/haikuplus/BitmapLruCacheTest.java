@@ -0,0 +1,89 @@
+/* Copyright (C) 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.plus.samples.haikuplus;
+
+import com.google.plus.samples.haikuplus.api.BitmapLruCache;
+
+import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.os.Build;
+import android.test.InstrumentationTestCase;
+import android.test.suitebuilder.annotation.SmallTest;
+
+/**
+ * Tests for {@link BitmapLruCache}.
+ */
+@SmallTest
+public class BitmapLruCacheTest extends InstrumentationTestCase {
+    private static final int MB = 1024 * 1024;
+
+    public void testDefaultSizeIsAnEighthOfTheMemoryClass() {
+        assertEquals(4 * MB, BitmapLruCache.getDefaultSize(32, false));
+        assertEquals(24 * MB, BitmapLruCache.getDefaultSize(192, false));
+    }
+
+    public void testLowRamDevicesGetHalfAsMuch() {
+        assertEquals(2 * MB, BitmapLruCache.getDefaultSize(32, true));
+        assertEquals(BitmapLruCache.getDefaultSize(192, false) / 2,
+                BitmapLruCache.getDefaultSize(192, true));
+    }
+
+    public void testDefaultSizeForThisDevice() {
+        Context context = getInstrumentation().getTargetContext();
+        ActivityManager activityManager =
+                (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        boolean lowRam = Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT
+                && activityManager.isLowRamDevice();
+        assertEquals(BitmapLruCache.getDefaultSize(activityManager.getMemoryClass(), lowRam),
+                BitmapLruCache.getDefaultSize(context));
+    }
+
+    public void testBoundedByBytesNotCount() {
+        Bitmap small = Bitmap.createBitmap(10, 10, Bitmap.Config.ARGB_8888);
+        Bitmap large = Bitmap.createBitmap(20, 20, Bitmap.Config.ARGB_8888);
+        int smallBytes = BitmapLruCache.getBitmapBytes(small);
+        int largeBytes = BitmapLruCache.getBitmapBytes(large);
+        BitmapLruCache cache = new BitmapLruCache(smallBytes + largeBytes);
+        cache.putBitmap("small", small);
+        cache.putBitmap("other", Bitmap.createBitmap(10, 10, Bitmap.Config.ARGB_8888));
+        cache.putBitmap("large", large);
+
+        // Two bitmaps fit, but only if one of them is small.
+        assertNull(cache.getBitmap("small"));
+        assertNotNull(cache.getBitmap("other"));
+        assertSame(large, cache.getBitmap("large"));
+        assertEquals(smallBytes + largeBytes, cache.getSnapshot().getSizeBytes());
+        assertEquals(1, cache.getSnapshot().getEvictionCount());
+    }
+
+    public void testUiHiddenKeepsHalf() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN_MR1) {
+            // No way to trim part of an LruCache before then, so it all goes.
+            return;
+        }
+        BitmapLruCache cache = new BitmapLruCache(MB);
+        for (int i = 0; i < 4; i++) {
+            cache.putBitmap(String.valueOf(i), Bitmap.createBitmap(10, 10, Bitmap.Config.RGB_565));
+        }
+        int full = cache.getSnapshot().getSizeBytes();
+
+        cache.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN);
+        assertEquals(full / 2, cache.getSnapshot().getSizeBytes());
+        assertNotNull(cache.getBitmap("3"));
+    }
+}
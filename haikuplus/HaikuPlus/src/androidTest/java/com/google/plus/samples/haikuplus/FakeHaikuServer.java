@@ -0,0 +1,814 @@
+/* Copyright (C) 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.plus.samples.haikuplus;
+
+import com.android.volley.toolbox.HurlStack;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.plus.samples.haikuplus.api.HaikuClient;
+import com.google.plus.samples.haikuplus.api.HaikuCodecs;
+import com.google.plus.samples.haikuplus.api.MessagePackCodec;
+import com.google.plus.samples.haikuplus.models.Haiku;
+import com.google.plus.samples.haikuplus.models.User;
+
+import android.net.Uri;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.Charset;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * In-process stand-in for the Haiku+ server: a small HTTP/1.1 server on the loopback interface
+ * that implements the API from an in-memory stream, so tests exercise the real network and
+ * parsing path. It follows the real server's rules:
+ *
+ * <ul>
+ * <li>A request signs in with an ID token (Authorization: Bearer) or an auth code
+ * (X-OAuth-Code), and is given a session in a HaikuSessionId cookie. Later requests send the
+ * cookie; an unknown cookie with no credentials is rejected with a 401 and WWW-Authenticate.</li>
+ * <li>Reading haikus needs no session; everything else does.</li>
+ * <li>Responses are MessagePack or JSON according to the Accept header, and gzipped if the
+ * client accepts it. MessagePack can be turned off, to answer only in JSON as a server
+ * without it does.</li>
+ * <li>Reads carry an ETag and Last-Modified, and a conditional read whose validators still
+ * match is answered with a 304 and no body.</li>
+ * <li>A write or vote repeating an Idempotency-Key already seen is not applied again; the
+ * haiku it was applied to is returned instead.</li>
+ * <li>Query parameters an endpoint doesn't define are ignored.</li>
+ * </ul>
+ *
+ * Latency, jitter and the rate of injected 503 errors can be set while it is running.
+ */
+public class FakeHaikuServer {
+    private static final String TAG = "HaikuPlus-FakeServer";
+    private static final String LIST_HAIKUS = "/api/haikus";
+    private static final String HAIKU_PREFIX = "/api/haikus/";
+    private static final String VOTE_SUFFIX = "/vote";
+    private static final String GET_USER = "/api/users/me";
+    private static final String SIGNOUT = "/api/signout";
+    private static final String DISCONNECT = "/api/disconnect";
+    private static final String CONTENT_TYPE_JSON = "application/json; charset=UTF-8";
+    private static final String DATE_FORMAT = "yyyy-MM-dd'T'HH:mm:ssZ";
+    private static final String HTTP_DATE_FORMAT = "EEE, dd MMM yyyy HH:mm:ss zzz";
+    private static final String CRLF = "\r\n";
+    private static final int GZIP_MIN_BYTES = 1024;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /** Newest first, as the API orders the stream. */
+    private static final Comparator<Haiku> NEWEST_FIRST = new Comparator<Haiku>() {
+        @Override
+        public int compare(Haiku lhs, Haiku rhs) {
+            int byTime = rhs.creationTime.compareTo(lhs.creationTime);
+            return byTime != 0 ? byTime : rhs.id.compareTo(lhs.id);
+        }
+    };
+
+    private final Gson mGson = HaikuCodecs.getGson();
+    private final List<Haiku> mHaikus = new ArrayList<Haiku>();
+    private final Map<String, Haiku> mWrites = new HashMap<String, Haiku>();
+    private final Map<String, Boolean> mSessions = new ConcurrentHashMap<String, Boolean>();
+    private final User mUser;
+    private final Random mRandom = new Random();
+    private final AtomicInteger mRequestCount = new AtomicInteger();
+    private final AtomicInteger mInjectedErrors = new AtomicInteger();
+    private final AtomicInteger mNotModified = new AtomicInteger();
+    // When the data last changed, in whole seconds as Last-Modified has no finer resolution.
+    private long mLastModified = System.currentTimeMillis() / 1000 * 1000;
+
+    private volatile long mLatencyMs;
+    private volatile long mJitterMs;
+    private volatile double mErrorRate;
+    private volatile boolean mMessagePack = true;
+
+    private ServerSocket mSocket;
+    private ExecutorService mWorkers;
+
+    /**
+     * @param user the user that every session is signed in as.
+     */
+    public FakeHaikuServer(User user) {
+        mUser = user;
+    }
+
+    /**
+     * Build a stream of generated haikus, one a minute going back from now, by a handful of
+     * authors.
+     *
+     * @param count the number of haikus.
+     * @return the haikus, newest first.
+     */
+    public static List<Haiku> generateStream(int count) {
+        List<User> authors = new ArrayList<User>();
+        for (int i = 0; i < 8; i++) {
+            User author = new User();
+            author.id = "user" + i;
+            author.googlePlusId = String.valueOf(100000000000000000L + i);
+            author.googleDisplayName = "Author Number " + i;
+            author.googlePhotoUrl = "https://lh3.googleusercontent.com/photo" + i + "/photo.jpg";
+            author.googleProfileUrl = "https://plus.google.com/" + author.googlePlusId;
+            author.lastUpdated = new Date(0);
+            authors.add(author);
+        }
+        // Whole seconds, as the API's date format has no finer resolution.
+        long now = System.currentTimeMillis() / 1000 * 1000;
+        List<Haiku> haikus = new ArrayList<Haiku>(count);
+        for (int i = 0; i < count; i++) {
+            Haiku haiku = new Haiku();
+            haiku.id = String.format(Locale.US, "haiku%06d", count - i);
+            haiku.author = authors.get(i % authors.size());
+            haiku.title = "Haiku number " + (count - i);
+            haiku.lineOne = "An old silent pond";
+            haiku.lineTwo = "A frog jumps into the pond";
+            haiku.lineThree = "Splash! Silence again.";
+            haiku.votes = i % 50;
+            haiku.creationTime = new Date(now - i * 60000L);
+            haiku.contentUrl = "https://example.com/haikus/" + haiku.id;
+            haiku.contentDeepLinkId = "/haikus/" + haiku.id;
+            haiku.callToActionUrl = haiku.contentUrl + "?action=vote";
+            haiku.callToActionDeepLinkId = haiku.contentDeepLinkId + "?action=vote";
+            haikus.add(haiku);
+        }
+        return haikus;
+    }
+
+    /**
+     * Add haikus to the stream.
+     */
+    public synchronized void addHaikus(List<Haiku> haikus) {
+        mHaikus.addAll(haikus);
+        Collections.sort(mHaikus, NEWEST_FIRST);
+        touch();
+    }
+
+    /**
+     * Replace the stream with a generated one.
+     *
+     * @param count the number of haikus, see {@link #generateStream(int)}.
+     */
+    public synchronized void setDatasetSize(int count) {
+        mHaikus.clear();
+        addHaikus(generateStream(count));
+    }
+
+    /**
+     * Get a copy of the stream, newest first.
+     */
+    public synchronized List<Haiku> getHaikus() {
+        return new ArrayList<Haiku>(mHaikus);
+    }
+
+    /**
+     * Delay every response.
+     *
+     * @param latencyMs the fixed delay.
+     * @param jitterMs the most that is added at random to the fixed delay.
+     */
+    public void setLatency(long latencyMs, long jitterMs) {
+        mLatencyMs = latencyMs;
+        mJitterMs = jitterMs;
+    }
+
+    /**
+     * Fail a fraction of requests with a 503.
+     *
+     * @param errorRate the probability, from 0 to 1, that a request fails.
+     */
+    public void setErrorRate(double errorRate) {
+        mErrorRate = errorRate;
+    }
+
+    /**
+     * Set whether to answer in MessagePack when the client asks for it, rather than JSON.
+     */
+    public void setMessagePack(boolean messagePack) {
+        mMessagePack = messagePack;
+    }
+
+    /**
+     * Forget all sessions, so the next request on each has to sign in again.
+     */
+    public void expireSessions() {
+        mSessions.clear();
+    }
+
+    public int getRequestCount() {
+        return mRequestCount.get();
+    }
+
+    public int getInjectedErrorCount() {
+        return mInjectedErrors.get();
+    }
+
+    /**
+     * Get the number of conditional reads answered with a 304.
+     */
+    public int getNotModifiedCount() {
+        return mNotModified.get();
+    }
+
+    /**
+     * Start listening on a free port on the loopback interface.
+     *
+     * @return the port.
+     */
+    public synchronized int start() throws IOException {
+        mSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        mWorkers = Executors.newCachedThreadPool();
+        mWorkers.execute(new Runnable() {
+            @Override
+            public void run() {
+                acceptConnections();
+            }
+        });
+        return mSocket.getLocalPort();
+    }
+
+    /**
+     * Stop listening and close all connections.
+     */
+    public synchronized void shutdown() throws IOException {
+        if (mSocket != null) {
+            mSocket.close();
+            mWorkers.shutdownNow();
+            mSocket = null;
+        }
+    }
+
+    /**
+     * Get the base URL of the running server.
+     */
+    public String getUrl() {
+        return "http://127.0.0.1:" + mSocket.getLocalPort();
+    }
+
+    /**
+     * Build a rewriter that sends requests for the configured API server here instead, for use
+     * with {@link HurlStack}.
+     */
+    public HurlStack.UrlRewriter getUrlRewriter() {
+        final String url = getUrl();
+        return new HurlStack.UrlRewriter() {
+            @Override
+            public String rewriteUrl(String original) {
+                if (original.startsWith(Constants.SERVER_URL)) {
+                    return url + original.substring(Constants.SERVER_URL.length());
+                }
+                return original;
+            }
+        };
+    }
+
+    /**
+     * Get the encoded response to a request for the stream, as the server would send it.
+     *
+     * @param uri the request URL, with any paging parameters.
+     * @param accept the Accept header of the request.
+     * @return the response body.
+     */
+    public byte[] getStreamBody(Uri uri, String accept) throws IOException {
+        return encode(listHaikus(uri), acceptsMessagePack(accept));
+    }
+
+    private void acceptConnections() {
+        ServerSocket socket = mSocket;
+        while (!socket.isClosed()) {
+            try {
+                final Socket connection = socket.accept();
+                mWorkers.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        serve(connection);
+                    }
+                });
+            } catch (SocketException e) {
+                // Closed by shutdown().
+                return;
+            } catch (IOException e) {
+                Log.w(TAG, "Accept failed", e);
+            }
+        }
+    }
+
+    /**
+     * Serve requests on a connection until the client closes it or asks for it to be closed.
+     */
+    private void serve(Socket connection) {
+        try {
+            InputStream in = new BufferedInputStream(connection.getInputStream());
+            OutputStream out = new BufferedOutputStream(connection.getOutputStream());
+            boolean keepAlive = true;
+            while (keepAlive) {
+                Exchange exchange = Exchange.read(in);
+                if (exchange == null) {
+                    break;
+                }
+                keepAlive = !"close".equalsIgnoreCase(exchange.getHeader("Connection"));
+                delay();
+                respond(exchange);
+                if (exchange.body != null && exchange.body.length >= GZIP_MIN_BYTES
+                        && exchange.acceptsGzip()) {
+                    exchange.gzipBody();
+                }
+                exchange.write(out, keepAlive);
+            }
+        } catch (IOException e) {
+            Log.d(TAG, "Connection closed: " + e.getMessage());
+        } finally {
+            try {
+                connection.close();
+            } catch (IOException e) {
+                // Nothing useful to do.
+            }
+        }
+    }
+
+    private void delay() {
+        long delay = mLatencyMs;
+        if (mJitterMs > 0) {
+            synchronized (mRandom) {
+                delay += (long) (mRandom.nextDouble() * mJitterMs);
+            }
+        }
+        if (delay > 0) {
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private boolean injectError() {
+        if (mErrorRate <= 0) {
+            return false;
+        }
+        synchronized (mRandom) {
+            return mRandom.nextDouble() < mErrorRate;
+        }
+    }
+
+    /**
+     * Route a request and fill in its response.
+     */
+    private void respond(Exchange exchange) throws IOException {
+        mRequestCount.incrementAndGet();
+        if (injectError()) {
+            mInjectedErrors.incrementAndGet();
+            exchange.status = 503;
+            return;
+        }
+        route(exchange);
+        if ("GET".equals(exchange.method) && exchange.status == 200 && exchange.body != null) {
+            checkValidators(exchange);
+        }
+    }
+
+    /**
+     * Run the endpoint a request is for.
+     */
+    private void route(Exchange exchange) throws IOException {
+        Uri uri = Uri.parse(exchange.target);
+        String path = uri.getPath();
+        boolean binary = mMessagePack && acceptsMessagePack(exchange.getHeader("Accept"));
+        boolean signedIn = authenticate(exchange);
+
+        if ("GET".equals(exchange.method) && LIST_HAIKUS.equals(path)) {
+            exchange.setBody(encode(listHaikus(uri), binary), binary);
+            return;
+        }
+        if ("GET".equals(exchange.method) && path.startsWith(HAIKU_PREFIX)) {
+            Haiku haiku = findHaiku(path.substring(HAIKU_PREFIX.length()));
+            if (haiku == null) {
+                exchange.status = 404;
+            } else {
+                exchange.setBody(encode(haiku, binary), binary);
+            }
+            return;
+        }
+        if (!signedIn) {
+            // The real server sends this when the session is unknown or has expired.
+            exchange.status = 401;
+            exchange.responseHeaders.put("WWW-Authenticate", "Bearer realm=\"haikuplus\"");
+            return;
+        }
+        if ("GET".equals(exchange.method) && GET_USER.equals(path)) {
+            exchange.setBody(encode(mUser, binary), binary);
+        } else if ("POST".equals(exchange.method) && LIST_HAIKUS.equals(path)) {
+            Haiku haiku = writeHaiku(exchange);
+            if (haiku == null) {
+                exchange.status = 400;
+            } else {
+                exchange.setBody(encode(haiku, binary), binary);
+            }
+        } else if ("POST".equals(exchange.method) && path.startsWith(HAIKU_PREFIX)
+                && path.endsWith(VOTE_SUFFIX)) {
+            String id = path.substring(HAIKU_PREFIX.length(), path.length() - VOTE_SUFFIX.length());
+            Haiku haiku = vote(exchange, id);
+            if (haiku == null) {
+                exchange.status = 404;
+            } else {
+                exchange.setBody(encode(haiku, binary), binary);
+            }
+        } else if ("POST".equals(exchange.method)
+                && (SIGNOUT.equals(path) || DISCONNECT.equals(path))) {
+            mSessions.remove(exchange.sessionId);
+            if (DISCONNECT.equals(path)) {
+                removeHaikusBy(mUser);
+            }
+        } else {
+            exchange.status = 404;
+        }
+    }
+
+    /**
+     * Add validators to a successful read, and answer it with a 304 if the client's copy is
+     * still current. As HTTP specifies, If-Modified-Since only counts without If-None-Match.
+     */
+    private void checkValidators(Exchange exchange) {
+        // The body is still uncompressed here, and differs between formats.
+        String etag = "\"" + Integer.toHexString(Arrays.hashCode(exchange.body)) + "\"";
+        long lastModified = getLastModified();
+        exchange.responseHeaders.put("ETag", etag);
+        exchange.responseHeaders.put("Last-Modified", newHttpDateFormat().format(
+                new Date(lastModified)));
+        String ifNoneMatch = exchange.getHeader("If-None-Match");
+        String ifModifiedSince = exchange.getHeader("If-Modified-Since");
+        boolean notModified = false;
+        if (ifNoneMatch != null) {
+            notModified = ifNoneMatch.equals(etag) || "*".equals(ifNoneMatch);
+        } else if (ifModifiedSince != null) {
+            try {
+                notModified = newHttpDateFormat().parse(ifModifiedSince).getTime()
+                        >= lastModified;
+            } catch (ParseException e) {
+                // An unparseable date is ignored, as the header is only a hint.
+            }
+        }
+        if (notModified) {
+            mNotModified.incrementAndGet();
+            exchange.status = 304;
+            exchange.body = null;
+            exchange.responseHeaders.remove("Content-Type");
+        }
+    }
+
+    private static SimpleDateFormat newHttpDateFormat() {
+        SimpleDateFormat format = new SimpleDateFormat(HTTP_DATE_FORMAT, Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        return format;
+    }
+
+    private synchronized long getLastModified() {
+        return mLastModified;
+    }
+
+    /**
+     * Record that the data has changed, for Last-Modified.
+     */
+    private synchronized void touch() {
+        mLastModified = System.currentTimeMillis() / 1000 * 1000;
+    }
+
+    /**
+     * Check the request's session, starting a new one if it carries credentials.
+     *
+     * @return true if the request is signed in.
+     */
+    private boolean authenticate(Exchange exchange) {
+        String cookie = exchange.getHeader("Cookie");
+        if (cookie != null) {
+            for (String part : cookie.split(";")) {
+                part = part.trim();
+                if (part.startsWith(HaikuClient.COOKIE_PREFIX)) {
+                    exchange.sessionId = part.substring(HaikuClient.COOKIE_PREFIX.length());
+                }
+            }
+        }
+        if (exchange.sessionId != null && mSessions.containsKey(exchange.sessionId)) {
+            return true;
+        }
+        String authorization = exchange.getHeader("Authorization");
+        boolean hasToken = authorization != null && authorization.startsWith("Bearer ")
+                && authorization.length() > "Bearer ".length();
+        if (!hasToken && exchange.getHeader("X-OAuth-Code") == null) {
+            return false;
+        }
+        exchange.sessionId = UUID.randomUUID().toString();
+        mSessions.put(exchange.sessionId, Boolean.TRUE);
+        exchange.responseHeaders.put("Set-Cookie",
+                HaikuClient.COOKIE_PREFIX + exchange.sessionId + "; Path=/; HttpOnly");
+        return true;
+    }
+
+    /**
+     * Select the haikus for a stream request: those before the paging cursor or after the
+     * watermark, if given, up to the limit.
+     */
+    private synchronized List<Haiku> listHaikus(Uri uri) {
+        Haiku before = cursor(uri, "before_time", "before_id");
+        Haiku since = cursor(uri, "since_time", "since_id");
+        int limit = Integer.MAX_VALUE;
+        if (uri.getQueryParameter("limit") != null) {
+            limit = Integer.parseInt(uri.getQueryParameter("limit"));
+        }
+        List<Haiku> page = new ArrayList<Haiku>();
+        for (Haiku haiku : mHaikus) {
+            if (page.size() >= limit) {
+                break;
+            }
+            if (since != null && NEWEST_FIRST.compare(haiku, since) >= 0) {
+                break;
+            }
+            if (before == null || NEWEST_FIRST.compare(haiku, before) > 0) {
+                page.add(haiku);
+            }
+        }
+        return page;
+    }
+
+    private synchronized Haiku findHaiku(String id) {
+        for (Haiku haiku : mHaikus) {
+            if (haiku.id.equals(id)) {
+                return haiku;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Count a vote for a haiku, once per idempotency key.
+     */
+    private synchronized Haiku vote(Exchange exchange, String id) {
+        String key = exchange.getHeader("Idempotency-Key");
+        if (key != null && mWrites.containsKey(key)) {
+            return mWrites.get(key);
+        }
+        Haiku haiku = findHaiku(id);
+        if (haiku != null) {
+            haiku.votes++;
+            touch();
+            if (key != null) {
+                mWrites.put(key, haiku);
+            }
+        }
+        return haiku;
+    }
+
+    /**
+     * Add a haiku from a request body, once per idempotency key.
+     */
+    private synchronized Haiku writeHaiku(Exchange exchange) throws IOException {
+        String key = exchange.getHeader("Idempotency-Key");
+        if (key != null && mWrites.containsKey(key)) {
+            return mWrites.get(key);
+        }
+        Haiku haiku;
+        try {
+            haiku = mGson.fromJson(new InputStreamReader(exchange.openBody(), UTF_8),
+                    HaikuCodecs.HAIKU.getType());
+        } catch (JsonParseException e) {
+            return null;
+        }
+        if (haiku == null) {
+            return null;
+        }
+        haiku.id = UUID.randomUUID().toString();
+        haiku.author = mUser;
+        haiku.votes = 0;
+        haiku.creationTime = new Date(System.currentTimeMillis() / 1000 * 1000);
+        addHaikus(Collections.singletonList(haiku));
+        if (key != null) {
+            mWrites.put(key, haiku);
+        }
+        return haiku;
+    }
+
+    private synchronized void removeHaikusBy(User user) {
+        if (user == null) {
+            return;
+        }
+        for (Iterator<Haiku> it = mHaikus.iterator(); it.hasNext(); ) {
+            User author = it.next().author;
+            if (author != null && user.id != null && user.id.equals(author.id)) {
+                it.remove();
+                touch();
+            }
+        }
+    }
+
+    /**
+     * Parse a stream position from the query string, as a haiku to compare against.
+     */
+    private static Haiku cursor(Uri uri, String timeParam, String idParam) {
+        String time = uri.getQueryParameter(timeParam);
+        String id = uri.getQueryParameter(idParam);
+        if (time == null || id == null) {
+            return null;
+        }
+        Haiku position = new Haiku();
+        position.id = id;
+        try {
+            position.creationTime = new SimpleDateFormat(DATE_FORMAT, Locale.US).parse(time);
+        } catch (ParseException e) {
+            throw new IllegalArgumentException("Bad " + timeParam + ": " + time, e);
+        }
+        return position;
+    }
+
+    private static boolean acceptsMessagePack(String accept) {
+        return accept != null && accept.contains(MessagePackCodec.CONTENT_TYPE);
+    }
+
+    /**
+     * Encode a haiku, list of haikus or user.
+     */
+    @SuppressWarnings("unchecked")
+    private byte[] encode(Object value, boolean binary) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        if (value instanceof List) {
+            if (!binary) {
+                return mGson.toJson(value, HaikuCodecs.HAIKU_LIST.getType()).getBytes(UTF_8);
+            }
+            MessagePackCodec.writeHaikuList((List<Haiku>) value, out);
+        } else if (value instanceof Haiku) {
+            if (!binary) {
+                return mGson.toJson(value, HaikuCodecs.HAIKU.getType()).getBytes(UTF_8);
+            }
+            MessagePackCodec.writeHaiku((Haiku) value, out);
+        } else {
+            if (!binary) {
+                return mGson.toJson(value, HaikuCodecs.USER.getType()).getBytes(UTF_8);
+            }
+            MessagePackCodec.writeUser((User) value, out);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * A single request read from a connection, and the response being built for it.
+     */
+    private static class Exchange {
+        String method;
+        String target;
+        final Map<String, String> headers = new HashMap<String, String>();
+        byte[] requestBody;
+        String sessionId;
+
+        int status = 200;
+        final Map<String, String> responseHeaders = new HashMap<String, String>();
+        byte[] body;
+
+        /**
+         * Read the next request from a connection.
+         *
+         * @return the request, or null if the client closed the connection.
+         */
+        static Exchange read(InputStream in) throws IOException {
+            String requestLine = readLine(in);
+            if (requestLine == null || requestLine.isEmpty()) {
+                return null;
+            }
+            String[] parts = requestLine.split(" ");
+            if (parts.length < 2) {
+                throw new IOException("Bad request line: " + requestLine);
+            }
+            Exchange exchange = new Exchange();
+            exchange.method = parts[0];
+            exchange.target = parts[1];
+            String line;
+            while ((line = readLine(in)) != null && !line.isEmpty()) {
+                int colon = line.indexOf(':');
+                if (colon > 0) {
+                    exchange.headers.put(line.substring(0, colon).trim().toLowerCase(Locale.US),
+                            line.substring(colon + 1).trim());
+                }
+            }
+            String length = exchange.getHeader("Content-Length");
+            exchange.requestBody = new byte[length != null ? Integer.parseInt(length) : 0];
+            new DataInputStream(in).readFully(exchange.requestBody);
+            return exchange;
+        }
+
+        private static String readLine(InputStream in) throws IOException {
+            StringBuilder line = new StringBuilder();
+            int c;
+            while ((c = in.read()) != -1 && c != '\n') {
+                if (c != '\r') {
+                    line.append((char) c);
+                }
+            }
+            return c == -1 && line.length() == 0 ? null : line.toString();
+        }
+
+        String getHeader(String name) {
+            return headers.get(name.toLowerCase(Locale.US));
+        }
+
+        boolean acceptsGzip() {
+            String encodings = getHeader("Accept-Encoding");
+            return encodings != null && encodings.contains("gzip");
+        }
+
+        InputStream openBody() throws IOException {
+            InputStream in = new ByteArrayInputStream(requestBody);
+            return "gzip".equalsIgnoreCase(getHeader("Content-Encoding"))
+                    ? new GZIPInputStream(in) : in;
+        }
+
+        void setBody(byte[] data, boolean binary) {
+            body = data;
+            responseHeaders.put("Content-Type",
+                    binary ? MessagePackCodec.CONTENT_TYPE : CONTENT_TYPE_JSON);
+        }
+
+        void gzipBody() throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            GZIPOutputStream out = new GZIPOutputStream(bytes);
+            out.write(body);
+            out.close();
+            body = bytes.toByteArray();
+            responseHeaders.put("Content-Encoding", "gzip");
+        }
+
+        void write(OutputStream out, boolean keepAlive) throws IOException {
+            byte[] data = body != null ? body : new byte[0];
+            StringBuilder head = new StringBuilder();
+            head.append("HTTP/1.1 ").append(status).append(' ').append(reason(status))
+                    .append(CRLF);
+            for (Map.Entry<String, String> header : responseHeaders.entrySet()) {
+                head.append(header.getKey()).append(": ").append(header.getValue()).append(CRLF);
+            }
+            head.append("Content-Length: ").append(data.length).append(CRLF);
+            head.append("Connection: ").append(keepAlive ? "keep-alive" : "close").append(CRLF);
+            head.append(CRLF);
+            out.write(head.toString().getBytes(UTF_8));
+            out.write(data);
+            out.flush();
+        }
+
+        private static String reason(int status) {
+            switch (status) {
+                case 200:
+                    return "OK";
+                case 304:
+                    return "Not Modified";
+                case 400:
+                    return "Bad Request";
+                case 401:
+                    return "Unauthorized";
+                case 404:
+                    return "Not Found";
+                case 503:
+                    return "Service Unavailable";
+                default:
+                    return "Status";
+            }
+        }
+    }
+}
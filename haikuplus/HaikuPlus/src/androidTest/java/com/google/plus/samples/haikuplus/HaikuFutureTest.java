@@ -0,0 +1,111 @@
+/* Copyright (C) 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.plus.samples.haikuplus;
+
+import com.google.plus.samples.haikuplus.api.HaikuFuture;
+
+import android.test.suitebuilder.annotation.SmallTest;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Tests for the {@link HaikuFuture} combinators.
+ */
+@SmallTest
+public class HaikuFutureTest extends TestCase {
+
+    public void testAllOfKeepsOrder() throws Exception {
+        HaikuFuture<String> first = new HaikuFuture<String>();
+        HaikuFuture<Integer> second = new HaikuFuture<Integer>();
+        HaikuFuture<List<Object>> all = HaikuFuture.allOf(first, second);
+
+        second.set(2);
+        assertFalse(all.isDone());
+        first.set("one");
+        assertEquals(Arrays.<Object>asList("one", 2), all.get());
+    }
+
+    public void testAllOfFailsFast() throws Exception {
+        HaikuFuture<String> first = new HaikuFuture<String>();
+        HaikuFuture<String> second = new HaikuFuture<String>();
+        HaikuFuture<List<Object>> all = HaikuFuture.allOf(first, second);
+
+        IllegalStateException error = new IllegalStateException();
+        first.setException(error);
+        assertTrue(all.isDone());
+        try {
+            all.get();
+            fail("Expected the failure to be passed on");
+        } catch (ExecutionException e) {
+            assertSame(error, e.getCause());
+        }
+    }
+
+    public void testThenAndOrElse() throws Exception {
+        HaikuFuture<String> title = new HaikuFuture<String>();
+        HaikuFuture<Integer> length = title.then(new HaikuFuture.Transform<String, Integer>() {
+            @Override
+            public Integer apply(String input) {
+                return input.length();
+            }
+        });
+        title.set("Autumn");
+        assertEquals(Integer.valueOf(6), length.get());
+
+        HaikuFuture<Integer> failed = HaikuFuture.<String>failed(new Exception())
+                .then(new HaikuFuture.Transform<String, Integer>() {
+                    @Override
+                    public Integer apply(String input) {
+                        throw new AssertionError("Transform should not run after a failure");
+                    }
+                });
+        assertEquals(Integer.valueOf(0), failed.orElse(0).get());
+    }
+
+    public void testThenCompose() throws Exception {
+        final HaikuFuture<String> second = new HaikuFuture<String>();
+        HaikuFuture<String> chained = HaikuFuture.immediate("id")
+                .thenCompose(new HaikuFuture.AsyncTransform<String, String>() {
+                    @Override
+                    public HaikuFuture<String> apply(String input) {
+                        return second;
+                    }
+                });
+        assertFalse(chained.isDone());
+        second.set("haiku");
+        assertEquals("haiku", chained.get());
+    }
+
+    public void testCancelCompletesOnce() throws Exception {
+        HaikuFuture<String> future = new HaikuFuture<String>();
+        HaikuFuture<String> recovered = future.orElse("fallback");
+
+        assertTrue(future.cancel(false));
+        assertFalse(future.set("late"));
+        assertTrue(future.isCancelled());
+        try {
+            recovered.get();
+            fail("Expected cancellation to pass through orElse");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof CancellationException);
+        }
+    }
+}
@@ -0,0 +1,252 @@
+/* Copyright (C) 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.plus.samples.haikuplus;
+
+import com.google.plus.samples.haikuplus.api.HaikuClient;
+import com.google.plus.samples.haikuplus.api.StreamPage;
+import com.google.plus.samples.haikuplus.models.Haiku;
+import com.google.plus.samples.haikuplus.models.User;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drives a {@link HaikuClient} with a fixed number of operations in flight and measures how
+ * long each takes to deliver its first result. The mix is weighted towards what the app does
+ * most: six in ten operations fetch a page of the stream, three fetch a single haiku and one
+ * fetches the signed in user. Pages and haikus are picked at random from the dataset the
+ * server was loaded with.
+ *
+ * Operations are started and completed on the main thread, as the app's are.
+ */
+public class LoadHarness {
+    private final HaikuClient mClient;
+    private final List<Haiku> mDataset;
+    private final int mPageSize;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final Random mRandom = new Random(42);
+
+    /**
+     * @param client the client to drive.
+     * @param dataset the haikus the server holds, newest first.
+     * @param pageSize the number of haikus to ask for per page.
+     */
+    public LoadHarness(HaikuClient client, List<Haiku> dataset, int pageSize) {
+        mClient = client;
+        mDataset = dataset;
+        mPageSize = pageSize;
+    }
+
+    /**
+     * Run a number of operations, keeping a fixed number in flight, and wait for them all to
+     * complete.
+     *
+     * @param concurrency the number of operations in flight at once.
+     * @param operations the total number of operations.
+     * @param timeoutMs how long to wait before giving up on the rest.
+     * @return the results; check {@link Report#getCompletedCount()} if the run may time out.
+     */
+    public Report run(final int concurrency, int operations, long timeoutMs)
+            throws InterruptedException {
+        final Run run = new Run(operations);
+        final long start = System.nanoTime();
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < concurrency; i++) {
+                    startNext(run);
+                }
+            }
+        });
+        run.mDone.await(timeoutMs, TimeUnit.MILLISECONDS);
+        final long elapsed = System.nanoTime() - start;
+        // Read the results on the main thread, where they were written.
+        final Report[] report = new Report[1];
+        final CountDownLatch read = new CountDownLatch(1);
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                // Stop anything still outstanding from starting more work.
+                run.mStarted = run.mLatencies.length;
+                report[0] = new Report(concurrency, Arrays.copyOf(run.mLatencies, run.mCompleted),
+                        run.mErrors, elapsed);
+                read.countDown();
+            }
+        });
+        read.await();
+        return report[0];
+    }
+
+    private void startNext(final Run run) {
+        if (run.mStarted >= run.mLatencies.length) {
+            return;
+        }
+        int index = run.mStarted++;
+        final Operation operation = new Operation(run);
+        int kind = index % 10;
+        if (kind < 6) {
+            int pages = Math.max(1, mDataset.size() / mPageSize);
+            int page = mRandom.nextInt(pages);
+            StreamPage.Cursor cursor =
+                    page == 0 ? null : StreamPage.Cursor.after(mDataset.get(page * mPageSize - 1));
+            mClient.fetchStreamPage(HaikuClient.StreamMode.ALL, cursor, mPageSize,
+                    new HaikuClient.HaikuPageListener() {
+                        @Override
+                        public void onPageRetrieved(StreamPage page) {
+                            operation.complete(page != null);
+                        }
+                    });
+        } else if (kind < 9) {
+            Haiku haiku = mDataset.get(mRandom.nextInt(mDataset.size()));
+            mClient.fetchHaiku(haiku.id, new HaikuClient.HaikuRetrievedListener() {
+                @Override
+                public void onHaikuRetrieved(Haiku data) {
+                    operation.complete(data != null);
+                }
+            });
+        } else {
+            mClient.fetchCurrentUser(new HaikuClient.HaikuServiceListener() {
+                @Override
+                public void onUserRetrieved(User user) {
+                    operation.complete(user != null);
+                }
+
+                @Override
+                public void onHaikuWritten(Haiku haiku) {
+                }
+
+                @Override
+                public void onHaikuQueued(Haiku haiku) {
+                }
+
+                @Override
+                public void onVoteWritten(Haiku haiku) {
+                }
+
+                @Override
+                public void onSignedOut() {
+                }
+            });
+        }
+    }
+
+    /**
+     * The state of one call to {@link #run}, only touched on the main thread.
+     */
+    private static class Run {
+        final long[] mLatencies;
+        final CountDownLatch mDone;
+        int mStarted;
+        int mCompleted;
+        int mErrors;
+
+        Run(int operations) {
+            mLatencies = new long[operations];
+            mDone = new CountDownLatch(operations);
+        }
+    }
+
+    /**
+     * A single operation. A cached result may be followed by a fresh one, so only the first
+     * result counts.
+     */
+    private class Operation {
+        private final Run mRun;
+        private final long mStartNanos = System.nanoTime();
+        private boolean mCompleted;
+
+        Operation(Run run) {
+            mRun = run;
+        }
+
+        void complete(boolean success) {
+            if (mCompleted || mRun.mCompleted >= mRun.mLatencies.length) {
+                return;
+            }
+            mCompleted = true;
+            mRun.mLatencies[mRun.mCompleted++] = System.nanoTime() - mStartNanos;
+            if (!success) {
+                mRun.mErrors++;
+            }
+            mRun.mDone.countDown();
+            startNext(mRun);
+        }
+    }
+
+    /**
+     * Throughput and latency percentiles of a run.
+     */
+    public static class Report {
+        private final int mConcurrency;
+        private final long[] mLatencies;
+        private final int mErrors;
+        private final long mElapsedNanos;
+
+        Report(int concurrency, long[] latencies, int errors, long elapsedNanos) {
+            mConcurrency = concurrency;
+            mLatencies = latencies;
+            mErrors = errors;
+            mElapsedNanos = elapsedNanos;
+            Arrays.sort(mLatencies);
+        }
+
+        public int getCompletedCount() {
+            return mLatencies.length;
+        }
+
+        public int getErrorCount() {
+            return mErrors;
+        }
+
+        /**
+         * Get the number of operations completed per second.
+         */
+        public double getThroughput() {
+            return mLatencies.length * (double) TimeUnit.SECONDS.toNanos(1) / mElapsedNanos;
+        }
+
+        /**
+         * Get a latency percentile.
+         *
+         * @param percentile from 0 to 100.
+         * @return the latency in milliseconds, or 0 if nothing completed.
+         */
+        public double getPercentileMs(double percentile) {
+            if (mLatencies.length == 0) {
+                return 0;
+            }
+            int index = (int) Math.ceil(percentile / 100 * mLatencies.length) - 1;
+            index = Math.min(mLatencies.length - 1, Math.max(0, index));
+            return mLatencies[index] / (double) TimeUnit.MILLISECONDS.toNanos(1);
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "concurrency=%d completed=%d errors=%d "
+                    + "throughput=%.1f/s p50=%.1fms p90=%.1fms p99=%.1fms max=%.1fms",
+                    mConcurrency, getCompletedCount(), mErrors, getThroughput(),
+                    getPercentileMs(50), getPercentileMs(90), getPercentileMs(99),
+                    getPercentileMs(100));
+        }
+    }
+}
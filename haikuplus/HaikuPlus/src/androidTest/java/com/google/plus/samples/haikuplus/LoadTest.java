@@ -0,0 +1,128 @@
+/* Copyright (C) 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.plus.samples.haikuplus;
+
+import com.android.volley.toolbox.HurlStack;
+import com.google.plus.samples.haikuplus.api.HaikuClient;
+import com.google.plus.samples.haikuplus.api.HaikuSession;
+import com.google.plus.samples.haikuplus.api.Transport;
+import com.google.plus.samples.haikuplus.api.VolleyContainer;
+import com.google.plus.samples.haikuplus.models.User;
+
+import android.content.Context;
+import android.test.InstrumentationTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.util.Log;
+
+/**
+ * Run the real {@link HaikuClient}, with its network and parsing path, against
+ * {@link FakeHaikuServer} under load. Reports are logged under the "HaikuPlus-Load" tag.
+ */
+@LargeTest
+public class LoadTest extends InstrumentationTestCase {
+    private static final String TAG = "HaikuPlus-Load";
+    private static final int DATASET_SIZE = 1000;
+    private static final int PAGE_SIZE = 20;
+    private static final int OPERATIONS = 300;
+    private static final long TIMEOUT_MS = 120 * 1000;
+
+    private FakeHaikuServer mServer;
+    private HaikuSession mSession;
+    private String mSavedAccount;
+    private String mSavedSessionId;
+    private LoadHarness mHarness;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        Context context = getInstrumentation().getTargetContext();
+
+        User user = new User();
+        user.id = "load";
+        user.googleDisplayName = "Load Test";
+        mServer = new FakeHaikuServer(user);
+        mServer.setDatasetSize(DATASET_SIZE);
+        mServer.start();
+
+        VolleyContainer.setTransport(new Transport(
+                new HurlStack(mServer.getUrlRewriter()),
+                Transport.DEFAULT_THREAD_POOL_SIZE));
+        VolleyContainer.getInstance(context).getRequestQueue().getCache().clear();
+
+        // Sign in with an ID token, which the server exchanges for a session cookie.
+        mSession = HaikuSession.getSessionForServer(context);
+        mSavedAccount = mSession.getAccountName();
+        mSavedSessionId = mSession.getSessionId();
+        mSession.storeAccountName("load@example.com");
+        mSession.storeSessionId(null);
+        mSession.setIdToken("load-test-id-token");
+
+        HaikuClient.setClientInstance(null);
+        mHarness = new LoadHarness(HaikuClient.getInstance(context, mSession),
+                mServer.getHaikus(), PAGE_SIZE);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mSession.setIdToken(null);
+        mSession.storeSessionId(mSavedSessionId);
+        mSession.storeAccountName(mSavedAccount);
+        VolleyContainer.setTransport(null);
+        mServer.shutdown();
+        super.tearDown();
+    }
+
+    public void testThroughputByConcurrency() throws InterruptedException {
+        for (int concurrency : new int[] {1, 4, 16}) {
+            LoadHarness.Report report = mHarness.run(concurrency, OPERATIONS, TIMEOUT_MS);
+            Log.i(TAG, report.toString());
+            assertEquals(OPERATIONS, report.getCompletedCount());
+            assertEquals(0, report.getErrorCount());
+        }
+        Log.i(TAG, "Server requests: " + mServer.getRequestCount());
+        Log.i(TAG, "Client metrics: " + HaikuClient.getMetrics());
+    }
+
+    public void testRevalidation() throws InterruptedException {
+        assertEquals(0, mHarness.run(4, OPERATIONS, TIMEOUT_MS).getErrorCount());
+        // Drop the cached bodies but not the parsed responses, so repeat reads go to the server
+        // with the validators they were served with and are answered 304.
+        VolleyContainer.getInstance(getInstrumentation().getTargetContext())
+                .getRequestQueue().getCache().clear();
+        LoadHarness.Report report = mHarness.run(4, OPERATIONS, TIMEOUT_MS);
+        Log.i(TAG, report.toString() + ", not modified " + mServer.getNotModifiedCount());
+        assertEquals(0, report.getErrorCount());
+        assertTrue(mServer.getNotModifiedCount() > 0);
+    }
+
+    public void testSlowAndFailingServer() throws InterruptedException {
+        mServer.setLatency(50, 100);
+        mServer.setErrorRate(0.1);
+        LoadHarness.Report report = mHarness.run(8, OPERATIONS, TIMEOUT_MS);
+        Log.i(TAG, report.toString() + ", injected errors " + mServer.getInjectedErrorCount());
+        // Every operation must finish, one way or the other.
+        assertEquals(OPERATIONS, report.getCompletedCount());
+    }
+
+    public void testSessionExpiresUnderLoad() throws InterruptedException {
+        assertEquals(0, mHarness.run(4, 50, TIMEOUT_MS).getErrorCount());
+        mServer.expireSessions();
+        LoadHarness.Report report = mHarness.run(4, OPERATIONS, TIMEOUT_MS);
+        Log.i(TAG, report.toString());
+        assertEquals(OPERATIONS, report.getCompletedCount());
+        assertEquals(0, report.getErrorCount());
+    }
+}
@@ -0,0 +1,142 @@
+/* Copyright (C) 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.plus.samples.haikuplus;
+
+import com.google.gson.Gson;
+import com.google.plus.samples.haikuplus.api.HaikuCodecs;
+import com.google.plus.samples.haikuplus.api.MessagePackCodec;
+import com.google.plus.samples.haikuplus.models.Haiku;
+
+import android.net.Uri;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.util.Log;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compare the JSON and MessagePack encodings of a large stream, as served by
+ * {@link FakeHaikuServer}: payload size, raw and gzipped, and decode time. Results are logged
+ * under the "HaikuPlus-WireFormat" tag.
+ */
+@LargeTest
+public class WireFormatBenchmark extends TestCase {
+    private static final String TAG = "HaikuPlus-WireFormat";
+    private static final int STREAM_SIZE = 1000;
+    private static final int WARM_UP_RUNS = 5;
+    private static final int TIMED_RUNS = 20;
+    private static final String ACCEPT_JSON = "application/json";
+    private static final String ACCEPT_BINARY =
+            MessagePackCodec.CONTENT_TYPE + ", application/json;q=0.5";
+
+    private final Gson mGson = HaikuCodecs.getGson();
+    private byte[] mJson;
+    private byte[] mBinary;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        FakeHaikuServer server = new FakeHaikuServer(null);
+        server.addHaikus(FakeHaikuServer.generateStream(STREAM_SIZE));
+        Uri uri = Uri.parse("http://localhost/api/haikus");
+        mJson = server.getStreamBody(uri, ACCEPT_JSON);
+        mBinary = server.getStreamBody(uri, ACCEPT_BINARY);
+    }
+
+    public void testBinaryDecodesToSameStream() throws IOException {
+        List<Haiku> fromJson = decodeJson();
+        List<Haiku> fromBinary = decodeBinary();
+        assertEquals(STREAM_SIZE, fromBinary.size());
+        assertEquals(fromJson.size(), fromBinary.size());
+        for (int i = 0; i < fromJson.size(); i++) {
+            Haiku expected = fromJson.get(i);
+            Haiku actual = fromBinary.get(i);
+            assertEquals(expected.id, actual.id);
+            assertEquals(expected.title, actual.title);
+            assertEquals(expected.lineOne, actual.lineOne);
+            assertEquals(expected.lineTwo, actual.lineTwo);
+            assertEquals(expected.lineThree, actual.lineThree);
+            assertEquals(expected.votes, actual.votes);
+            assertEquals(expected.creationTime, actual.creationTime);
+            assertEquals(expected.contentUrl, actual.contentUrl);
+            assertEquals(expected.callToActionDeepLinkId, actual.callToActionDeepLinkId);
+            assertEquals(expected.author.id, actual.author.id);
+            assertEquals(expected.author.googleDisplayName, actual.author.googleDisplayName);
+            assertEquals(expected.author.lastUpdated, actual.author.lastUpdated);
+        }
+    }
+
+    public void testPayloadSize() throws IOException {
+        int jsonGzipped = gzip(mJson).length;
+        int binaryGzipped = gzip(mBinary).length;
+        Log.i(TAG, "Payload for " + STREAM_SIZE + " haikus: JSON " + mJson.length
+                + " bytes (" + jsonGzipped + " gzipped), MessagePack " + mBinary.length
+                + " bytes (" + binaryGzipped + " gzipped)");
+        assertTrue(mBinary.length < mJson.length);
+    }
+
+    public void testDecodeTime() throws IOException {
+        long jsonNanos = medianDecodeNanos(false);
+        long binaryNanos = medianDecodeNanos(true);
+        Log.i(TAG, "Median decode of " + STREAM_SIZE + " haikus: JSON "
+                + jsonNanos / 1000 + "us, MessagePack " + binaryNanos / 1000 + "us");
+    }
+
+    private long medianDecodeNanos(boolean binary) throws IOException {
+        for (int i = 0; i < WARM_UP_RUNS; i++) {
+            decode(binary);
+        }
+        long[] runs = new long[TIMED_RUNS];
+        for (int i = 0; i < TIMED_RUNS; i++) {
+            long start = System.nanoTime();
+            decode(binary);
+            runs[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(runs);
+        return runs[TIMED_RUNS / 2];
+    }
+
+    private List<Haiku> decode(boolean binary) throws IOException {
+        return binary ? decodeBinary() : decodeJson();
+    }
+
+    private List<Haiku> decodeJson() {
+        return mGson.fromJson(new InputStreamReader(new ByteArrayInputStream(mJson),
+                Charset.forName("UTF-8")), HaikuCodecs.HAIKU_LIST.getType());
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Haiku> decodeBinary() throws IOException {
+        return (List<Haiku>) MessagePackCodec.read(new ByteArrayInputStream(mBinary),
+                HaikuCodecs.HAIKU_LIST);
+    }
+
+    private static byte[] gzip(byte[] data) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        GZIPOutputStream out = new GZIPOutputStream(bytes);
+        out.write(data);
+        out.close();
+        return bytes.toByteArray();
+    }
+}
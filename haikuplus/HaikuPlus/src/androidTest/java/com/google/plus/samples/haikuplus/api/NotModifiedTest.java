@@ -0,0 +1,102 @@
+/* Copyright (C) 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.plus.samples.haikuplus.api;
+
+import com.android.volley.toolbox.HurlStack;
+import com.google.plus.samples.haikuplus.Constants;
+import com.google.plus.samples.haikuplus.FakeHaikuServer;
+import com.google.plus.samples.haikuplus.models.Haiku;
+import com.google.plus.samples.haikuplus.models.User;
+
+import android.content.Context;
+import android.test.InstrumentationTestCase;
+import android.test.suitebuilder.annotation.MediumTest;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads answered with a 304 against {@link FakeHaikuServer}, which only has the cached body to
+ * go on and must decode it the way the original response was decoded.
+ */
+@MediumTest
+public class NotModifiedTest extends InstrumentationTestCase {
+    private static final long TIMEOUT_S = 10;
+    // Basho's frog haiku, in Japanese.
+    private static final String TITLE = "Bash\u014d";
+    private static final String LINE_ONE = "\u53e4\u6c60\u3084";
+    private static final String LINE_TWO = "\u86d9\u98db\u3073\u8fbc\u3080";
+    private static final String LINE_THREE = "\u6c34\u306e\u97f3";
+
+    private Context mContext;
+    private FakeHaikuServer mServer;
+    private HaikuClient mClient;
+    private String mHaikuId;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext = getInstrumentation().getTargetContext();
+
+        Haiku haiku = FakeHaikuServer.generateStream(1).get(0);
+        haiku.title = TITLE;
+        haiku.lineOne = LINE_ONE;
+        haiku.lineTwo = LINE_TWO;
+        haiku.lineThree = LINE_THREE;
+        mHaikuId = haiku.id;
+        mServer = new FakeHaikuServer(new User());
+        // JSON, whose charset comes from the Content-Type that a 304 leaves out.
+        mServer.setMessagePack(false);
+        mServer.addHaikus(Collections.singletonList(haiku));
+        mServer.start();
+
+        VolleyContainer.setTransport(new Transport(
+                new HurlStack(mServer.getUrlRewriter()),
+                Transport.DEFAULT_THREAD_POOL_SIZE));
+        VolleyContainer.getInstance(mContext).getRequestQueue().getCache().clear();
+        HaikuApiRequest.clearParsedResponses();
+        HaikuClient.setClientInstance(null);
+        mClient = HaikuClient.getInstance(mContext, HaikuSession.getSessionForServer(mContext));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        VolleyContainer.setTransport(null);
+        mServer.shutdown();
+        super.tearDown();
+    }
+
+    public void testNonAsciiHaikuThroughNotModified() throws Exception {
+        assertHaiku(mClient.fetchHaiku(mHaikuId).get(TIMEOUT_S, TimeUnit.SECONDS));
+
+        // Expire the cached copy, as a write does, so the next read is revalidated.
+        VolleyContainer.getInstance(mContext).invalidateCache(Constants.SERVER_URL);
+        assertHaiku(mClient.fetchHaiku(mHaikuId).get(TIMEOUT_S, TimeUnit.SECONDS));
+        assertEquals(1, mServer.getNotModifiedCount());
+
+        // Decode the copy cached from the 304 from scratch, as a new process would.
+        HaikuApiRequest.clearParsedResponses();
+        assertHaiku(mClient.fetchHaiku(mHaikuId).get(TIMEOUT_S, TimeUnit.SECONDS));
+        assertEquals(1, mServer.getNotModifiedCount());
+    }
+
+    private static void assertHaiku(Haiku haiku) {
+        assertEquals(TITLE, haiku.title);
+        assertEquals(LINE_ONE, haiku.lineOne);
+        assertEquals(LINE_TWO, haiku.lineTwo);
+        assertEquals(LINE_THREE, haiku.lineThree);
+    }
+}
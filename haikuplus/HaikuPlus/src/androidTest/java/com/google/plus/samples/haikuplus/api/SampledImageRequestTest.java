@@ -0,0 +1,103 @@
+/* Copyright (C) 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.plus.samples.haikuplus.api;
+
+import android.graphics.Bitmap;
+import android.os.Build;
+import android.test.suitebuilder.annotation.SmallTest;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Tests for {@link SampledImageRequest#decode}, which sits in the api package because it is
+ * package-private.
+ */
+@SmallTest
+public class SampledImageRequestTest extends TestCase {
+    private static final Bitmap.Config CONFIG = Bitmap.Config.RGB_565;
+
+    private BitmapPool mPool;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mPool = new BitmapPool(1024 * 1024);
+    }
+
+    public void testSamplesToViewSize() {
+        // 200x100 into a 50x50 view is exactly a quarter, so sampling alone gets there.
+        Bitmap bitmap = SampledImageRequest.decode(encode(200, 100), 50, 50, CONFIG, mPool);
+        assertEquals(50, bitmap.getWidth());
+        assertEquals(25, bitmap.getHeight());
+        assertEquals(CONFIG, bitmap.getConfig());
+        assertEquals(0, mPool.getSnapshot().getSizeBytes());
+    }
+
+    public void testScalesTheRestAndPoolsTheSampledBitmap() {
+        // Sampled by 2 to 100x50, then scaled to 60x30; the 100x50 goes back to the pool.
+        Bitmap bitmap = SampledImageRequest.decode(encode(200, 100), 60, 60, CONFIG, mPool);
+        assertEquals(60, bitmap.getWidth());
+        assertEquals(30, bitmap.getHeight());
+        Bitmap sampled = mPool.get(100, 50, CONFIG);
+        assertNotNull(sampled);
+        assertNotSame(bitmap, sampled);
+    }
+
+    public void testSmallerImagesLeftAlone() {
+        Bitmap bitmap = SampledImageRequest.decode(encode(20, 10), 50, 50, CONFIG, mPool);
+        assertEquals(20, bitmap.getWidth());
+        assertEquals(10, bitmap.getHeight());
+    }
+
+    public void testReusesExactSizeBitmapWithoutSampling() {
+        Bitmap pooled = Bitmap.createBitmap(40, 20, CONFIG);
+        mPool.put(pooled);
+
+        Bitmap bitmap = SampledImageRequest.decode(encode(40, 20), 0, 0, CONFIG, mPool);
+        assertSame(pooled, bitmap);
+        assertEquals(1, mPool.getSnapshot().getHitCount());
+    }
+
+    public void testReusesForSampledDecodeFromKitKat() {
+        Bitmap pooled = Bitmap.createBitmap(50, 25, CONFIG);
+        mPool.put(pooled);
+
+        Bitmap bitmap = SampledImageRequest.decode(encode(200, 100), 50, 50, CONFIG, mPool);
+        assertEquals(50, bitmap.getWidth());
+        assertEquals(25, bitmap.getHeight());
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            assertSame(pooled, bitmap);
+        } else {
+            // Before KitKat the decoder can only reuse a bitmap when it isn't sampling.
+            assertNotSame(pooled, bitmap);
+            assertSame(pooled, mPool.get(50, 25, CONFIG));
+        }
+    }
+
+    public void testNotAnImage() {
+        assertNull(SampledImageRequest.decode(new byte[] {1, 2, 3}, 50, 50, CONFIG, mPool));
+    }
+
+    private static byte[] encode(int width, int height) {
+        // Opaque, so the decoder honours RGB_565.
+        Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.RGB_565);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        bitmap.compress(Bitmap.CompressFormat.PNG, 100, bytes);
+        return bytes.toByteArray();
+    }
+}
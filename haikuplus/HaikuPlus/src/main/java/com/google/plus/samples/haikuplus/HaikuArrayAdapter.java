@@ -15,7 +15,10 @@
 
 package com.google.plus.samples.haikuplus;
 
+import com.google.plus.samples.haikuplus.api.AvatarUrls;
 import com.google.plus.samples.haikuplus.api.HaikuClient;
+import com.google.plus.samples.haikuplus.api.PausableImageLoader;
+import com.google.plus.samples.haikuplus.api.RequestScope;
 import com.google.plus.samples.haikuplus.api.VolleyContainer;
 import com.google.plus.samples.haikuplus.models.Haiku;
 
@@ -23,6 +26,7 @@ import android.content.Context;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.AbsListView;
 import android.widget.ArrayAdapter;
 import android.widget.RadioButton;
 import android.widget.TextView;
@@ -33,12 +37,14 @@ import java.util.List;
 
 /**
  * Array Adapter wrapper for the stream. As well as managing a list of haikus will also handle
- * the empty list case, and append a header view which appears in either case.
+ * the empty list case, and append a header view which appears in either case. Set it as the
+ * list's recycler listener so rows that scroll away stop loading their avatars.
  *
  * @author sanstern@google,com (Sam Stern)
  * @author ianbarber@google.com (Ian Barber)
  */
-public class HaikuArrayAdapter extends ArrayAdapter<Haiku> {
+public class HaikuArrayAdapter extends ArrayAdapter<Haiku>
+        implements AbsListView.RecyclerListener {
     private enum ViewTypes {
         LIST_ITEM,
         EMPTY_ITEM,
@@ -46,16 +52,36 @@ public class HaikuArrayAdapter extends ArrayAdapter<Haiku> {
     }
 
     private LayoutInflater mInflater;
-    private VolleyContainer mVolley;
+    private PausableImageLoader mImageLoader;
+    private int mAvatarSize;
     private boolean mDisplayHeader = false;
     private View.OnClickListener mListener;
     private HaikuClient.StreamMode mCurrentMode = HaikuClient.StreamMode.ALL;
 
-    public HaikuArrayAdapter(Context context) {
+    /**
+     * @param context
+     * @param scope the scope to load avatars in, so they can be cancelled with their screen.
+     */
+    public HaikuArrayAdapter(Context context, RequestScope scope) {
         super(context, android.R.layout.simple_list_item_2);
         mInflater = (LayoutInflater) context.getSystemService(Context.LAYOUT_INFLATER_SERVICE);
-        mVolley = VolleyContainer.getInstance(context);
+        mImageLoader = new PausableImageLoader(
+                VolleyContainer.getInstance(context).getImageLoader(scope), scope);
+        mAvatarSize = context.getResources().getDimensionPixelSize(R.dimen.avatar_size);
+    }
 
+    /**
+     * Hold back avatars that aren't cached, for example while the list is flinging past rows
+     * that will never be seen. Resuming loads those of the rows that are still showing.
+     *
+     * @param paused
+     */
+    public void setImagesPaused(boolean paused) {
+        if (paused) {
+            mImageLoader.pause();
+        } else {
+            mImageLoader.resume();
+        }
     }
 
     public void setData(List<Haiku> data, HaikuClient.StreamMode mode) {
@@ -68,6 +94,17 @@ public class HaikuArrayAdapter extends ArrayAdapter<Haiku> {
         mCurrentMode = mode;
     }
 
+    /**
+     * Add a further page of haikus to the end of the list.
+     *
+     * @param data the haikus to append.
+     */
+    public void appendData(List<Haiku> data) {
+        if (data != null && !data.isEmpty()) {
+            addAll(data);
+        }
+    }
+
     /**
      * Set the listener to be used by the header views.
      *
@@ -139,13 +176,11 @@ public class HaikuArrayAdapter extends ArrayAdapter<Haiku> {
      * @return a Haiku, or null if out of bounds
      */
     public Haiku getHaikuAt(int position) {
-        if (mDisplayHeader) {
-            return getItem(position - 1);
-        } else if (super.getCount() == 0) {
+        int index = mDisplayHeader ? position - 1 : position;
+        if (index < 0 || index >= super.getCount()) {
             return null;
-        } else {
-            return getItem(position);
         }
+        return getItem(index);
     }
 
     @Override
@@ -177,7 +212,8 @@ public class HaikuArrayAdapter extends ArrayAdapter<Haiku> {
 
             NetworkImageView profile =
                     ((NetworkImageView) convertView.findViewById(R.id.haiku_profile_pic));
-            profile.setImageUrl(item.author.googlePhotoUrl, mVolley.getImageLoader());
+            profile.setImageUrl(AvatarUrls.forSize(item.author.googlePhotoUrl, mAvatarSize),
+                    mImageLoader);
             ((TextView) convertView.findViewById(R.id.haiku_title))
                     .setText(item.title);
             ((TextView) convertView.findViewById(R.id.haiku_user_display_name))
@@ -189,4 +225,13 @@ public class HaikuArrayAdapter extends ArrayAdapter<Haiku> {
 
         return convertView;
     }
+
+    @Override
+    public void onMovedToScrapHeap(View view) {
+        // The row is off screen, so its avatar is no longer worth loading.
+        NetworkImageView profile = (NetworkImageView) view.findViewById(R.id.haiku_profile_pic);
+        if (profile != null) {
+            profile.setImageUrl(null, mImageLoader);
+        }
+    }
 }
@@ -14,6 +14,8 @@
  */
 package com.google.plus.samples.haikuplus;
 
+import com.google.plus.samples.haikuplus.api.AvatarUrls;
+import com.google.plus.samples.haikuplus.api.RequestScope;
 import com.google.plus.samples.haikuplus.api.VolleyContainer;
 import com.google.plus.samples.haikuplus.models.Haiku;
 
@@ -41,6 +43,7 @@ public class HaikuFragment extends Fragment implements View.OnClickListener {
     private Haiku mHaiku;
 
     private HaikuInteractionListener mListener;
+    private final RequestScope mScope = new RequestScope();
 
     /**
      * Use this factory method to create a new instance of
@@ -73,22 +76,8 @@ public class HaikuFragment extends Fragment implements View.OnClickListener {
                              Bundle savedInstanceState) {
         // Inflate the layout for this fragment
         View v = inflater.inflate(R.layout.fragment_haiku, container, false);
-        VolleyContainer volley = VolleyContainer.getInstance(getActivity());
 
-        if (mHaiku != null) {
-            NetworkImageView profile = ((NetworkImageView) v.findViewById(R.id.haiku_profile_pic));
-            profile.setImageUrl(mHaiku.author.googlePhotoUrl, volley.getImageLoader());
-            ((TextView) v.findViewById(R.id.haiku_title)).setText(mHaiku.title);
-            ((TextView) v.findViewById(R.id.haiku_line_one)).setText(mHaiku.lineOne);
-            ((TextView) v.findViewById(R.id.haiku_line_two)).setText(mHaiku.lineTwo);
-            ((TextView) v.findViewById(R.id.haiku_line_three)).setText(mHaiku.lineThree);
-            ((TextView) v.findViewById(R.id.haiku_user_display_name))
-                    .setText(mHaiku.author.googleDisplayName);
-            ((TextView) v.findViewById(R.id.haiku_date)).setText(mHaiku.getFormattedDate());
-            ((TextView) v.findViewById(R.id.haiku_vote_count)).setText(mHaiku.votes + " votes");
-            ((Button) v.findViewById(R.id.button_promote)).setOnClickListener(this);
-            ((Button) v.findViewById(R.id.button_vote)).setOnClickListener(this);
-        }
+        bindHaiku(v);
         return v;
     }
 
@@ -107,6 +96,7 @@ public class HaikuFragment extends Fragment implements View.OnClickListener {
     public void onDetach() {
         super.onDetach();
         mListener = null;
+        mScope.cancel();
     }
 
     @Override
@@ -118,6 +108,50 @@ public class HaikuFragment extends Fragment implements View.OnClickListener {
         }
     }
 
+    /**
+     * Check whether this fragment is displaying the given haiku, possibly an older copy of it.
+     *
+     * @param haiku the haiku to check.
+     * @return true if the IDs match.
+     */
+    public boolean isShowing(Haiku haiku) {
+        return mHaiku != null && haiku != null && mHaiku.id != null && mHaiku.id.equals(haiku.id);
+    }
+
+    /**
+     * Replace the displayed haiku with a newer copy of it.
+     *
+     * @param haiku the haiku to display.
+     */
+    public void setHaiku(Haiku haiku) {
+        mHaiku = haiku;
+        getArguments().putParcelable(ARG_PARAM1, haiku);
+        if (getView() != null) {
+            bindHaiku(getView());
+        }
+    }
+
+    private void bindHaiku(View v) {
+        if (mHaiku == null) {
+            return;
+        }
+        VolleyContainer volley = VolleyContainer.getInstance(getActivity());
+        NetworkImageView profile = ((NetworkImageView) v.findViewById(R.id.haiku_profile_pic));
+        String photoUrl = AvatarUrls.forSize(mHaiku.author.googlePhotoUrl,
+                getResources().getDimensionPixelSize(R.dimen.avatar_size));
+        profile.setImageUrl(photoUrl, volley.getImageLoader(mScope));
+        ((TextView) v.findViewById(R.id.haiku_title)).setText(mHaiku.title);
+        ((TextView) v.findViewById(R.id.haiku_line_one)).setText(mHaiku.lineOne);
+        ((TextView) v.findViewById(R.id.haiku_line_two)).setText(mHaiku.lineTwo);
+        ((TextView) v.findViewById(R.id.haiku_line_three)).setText(mHaiku.lineThree);
+        ((TextView) v.findViewById(R.id.haiku_user_display_name))
+                .setText(mHaiku.author.googleDisplayName);
+        ((TextView) v.findViewById(R.id.haiku_date)).setText(mHaiku.getFormattedDate());
+        ((TextView) v.findViewById(R.id.haiku_vote_count)).setText(mHaiku.votes + " votes");
+        ((Button) v.findViewById(R.id.button_promote)).setOnClickListener(this);
+        ((Button) v.findViewById(R.id.button_vote)).setOnClickListener(this);
+    }
+
     /**
      * Add a vote to the Haiku and update the associated views
      */
@@ -37,13 +37,18 @@ import com.google.android.gms.common.api.GoogleApiClient;
 import com.google.android.gms.common.api.Scope;
 import com.google.android.gms.plus.Plus;
 import com.google.android.gms.plus.PlusShare;
+import com.google.plus.samples.haikuplus.api.AvatarUrls;
 import com.google.plus.samples.haikuplus.api.HaikuClient;
+import com.google.plus.samples.haikuplus.api.HaikuCodecs;
+import com.google.plus.samples.haikuplus.api.HaikuFuture;
 import com.google.plus.samples.haikuplus.api.HaikuSession;
+import com.google.plus.samples.haikuplus.api.RequestScope;
 import com.google.plus.samples.haikuplus.api.VolleyContainer;
 import com.google.plus.samples.haikuplus.models.Haiku;
 import com.google.plus.samples.haikuplus.models.HaikuDeepLink;
 import com.google.plus.samples.haikuplus.models.User;
 
+import java.util.List;
 import java.util.Set;
 
 /**
@@ -76,6 +81,11 @@ public class MainActivity extends Activity implements
     private boolean mIsResolving = false;
     private boolean mSignInClicked = false;
     private VolleyContainer mVolley;
+    // Reads and avatar loads for this activity, cancelled when it is destroyed.
+    private final RequestScope mScope = new RequestScope();
+    // Completes with the first user retrieved, or null if there is no session to check.
+    private final HaikuFuture<User> mStartupUser = new HaikuFuture<User>();
+    private Haiku mDeepLinkedHaiku;
     private HaikuDeepLink mDeepLink;
     private ProgressDialog mDialog;
     private Runnable mRunAfterSignIn;
@@ -94,8 +104,11 @@ public class MainActivity extends Activity implements
         findViewById(R.id.button_sign_out).setOnClickListener(this);
         findViewById(R.id.button_disconnect).setOnClickListener(this);
 
+        // Prepare the API adapters in the background while the UI is set up.
+        HaikuCodecs.warmUp();
+
         mHaikuPlusSession = HaikuSession.getSessionForServer(getApplicationContext());
-        mHaikuApi = HaikuClient.getInstance(this, mHaikuPlusSession);
+        mHaikuApi = HaikuClient.getInstance(this, mHaikuPlusSession, mScope);
 
         mVolley = VolleyContainer.getInstance(this);
 
@@ -130,6 +143,7 @@ public class MainActivity extends Activity implements
                     .commit();
         }
 
+        HaikuFuture<Haiku> deepLinked = null;
         String deepLinkId = PlusShare.getDeepLinkId(this.getIntent());
         if (deepLinkId != null) {
             mDeepLink = HaikuDeepLink.fromString(deepLinkId);
@@ -139,7 +153,7 @@ public class MainActivity extends Activity implements
                 Log.d(TAG, "Got bad deeplink: " + deepLinkId);
             } else {
                 showDialog(getString(R.string.loading_haiku));
-                mHaikuApi.fetchHaiku(mDeepLink.getHaikuId(), this);
+                deepLinked = fetchDeepLinkedHaiku(mDeepLink.getHaikuId());
             }
         }
 
@@ -148,9 +162,52 @@ public class MainActivity extends Activity implements
             setProgressBarIndeterminateVisibility(true);
             findViewById(R.id.signed_out_container).setVisibility(View.GONE);
             mHaikuApi.fetchCurrentUser(this);
+        } else {
+            mStartupUser.set(null);
+        }
+
+        if (deepLinked != null) {
+            // Both load in parallel, but the haiku only opens once we know who is signed in, so
+            // that a vote from the link doesn't start a needless sign in.
+            HaikuFuture.allOf(mStartupUser, deepLinked).addCallback(
+                    new HaikuFuture.Callback<List<Object>>() {
+                        @Override
+                        public void onSuccess(List<Object> results) {
+                            onHaikuRetrieved(mDeepLinkedHaiku);
+                        }
+
+                        @Override
+                        public void onFailure(Throwable error) {
+                            dismissDialog();
+                        }
+                    });
         }
     }
 
+    /**
+     * Fetch the haiku named in a deep link. The newest copy retrieved is kept in
+     * {@link #mDeepLinkedHaiku}.
+     *
+     * @param haikuId the ID from the link.
+     * @return completes when the first copy is retrieved, or the fetch fails.
+     */
+    private HaikuFuture<Haiku> fetchDeepLinkedHaiku(String haikuId) {
+        final HaikuFuture<Haiku> first = new HaikuFuture<Haiku>();
+        mHaikuApi.fetchHaiku(haikuId, new HaikuClient.HaikuRetrievedListener() {
+            @Override
+            public void onHaikuRetrieved(Haiku data) {
+                if (data != null) {
+                    mDeepLinkedHaiku = data;
+                }
+                if (!first.set(data) && mStartupUser.isDone()) {
+                    // A fresh copy following a cached one that is already open.
+                    MainActivity.this.onHaikuRetrieved(data);
+                }
+            }
+        });
+        return first;
+    }
+
     @Override
     protected void onStart() {
         super.onStart();
@@ -160,10 +217,17 @@ public class MainActivity extends Activity implements
 
     @Override
     protected void onStop() {
+        HaikuClient.flushVotes();
         mGoogleApiClient.disconnect();
         super.onStop();
     }
 
+    @Override
+    protected void onDestroy() {
+        mScope.cancel();
+        super.onDestroy();
+    }
+
     @Override
     protected void onSaveInstanceState(@NonNull Bundle outState) {
         super.onSaveInstanceState(outState);
@@ -213,12 +277,16 @@ public class MainActivity extends Activity implements
                     mUser = user;
                     ((TextView) findViewById(R.id.user_name)).setText(mUser.googleDisplayName);
                     NetworkImageView profile = ((NetworkImageView) findViewById(R.id.user_profile_pic));
-                    profile.setImageUrl(mUser.googlePhotoUrl, mVolley.getImageLoader());
+                    String photoUrl = AvatarUrls.forSize(mUser.googlePhotoUrl,
+                            getResources().getDimensionPixelSize(R.dimen.avatar_size));
+                    profile.setImageUrl(photoUrl, mVolley.getImageLoader(mScope));
                     findViewById(R.id.signed_in_container).setVisibility(View.VISIBLE);
                     findViewById(R.id.signed_out_container).setVisibility(View.GONE);
                     if (frag != null) {
                         frag.setUser(mUser, MainActivity.this);
                     }
+                    // Signed in, so anything written while offline can go now.
+                    mHaikuApi.replayOutbox();
                 } else {
                     mUser = null;
                     findViewById(R.id.signed_in_container).setVisibility(View.GONE);
@@ -228,6 +296,7 @@ public class MainActivity extends Activity implements
                     }
                 }
                 setProgressBarIndeterminateVisibility(false);
+                mStartupUser.set(user);
 
                 // Run a queued action
                 // NOTE: In some situations, mRunAfterSignIn may be garbage collected while the SignIn
@@ -257,6 +326,11 @@ public class MainActivity extends Activity implements
         toast.show();
     }
 
+    @Override
+    public void onHaikuQueued(Haiku haiku) {
+        Toast.makeText(this, getString(R.string.haiku_queued), Toast.LENGTH_SHORT).show();
+    }
+
     @Override
     public void onVoteWritten(Haiku haiku) {
         Toast.makeText(this, getString(R.string.haiku_voted), Toast.LENGTH_SHORT).show();
@@ -448,6 +522,12 @@ public class MainActivity extends Activity implements
         if (haiku == null) {
             return;
         }
+        HaikuFragment frag = (HaikuFragment) getFragmentManager().findFragmentByTag(HAIKU_FRAG_TAG);
+        if (frag != null && frag.isShowing(haiku)) {
+            // A fresh copy following a cached one: refresh the view rather than opening it again.
+            frag.setHaiku(haiku);
+            return;
+        }
         if (Constants.ACTION_VOTE.equals(mDeepLink.getAction())) {
             onVoteCall(haiku);
         }
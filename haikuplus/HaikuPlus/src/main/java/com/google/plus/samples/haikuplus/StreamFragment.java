@@ -16,20 +16,30 @@
 package com.google.plus.samples.haikuplus;
 
 import com.google.plus.samples.haikuplus.api.HaikuClient;
+import com.google.plus.samples.haikuplus.api.HaikuPrefetcher;
+import com.google.plus.samples.haikuplus.api.RequestScope;
+import com.google.plus.samples.haikuplus.api.StreamDelta;
+import com.google.plus.samples.haikuplus.api.StreamPage;
 import com.google.plus.samples.haikuplus.models.Haiku;
 import com.google.plus.samples.haikuplus.models.User;
 
 import android.app.Activity;
 import android.app.Fragment;
+import android.database.DataSetObserver;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.view.LayoutInflater;
+import android.view.MotionEvent;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.AbsListView;
 import android.widget.AdapterView;
 import android.widget.RadioButton;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * A fragment representing the Haiku stream.
@@ -37,11 +47,32 @@ import java.util.List;
  * @author ianbarber@google.com (Ian Barber)
  */
 public class StreamFragment extends Fragment
-        implements HaikuClient.HaikuStreamListener, View.OnClickListener,
-        AdapterView.OnItemClickListener {
+        implements HaikuClient.HaikuStreamListener, HaikuClient.HaikuPageListener,
+        HaikuClient.HaikuDeltaListener,
+        View.OnClickListener, View.OnTouchListener, AdapterView.OnItemClickListener,
+        AbsListView.OnScrollListener {
     private static final String STATE_MODE = "filter";
     private static final String STATE_USER = "user";
+    // Start loading the next page when the list is scrolled within this many rows of the end.
+    private static final int PREFETCH_ROWS = 5;
     private List<Haiku> mData;
+    private List<Haiku> mFirstPage;
+    private StreamPage.Cursor mNextPage;
+    private StreamPage.Cursor mPendingPage;
+    private boolean mLoadingPage = false;
+    private boolean mShowingStale = false;
+    private HaikuClient.StreamMode mDataMode;
+    private StreamPage.Cursor mPendingDelta;
+    // Avatar loads for the list, cancelled when the fragment is detached.
+    private final RequestScope mScope = new RequestScope();
+    // Stream fetches, also cancelled whenever a refresh or mode change supersedes them.
+    private final RequestScope mStreamScope = new RequestScope();
+    private HaikuPrefetcher mPrefetcher;
+    // When each row was last loaded, so a newer row wins over an older prefetched copy.
+    private final Map<String, Long> mLoadedAt = new HashMap<String, Long>();
+    private int mWindowFirst = -1;
+    private int mWindowLast = -1;
+    private boolean mFlinging = false;
 
     private HaikuInteractionListener mListener;
     private View.OnClickListener mCreateHaikuListener;
@@ -65,8 +96,17 @@ public class StreamFragment extends Fragment
     @Override
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
-        mAdapter = new HaikuArrayAdapter(getActivity());
+        mAdapter = new HaikuArrayAdapter(getActivity(), mScope);
         mAdapter.setOnClickListener(this);
+        mPrefetcher = new HaikuPrefetcher(getActivity(), mListener.getAuthenticator(),
+                getResources().getDimensionPixelSize(R.dimen.avatar_size));
+        mAdapter.registerDataSetObserver(new DataSetObserver() {
+            @Override
+            public void onChanged() {
+                // The same positions may now hold different haikus.
+                mWindowFirst = -1;
+            }
+        });
         if (savedInstanceState != null) {
             if (savedInstanceState.getInt(STATE_MODE) == HaikuClient.StreamMode.FRIENDS.ordinal()) {
                 mCurrentMode = HaikuClient.StreamMode.FRIENDS;
@@ -98,6 +138,9 @@ public class StreamFragment extends Fragment
         AbsListView list = getListView();
         list.setAdapter(mAdapter);
         list.setOnItemClickListener(this);
+        list.setOnScrollListener(this);
+        list.setOnTouchListener(this);
+        list.setRecyclerListener(mAdapter);
     }
 
     @Override
@@ -115,14 +158,63 @@ public class StreamFragment extends Fragment
     public void onDetach() {
         super.onDetach();
         mListener = null;
+        mScope.cancel();
+        // Held back avatars were cancelled with the scope, so this starts nothing.
+        mFlinging = false;
+        mAdapter.setImagesPaused(false);
+        cancelStreamFetches();
+        mPrefetcher.cancel();
+        mWindowFirst = -1;
+        mWindowLast = -1;
     }
 
     /**
      * Trigger a refresh of the stream of Haikus displayed.
      */
     public void refreshStream() {
-        HaikuClient api = HaikuClient.getInstance(getActivity(), mListener.getAuthenticator());
-        api.fetchStream(mCurrentMode, this);
+        // Whatever is still loading was for the old mode or is about to be fetched again.
+        cancelStreamFetches();
+        // The prefetched copies may be older than what is about to be loaded.
+        mPrefetcher.clearPrefetched();
+        if (mFirstPage != null && !mShowingStale && mDataMode == mCurrentMode && !mData.isEmpty()) {
+            // Only ask for what is newer than the top of the list we already have.
+            StreamPage.Cursor since = StreamPage.Cursor.after(mData.get(0));
+            if (since != null) {
+                mPendingDelta = since;
+                HaikuClient api = HaikuClient.getInstance(
+                        getActivity(), mListener.getAuthenticator(), mStreamScope);
+                api.fetchStreamDelta(mCurrentMode, since, HaikuClient.DEFAULT_PAGE_SIZE, this);
+                return;
+            }
+        }
+        mNextPage = null;
+        mShowingStale = false;
+        mPendingDelta = null;
+        fetchPage(null);
+    }
+
+    /**
+     * Request a page of the stream for the current mode.
+     *
+     * @param cursor the page to fetch, null for the first page.
+     */
+    private void fetchPage(StreamPage.Cursor cursor) {
+        mPendingPage = cursor;
+        mLoadingPage = true;
+        HaikuClient api = HaikuClient.getInstance(
+                getActivity(), mListener.getAuthenticator(), mStreamScope);
+        api.fetchStreamPage(mCurrentMode, cursor, HaikuClient.DEFAULT_PAGE_SIZE, this);
+    }
+
+    /**
+     * Cancel any stream fetches in flight, so their results are never delivered, and allow the
+     * pages they were loading to be requested again.
+     */
+    private void cancelStreamFetches() {
+        mStreamScope.cancel();
+        mLoadingPage = false;
+        mPendingPage = null;
+        mPendingDelta = null;
     }
 
     /**
@@ -144,6 +236,118 @@ public class StreamFragment extends Fragment
     public void onHaikusRetrieved(List<Haiku> data) {
         mAdapter.setData(data, mCurrentMode);
         mData = data;
+        markLoaded(data, true);
+        mFirstPage = null;
+        mNextPage = null;
+    }
+
+    @Override
+    public void onPageRetrieved(StreamPage page) {
+        if (page == null) {
+            // Failed: allow the next scroll to retry the same page.
+            mLoadingPage = false;
+            return;
+        }
+        boolean freshFirstPage = mShowingStale && page.getCursor() == null
+                && !page.isIntermediate() && page.getMode() == mCurrentMode;
+        if (!freshFirstPage && (!mLoadingPage || page.getMode() != mCurrentMode
+                || page.getCursor() != mPendingPage)) {
+            // Superseded by a refresh or mode change while in flight, or a duplicate.
+            return;
+        }
+        if (page.getCursor() == null) {
+            mShowingStale = page.isIntermediate();
+        }
+        if (page.getCursor() == mPendingPage) {
+            mLoadingPage = false;
+        }
+        if (page.getCursor() == null && page.getHaikus() == mFirstPage) {
+            // Revalidated and unchanged: keep the list as bound, including any later pages.
+            return;
+        }
+        if (page.getCursor() == null) {
+            mFirstPage = page.getHaikus();
+            mDataMode = page.getMode();
+            mData = new ArrayList<Haiku>(page.getHaikus());
+            mAdapter.setData(page.getHaikus(), mCurrentMode);
+            markLoaded(page.getHaikus(), true);
+        } else {
+            mData.addAll(page.getHaikus());
+            mAdapter.appendData(page.getHaikus());
+            markLoaded(page.getHaikus(), false);
+        }
+        mNextPage = page.getNext();
+    }
+
+    @Override
+    public void onDeltaRetrieved(StreamDelta delta) {
+        if (delta == null) {
+            mPendingDelta = null;
+            return;
+        }
+        if (delta.getSince() != mPendingDelta || delta.getMode() != mCurrentMode) {
+            // Superseded by a full refresh or a mode change.
+            return;
+        }
+        mPendingDelta = null;
+        if (!delta.isComplete()) {
+            // Too much has changed to patch the list, so start again from the top.
+            mNextPage = null;
+            mShowingStale = false;
+            fetchPage(null);
+            return;
+        }
+        if (!delta.getHaikus().isEmpty()) {
+            delta.mergeInto(mData);
+            mAdapter.setData(mData, mCurrentMode);
+            markLoaded(delta.getHaikus(), false);
+        }
+    }
+
+    /**
+     * Record that rows were just loaded.
+     *
+     * @param haikus the rows.
+     * @param replace true if they replace the whole list.
+     */
+    private void markLoaded(List<Haiku> haikus, boolean replace) {
+        if (replace) {
+            mLoadedAt.clear();
+        }
+        Long now = SystemClock.elapsedRealtime();
+        for (Haiku haiku : haikus) {
+            if (haiku.id != null) {
+                mLoadedAt.put(haiku.id, now);
+            }
+        }
+    }
+
+    @Override
+    public void onScrollStateChanged(AbsListView view, int scrollState) {
+        boolean flinging = scrollState == SCROLL_STATE_FLING;
+        if (flinging == mFlinging) {
+            return;
+        }
+        mFlinging = flinging;
+        // Rows flung past are gone before anything loaded for them could be shown.
+        mAdapter.setImagesPaused(flinging);
+        if (!flinging && mListener != null) {
+            prefetchRows(view.getFirstVisiblePosition(), Math.min(
+                    view.getLastVisiblePosition() + 1 + PREFETCH_ROWS, view.getCount()));
+        }
+    }
+
+    @Override
+    public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount,
+                         int totalItemCount) {
+        if (mNextPage != null && !mLoadingPage && mListener != null
+                && firstVisibleItem + visibleItemCount >= totalItemCount - PREFETCH_ROWS) {
+            fetchPage(mNextPage);
+        }
+        if (mListener != null && !mFlinging) {
+            prefetchRows(firstVisibleItem,
+                    Math.min(firstVisibleItem + visibleItemCount + PREFETCH_ROWS, totalItemCount));
+        }
     }
 
     @Override
@@ -163,14 +367,53 @@ public class StreamFragment extends Fragment
         }
     }
 
+    @Override
+    public boolean onTouch(View view, MotionEvent event) {
+        if (event.getActionMasked() == MotionEvent.ACTION_DOWN && mListener != null) {
+            // A touch is a good sign the row is about to be opened.
+            int position = ((AbsListView) view).pointToPosition((int) event.getX(),
+                    (int) event.getY());
+            Haiku touched = mAdapter.getHaikuAt(position);
+            if (touched != null) {
+                mPrefetcher.prefetchNow(touched);
+            }
+        }
+        return false;
+    }
+
     @Override
     public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
         if (mListener != null) {
             Haiku clicked = mAdapter.getHaikuAt(position);
             if (clicked != null) {
-                mListener.onHaikuSelected(clicked);
+                Long loadedAt = mLoadedAt.get(clicked.id);
+                Haiku prefetched = mPrefetcher.getPrefetched(clicked.id,
+                        loadedAt != null ? loadedAt : 0);
+                mListener.onHaikuSelected(prefetched != null ? prefetched : clicked);
+            }
+        }
+    }
+
+    /**
+     * Prefetch the haikus in a range of list positions, if it has changed since last time.
+     *
+     * @param first the first position, inclusive.
+     * @param last the last position, exclusive.
+     */
+    private void prefetchRows(int first, int last) {
+        if (first == mWindowFirst && last == mWindowLast) {
+            return;
+        }
+        mWindowFirst = first;
+        mWindowLast = last;
+        List<Haiku> window = new ArrayList<Haiku>();
+        for (int i = first; i < last; i++) {
+            Haiku haiku = mAdapter.getHaikuAt(i);
+            if (haiku != null) {
+                window.add(haiku);
             }
         }
+        mPrefetcher.setWindow(window);
     }
 
     /**
@@ -0,0 +1,104 @@
+/* Copyright (C) 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.plus.samples.haikuplus.api;
+
+import com.android.volley.RetryPolicy;
+import com.android.volley.VolleyError;
+
+import java.util.Random;
+
+/**
+ * Retry policy with full-jitter exponential backoff, drawing each retry from a shared
+ * {@link RetryBudget}. Authentication failures are never retried, as they are handled by
+ * {@link HaikuApiRequest} itself.
+ *
+ * Volley retries straight away on the network thread, so the backoff delay is slept there. That
+ * holds up one of the few dispatchers, so each delay is kept short and the total slept for a
+ * request is capped far below its timeout; the jitter matters more than the length.
+ */
+class AdaptiveRetryPolicy implements RetryPolicy {
+    private static final int BASE_DELAY_MS = 250;
+    private static final int MAX_DELAY_MS = 1000;
+    private static final int MAX_TOTAL_DELAY_MS = 1500;
+    private static final Random sRandom = new Random();
+
+    private final int mMaxRetries;
+    private final float mTimeoutMultiplier;
+    private final RetryBudget mBudget;
+    private int mCurrentTimeoutMs;
+    private int mRetryCount;
+    private long mSleptMs;
+
+    /**
+     * @param initialTimeoutMs the socket timeout for the first attempt.
+     * @param maxRetries the maximum number of retries.
+     * @param timeoutMultiplier how much the timeout grows on each retry.
+     * @param budget the budget retries are drawn from.
+     */
+    AdaptiveRetryPolicy(int initialTimeoutMs, int maxRetries, float timeoutMultiplier,
+                        RetryBudget budget) {
+        mCurrentTimeoutMs = initialTimeoutMs;
+        mMaxRetries = maxRetries;
+        mTimeoutMultiplier = timeoutMultiplier;
+        mBudget = budget;
+    }
+
+    @Override
+    public int getCurrentTimeout() {
+        return mCurrentTimeoutMs;
+    }
+
+    @Override
+    public int getCurrentRetryCount() {
+        return mRetryCount;
+    }
+
+    @Override
+    public void retry(VolleyError error) throws VolleyError {
+        if (error.networkResponse != null && (error.networkResponse.statusCode == 401
+                || error.networkResponse.statusCode == 403)) {
+            throw error;
+        }
+        if (mRetryCount >= mMaxRetries || !mBudget.tryRetry()) {
+            throw error;
+        }
+        mRetryCount++;
+        mCurrentTimeoutMs += (int) (mCurrentTimeoutMs * mTimeoutMultiplier);
+        long delayMs = Math.min(getBackoffMs(mRetryCount), MAX_TOTAL_DELAY_MS - mSleptMs);
+        mSleptMs += delayMs;
+        try {
+            Thread.sleep(delayMs);
+        } catch (InterruptedException e) {
+            // The queue is shutting down.
+            Thread.currentThread().interrupt();
+            throw error;
+        }
+    }
+
+    /**
+     * Pick a delay uniformly between zero and the exponential backoff for the attempt, so
+     * clients that failed together don't retry together.
+     */
+    static long getBackoffMs(int retryCount) {
+        int ceiling = MAX_DELAY_MS;
+        if (retryCount < 16) {
+            ceiling = Math.min(MAX_DELAY_MS, BASE_DELAY_MS << retryCount);
+        }
+        synchronized (sRandom) {
+            return sRandom.nextInt(ceiling + 1);
+        }
+    }
+}
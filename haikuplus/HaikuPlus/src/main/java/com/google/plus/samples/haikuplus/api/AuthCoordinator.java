@@ -0,0 +1,156 @@
+/* Copyright (C) 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.plus.samples.haikuplus.api;
+
+import com.android.volley.Request;
+import com.android.volley.RequestQueue;
+import com.android.volley.Response;
+import com.android.volley.VolleyError;
+import com.google.plus.samples.haikuplus.models.User;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Renews an expired session once on behalf of every request that hit it. The first request
+ * rejected with a 401 starts a single renewal, which signs in again with the ID token or
+ * server auth code held by the {@link HaikuSession}; it and any other requests rejected while
+ * that is running are parked, then replayed once with the new session cookie, or failed with
+ * their original errors if the renewal does not succeed.
+ *
+ * All methods must be called on the main thread.
+ */
+class AuthCoordinator {
+    private static final String TAG = "HaikuPlus-AuthCoordinator";
+
+    private static AuthCoordinator sInstance;
+
+    private final RequestQueue mQueue;
+    private final String mRenewUrl;
+    private final List<Parked> mParked = new ArrayList<Parked>();
+    private boolean mRenewing;
+
+    private AuthCoordinator(RequestQueue queue, String renewUrl) {
+        mQueue = queue;
+        mRenewUrl = renewUrl;
+    }
+
+    /**
+     * Retrieve the coordinator for the application.
+     *
+     * @param queue the queue to send renewals and replays on.
+     * @param renewUrl the URL to fetch to sign in again.
+     * @return AuthCoordinator
+     */
+    static synchronized AuthCoordinator getInstance(RequestQueue queue, String renewUrl) {
+        // The queue is only replaced when the transport is, see VolleyContainer.setTransport.
+        if (sInstance == null || sInstance.mQueue != queue) {
+            sInstance = new AuthCoordinator(queue, renewUrl);
+        }
+        return sInstance;
+    }
+
+    /**
+     * Handle a request that was rejected because its session has expired.
+     *
+     * @param request the rejected request.
+     * @param session the session it was sent with.
+     * @param error the error it was rejected with.
+     * @return true if the request has been taken over, false if the error should be delivered
+     *         as usual because there is nothing to renew the session with.
+     */
+    boolean onSessionExpired(HaikuApiRequest<?> request, HaikuSession session, VolleyError error) {
+        if (session == null) {
+            return false;
+        }
+        if (request.isCanceled()) {
+            // Nobody is waiting for it any more, so there is nothing to replay.
+            return true;
+        }
+        String current = session.getSessionId();
+        if (!mRenewing && current != null && !current.equals(request.getSentSessionId())) {
+            // Sent before the last renewal finished, so just try again with the new cookie.
+            mQueue.add(request.copyForReplay());
+            return true;
+        }
+        if (!mRenewing && session.getIdToken() == null && session.getCode() == null) {
+            return false;
+        }
+        mParked.add(new Parked(request, error));
+        if (!mRenewing) {
+            mRenewing = true;
+            renew(session);
+        }
+        return true;
+    }
+
+    private void renew(final HaikuSession session) {
+        Log.d(TAG, "Session expired, renewing");
+        // Without a cookie the request signs in with the ID token or auth code instead.
+        session.storeSessionId(null);
+        HaikuApiRequest<User> renewal = new HaikuApiRequest<User>(
+                HaikuCodecs.USER,
+                Request.Method.GET,
+                mRenewUrl,
+                new Response.Listener<User>() {
+                    @Override
+                    public void onResponse(User user) {
+                        finish(session.getSessionId() != null);
+                    }
+                },
+                new Response.ErrorListener() {
+                    @Override
+                    public void onErrorResponse(VolleyError volleyError) {
+                        Log.d(TAG, "Session renewal failed: " + volleyError.getMessage());
+                        finish(false);
+                    }
+                },
+                false
+        );
+        renewal.setSession(session);
+        renewal.setShouldCache(false);
+        mQueue.add(renewal);
+    }
+
+    private void finish(boolean renewed) {
+        mRenewing = false;
+        List<Parked> parked = new ArrayList<Parked>(mParked);
+        mParked.clear();
+        Log.d(TAG, (renewed ? "Replaying " : "Failing ") + parked.size() + " parked requests");
+        for (Parked entry : parked) {
+            if (entry.mRequest.isCanceled()) {
+                continue;
+            }
+            if (renewed) {
+                mQueue.add(entry.mRequest.copyForReplay());
+            } else {
+                entry.mRequest.deliverUnparked(entry.mError);
+            }
+        }
+    }
+
+    private static class Parked {
+        private final HaikuApiRequest<?> mRequest;
+        private final VolleyError mError;
+
+        public Parked(HaikuApiRequest<?> request, VolleyError error) {
+            mRequest = request;
+            mError = error;
+        }
+    }
+}
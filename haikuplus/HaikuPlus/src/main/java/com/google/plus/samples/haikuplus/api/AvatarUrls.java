@@ -0,0 +1,85 @@
+/* Copyright (C) 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.plus.samples.haikuplus.api;
+
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Static utilities for Google profile photo URLs.
+ *
+ * The same photo can be reached through many URLs: over http or https, from any of the lhN
+ * image hosts, and at whatever size the profile data happened to ask for. Image caches key by
+ * URL, so each variant would be downloaded, decoded and cached separately, usually at a size
+ * that is not the one shown. {@link #forSize(String, int)} spells every variant one way, at the
+ * size the view needs, so the URL names the photo and its size and nothing else.
+ */
+public class AvatarUrls {
+    private static final Pattern GOOGLE_PHOTO = Pattern.compile(
+            "^https?://lh\\d\\.(googleusercontent\\.com|ggpht\\.com)/([^?#]*)(\\?[^#]*)?",
+            Pattern.CASE_INSENSITIVE);
+    // Profile photos with a file name take their size as a query parameter: photo.jpg?sz=50
+    private static final Pattern SIZE_PARAM = Pattern.compile("(^|&)sz=[^&]*");
+    // ...and may also have one in the path before the file name: /s50-c/photo.jpg
+    private static final Pattern SIZE_SEGMENT = Pattern.compile("/s\\d+(-c)?(?=/[^/]+$)");
+    // Other images take options after an '=' at the end of the path: /a/AOh14Gi=s96-c
+    private static final Pattern OPTIONS = Pattern.compile("=[^/=]*$");
+
+    private AvatarUrls() {
+    }
+
+    /**
+     * Rewrite a Google profile photo URL to ask for a square image of the given size, in a
+     * canonical form. Other URLs are returned as they are.
+     *
+     * @param url the photo URL, which may be null.
+     * @param sizePx the width and height to ask for, in pixels.
+     * @return the rewritten URL.
+     */
+    public static String forSize(String url, int sizePx) {
+        if (url == null || sizePx <= 0) {
+            return url;
+        }
+        Matcher matcher = GOOGLE_PHOTO.matcher(url);
+        if (!matcher.find()) {
+            return url;
+        }
+        String host = matcher.group(1).toLowerCase(Locale.US);
+        String path = matcher.group(2);
+        String query = matcher.group(3) != null ? matcher.group(3).substring(1) : "";
+        query = SIZE_PARAM.matcher(query).replaceAll("");
+        if (query.startsWith("&")) {
+            query = query.substring(1);
+        }
+
+        StringBuilder canonical = new StringBuilder("https://lh3.").append(host).append('/');
+        if (path.substring(path.lastIndexOf('/') + 1).contains(".")) {
+            canonical.append(SIZE_SEGMENT.matcher(path).replaceFirst(""))
+                    .append("?sz=").append(sizePx);
+            if (query.length() > 0) {
+                canonical.append('&').append(query);
+            }
+        } else {
+            canonical.append(OPTIONS.matcher(path).replaceFirst(""))
+                    .append("=s").append(sizePx).append("-c");
+            if (query.length() > 0) {
+                canonical.append('?').append(query);
+            }
+        }
+        return canonical.toString();
+    }
+}
@@ -0,0 +1,186 @@
+/* Copyright (C) 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.plus.samples.haikuplus.api;
+
+import android.annotation.TargetApi;
+import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.os.Build;
+import android.util.LruCache;
+
+import com.android.volley.toolbox.ImageLoader;
+
+/**
+ * Memory cache for decoded images, bounded by the bytes the bitmaps occupy rather than by how
+ * many there are, so that a few large images can't push the app towards its heap limit and many
+ * small ones don't thrash the cache.
+ */
+public class BitmapLruCache extends LruCache<String, Bitmap> implements ImageLoader.ImageCache {
+    private static final int BYTES_PER_MB = 1024 * 1024;
+    // Share of the heap limit given to images; low-RAM devices get half as much.
+    private static final int HEAP_FRACTION = 8;
+    private static final int LOW_RAM_HEAP_FRACTION = 16;
+
+    /**
+     * @param maxBytes the total size of the bitmaps to keep.
+     */
+    public BitmapLruCache(int maxBytes) {
+        super(maxBytes);
+    }
+
+    /**
+     * Work out the cache size for a device from the heap limit each app is given.
+     *
+     * @param context
+     * @return the size in bytes.
+     */
+    public static int getDefaultSize(Context context) {
+        ActivityManager activityManager =
+                (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        return getDefaultSize(activityManager.getMemoryClass(), isLowRamDevice(activityManager));
+    }
+
+    /**
+     * Work out the cache size for a heap limit.
+     *
+     * @param memoryClass the heap limit each app is given, in megabytes.
+     * @param lowRam whether the device is a low-RAM one.
+     * @return the size in bytes.
+     */
+    public static int getDefaultSize(int memoryClass, boolean lowRam) {
+        return memoryClass * BYTES_PER_MB / (lowRam ? LOW_RAM_HEAP_FRACTION : HEAP_FRACTION);
+    }
+
+    /**
+     * Get the memory used by a bitmap, which may be more than its pixels need if it is reusing
+     * a larger allocation.
+     */
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    public static int getBitmapBytes(Bitmap bitmap) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            return bitmap.getAllocationByteCount();
+        }
+        return bitmap.getByteCount();
+    }
+
+    @Override
+    protected int sizeOf(String key, Bitmap bitmap) {
+        return getBitmapBytes(bitmap);
+    }
+
+    @Override
+    public Bitmap getBitmap(String url) {
+        return get(url);
+    }
+
+    @Override
+    public void putBitmap(String url, Bitmap bitmap) {
+        put(url, bitmap);
+    }
+
+    /**
+     * Give memory back when the system asks for it, see
+     * {@link ComponentCallbacks2#onTrimMemory(int)}. Everything goes once the app is in the
+     * background and memory is getting short; when only the UI is hidden, half goes.
+     *
+     * @param level the trim level.
+     */
+    public void onTrimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
+            evictAll();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+            trimTo(size() / 2);
+        }
+    }
+
+    /**
+     * Get the hit, miss and eviction counts so far, with the current size.
+     */
+    public synchronized Snapshot getSnapshot() {
+        return new Snapshot(hitCount(), missCount(), evictionCount(), size(), maxSize());
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR1)
+    private void trimTo(int maxBytes) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
+            trimToSize(maxBytes);
+        } else {
+            evictAll();
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    private static boolean isLowRamDevice(ActivityManager activityManager) {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT
+                && activityManager.isLowRamDevice();
+    }
+
+    /**
+     * The state of the cache at one point in time.
+     */
+    public static class Snapshot {
+        private final int mHits;
+        private final int mMisses;
+        private final int mEvictions;
+        private final int mSizeBytes;
+        private final int mMaxSizeBytes;
+
+        Snapshot(int hits, int misses, int evictions, int sizeBytes, int maxSizeBytes) {
+            mHits = hits;
+            mMisses = misses;
+            mEvictions = evictions;
+            mSizeBytes = sizeBytes;
+            mMaxSizeBytes = maxSizeBytes;
+        }
+
+        /** Lookups that found a bitmap. */
+        public int getHitCount() {
+            return mHits;
+        }
+
+        /** Lookups that found nothing, so the image had to be loaded. */
+        public int getMissCount() {
+            return mMisses;
+        }
+
+        /** Share of lookups that found a bitmap, from 0 to 1. */
+        public double getHitRate() {
+            int lookups = mHits + mMisses;
+            return lookups == 0 ? 0 : (double) mHits / lookups;
+        }
+
+        /** Bitmaps removed to make room for others. */
+        public int getEvictionCount() {
+            return mEvictions;
+        }
+
+        public int getSizeBytes() {
+            return mSizeBytes;
+        }
+
+        public int getMaxSizeBytes() {
+            return mMaxSizeBytes;
+        }
+
+        @Override
+        public String toString() {
+            return "hits=" + mHits + " misses=" + mMisses + " evictions=" + mEvictions
+                    + " size=" + mSizeBytes + "B/" + mMaxSizeBytes + "B";
+        }
+    }
+}
@@ -0,0 +1,204 @@
+/* Copyright (C) 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.plus.samples.haikuplus.api;
+
+import android.content.ComponentCallbacks2;
+import android.graphics.Bitmap;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+
+/**
+ * Bitmaps that are no longer needed, kept so the next decode of the same size and config can
+ * write into one of them instead of allocating its own. Only bitmaps nothing else can still be
+ * drawing belong here, such as the intermediate of a sample-then-scale decode; a bitmap from
+ * the memory cache may still be on screen.
+ */
+public class BitmapPool {
+    private final int mMaxBytes;
+    private final Map<String, LinkedList<Bitmap>> mGroups =
+            new HashMap<String, LinkedList<Bitmap>>();
+    // Every pooled bitmap, oldest first, so the oldest goes when the pool is full.
+    private final LinkedList<Bitmap> mOrder = new LinkedList<Bitmap>();
+    private int mSizeBytes;
+    private int mHits;
+    private int mMisses;
+    private int mEvictions;
+    private long mReusedBytes;
+
+    /**
+     * @param maxBytes the total size of the bitmaps to keep.
+     */
+    public BitmapPool(int maxBytes) {
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * Take a bitmap of exactly this size and config out of the pool.
+     *
+     * @return the bitmap, or null if there is none.
+     */
+    public synchronized Bitmap get(int width, int height, Bitmap.Config config) {
+        String key = getKey(width, height, config);
+        LinkedList<Bitmap> group = mGroups.get(key);
+        if (group == null) {
+            mMisses++;
+            return null;
+        }
+        Bitmap bitmap = group.removeLast();
+        if (group.isEmpty()) {
+            mGroups.remove(key);
+        }
+        mOrder.remove(bitmap);
+        int bytes = BitmapLruCache.getBitmapBytes(bitmap);
+        mSizeBytes -= bytes;
+        mHits++;
+        mReusedBytes += bytes;
+        return bitmap;
+    }
+
+    /**
+     * Give a bitmap to the pool. The caller must not use it afterwards. Bitmaps that can't be
+     * decoded into, because they are immutable or recycled, are ignored.
+     */
+    public synchronized void put(Bitmap bitmap) {
+        if (bitmap == null || !bitmap.isMutable() || bitmap.isRecycled()
+                || bitmap.getConfig() == null) {
+            return;
+        }
+        int bytes = BitmapLruCache.getBitmapBytes(bitmap);
+        if (bytes > mMaxBytes) {
+            return;
+        }
+        String key = getKey(bitmap.getWidth(), bitmap.getHeight(), bitmap.getConfig());
+        LinkedList<Bitmap> group = mGroups.get(key);
+        if (group == null) {
+            group = new LinkedList<Bitmap>();
+            mGroups.put(key, group);
+        }
+        group.add(bitmap);
+        mOrder.add(bitmap);
+        mSizeBytes += bytes;
+        trimTo(mMaxBytes);
+    }
+
+    public synchronized void evictAll() {
+        trimTo(0);
+    }
+
+    /**
+     * Give memory back when the system asks for it, in the same steps as
+     * {@link BitmapLruCache#onTrimMemory(int)}.
+     *
+     * @param level the trim level.
+     */
+    public synchronized void onTrimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
+            trimTo(0);
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+            trimTo(mSizeBytes / 2);
+        }
+    }
+
+    /**
+     * Get the hit and miss counts and the bytes reused so far, with the current size.
+     */
+    public synchronized Snapshot getSnapshot() {
+        return new Snapshot(mHits, mMisses, mEvictions, mReusedBytes, mSizeBytes, mMaxBytes);
+    }
+
+    private void trimTo(int maxBytes) {
+        while (mSizeBytes > maxBytes && !mOrder.isEmpty()) {
+            Bitmap oldest = mOrder.removeFirst();
+            String key = getKey(oldest.getWidth(), oldest.getHeight(), oldest.getConfig());
+            LinkedList<Bitmap> group = mGroups.get(key);
+            group.remove(oldest);
+            if (group.isEmpty()) {
+                mGroups.remove(key);
+            }
+            mSizeBytes -= BitmapLruCache.getBitmapBytes(oldest);
+            mEvictions++;
+        }
+    }
+
+    private static String getKey(int width, int height, Bitmap.Config config) {
+        return width + "x" + height + ":" + config;
+    }
+
+    /**
+     * The state of the pool at one point in time.
+     */
+    public static class Snapshot {
+        private final int mHits;
+        private final int mMisses;
+        private final int mEvictions;
+        private final long mReusedBytes;
+        private final int mSizeBytes;
+        private final int mMaxSizeBytes;
+
+        Snapshot(int hits, int misses, int evictions, long reusedBytes, int sizeBytes,
+                 int maxSizeBytes) {
+            mHits = hits;
+            mMisses = misses;
+            mEvictions = evictions;
+            mReusedBytes = reusedBytes;
+            mSizeBytes = sizeBytes;
+            mMaxSizeBytes = maxSizeBytes;
+        }
+
+        /** Lookups that found a bitmap to decode into. */
+        public int getHitCount() {
+            return mHits;
+        }
+
+        /** Lookups that found nothing, so the decode allocated a new bitmap. */
+        public int getMissCount() {
+            return mMisses;
+        }
+
+        /** Share of lookups that found a bitmap, from 0 to 1. */
+        public double getHitRate() {
+            int lookups = mHits + mMisses;
+            return lookups == 0 ? 0 : (double) mHits / lookups;
+        }
+
+        /** Bitmaps dropped to make room for others. */
+        public int getEvictionCount() {
+            return mEvictions;
+        }
+
+        /** Bytes of bitmap memory that were reused rather than allocated. */
+        public long getReusedBytes() {
+            return mReusedBytes;
+        }
+
+        public int getSizeBytes() {
+            return mSizeBytes;
+        }
+
+        public int getMaxSizeBytes() {
+            return mMaxSizeBytes;
+        }
+
+        @Override
+        public String toString() {
+            return "hits=" + mHits + " misses=" + mMisses + " evictions=" + mEvictions
+                    + " reused=" + mReusedBytes + "B size=" + mSizeBytes + "B/"
+                    + mMaxSizeBytes + "B";
+        }
+    }
+}
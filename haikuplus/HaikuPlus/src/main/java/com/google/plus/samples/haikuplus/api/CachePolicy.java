@@ -0,0 +1,190 @@
+/* Copyright (C) 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.plus.samples.haikuplus.api;
+
+import com.android.volley.Cache;
+import com.android.volley.NetworkResponse;
+import com.android.volley.VolleyError;
+import com.android.volley.toolbox.HttpHeaderParser;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Client-side freshness rules for an API endpoint, applied to the Volley cache in place of
+ * whatever caching headers the server sends.
+ *
+ * <ul>
+ * <li>Within the soft TTL a cached response is used without going to the network.</li>
+ * <li>Past the soft TTL but within the hard TTL, if stale-while-revalidate is enabled, the
+ * cached response is delivered immediately and a fresh one follows from the network.</li>
+ * <li>Within the stale-if-error window, a cached response is delivered in place of a
+ * connection failure or server error.</li>
+ * <li>A successful write expires what it changed, through {@link InvalidatingCache}, whatever
+ * its TTLs.</li>
+ * </ul>
+ */
+public class CachePolicy {
+    private static final long SECOND = 1000;
+    private static final long MINUTE = 60 * SECOND;
+    private static final long DAY = 24 * 60 * MINUTE;
+
+    /** Stored with each cache entry to record when it was fetched from the network. */
+    private static final String HEADER_CACHED_AT = "X-Haiku-Cached-At";
+    private static final String HEADER_SET_COOKIE = "Set-Cookie";
+
+    /** Policy for /api/haikus. */
+    public static final CachePolicy STREAM = new CachePolicy(30 * SECOND, 7 * DAY, true, 7 * DAY);
+    /** Policy for /api/haikus/{id}. */
+    public static final CachePolicy HAIKU = new CachePolicy(5 * MINUTE, 7 * DAY, true, 7 * DAY);
+    /**
+     * Policy for /api/users/me. This is how the session is checked, so it always goes to the
+     * network, but the last known user is shown if that fails.
+     */
+    public static final CachePolicy USER = new CachePolicy(0, 0, false, DAY);
+
+    private final long mSoftTtlMs;
+    private final long mHardTtlMs;
+    private final boolean mStaleWhileRevalidate;
+    private final long mStaleIfErrorMs;
+
+    /**
+     * @param softTtlMs how long a response is used without revalidating.
+     * @param hardTtlMs how long a response may be served while revalidating.
+     * @param staleWhileRevalidate whether to serve responses past the soft TTL while a fresh
+     *                             copy is fetched.
+     * @param staleIfErrorMs how long a response may be served if the network fails.
+     */
+    public CachePolicy(long softTtlMs, long hardTtlMs, boolean staleWhileRevalidate,
+                       long staleIfErrorMs) {
+        mSoftTtlMs = softTtlMs;
+        mHardTtlMs = Math.max(softTtlMs, hardTtlMs);
+        mStaleWhileRevalidate = staleWhileRevalidate;
+        mStaleIfErrorMs = staleIfErrorMs;
+    }
+
+    /**
+     * Get how long a response is used without revalidating, in milliseconds.
+     */
+    long getSoftTtlMs() {
+        return mSoftTtlMs;
+    }
+
+    /**
+     * Build the cache entry to store for a network response.
+     *
+     * @param response the response from the network.
+     * @return the entry, or null if there is no body to cache.
+     */
+    Cache.Entry buildEntry(NetworkResponse response) {
+        if (response.data == null) {
+            return null;
+        }
+        long now = System.currentTimeMillis();
+        Cache.Entry entry = HttpHeaderParser.parseCacheHeaders(response);
+        if (entry == null) {
+            // The server asked for no caching; we still keep a copy under our own rules.
+            entry = new Cache.Entry();
+            entry.data = response.data;
+        }
+        Map<String, String> headers = new HashMap<String, String>();
+        if (response.headers != null) {
+            headers.putAll(response.headers);
+        }
+        headers.put(HEADER_CACHED_AT, String.valueOf(now));
+        entry.responseHeaders = headers;
+        entry.softTtl = now + mSoftTtlMs;
+        entry.ttl = now + (mStaleWhileRevalidate ? mHardTtlMs : mSoftTtlMs);
+        return entry;
+    }
+
+    /**
+     * Check whether a response was read back from the cache rather than the network.
+     */
+    boolean isFromCache(NetworkResponse response) {
+        return getCachedAt(response.headers) > 0;
+    }
+
+    /**
+     * Check whether a response read from the cache is past its soft TTL, in which case Volley
+     * delivers it as an intermediate response and refreshes it from the network.
+     */
+    boolean isIntermediate(NetworkResponse response) {
+        long cachedAt = getCachedAt(response.headers);
+        return mStaleWhileRevalidate && cachedAt > 0
+                && System.currentTimeMillis() > cachedAt + mSoftTtlMs;
+    }
+
+    /**
+     * Check whether a cached entry may be served in place of an error.
+     *
+     * @param entry the cached entry for the request, may be null.
+     * @param error the error from the network.
+     * @return true if the entry should be delivered instead of the error.
+     */
+    boolean canServeOnError(Cache.Entry entry, VolleyError error) {
+        if (entry == null || entry.data == null || mStaleIfErrorMs <= 0) {
+            return false;
+        }
+        // Only connection failures and server errors; auth and client errors must surface.
+        if (error.networkResponse != null && error.networkResponse.statusCode < 500) {
+            return false;
+        }
+        long cachedAt = getCachedAt(entry.responseHeaders);
+        return cachedAt > 0 && System.currentTimeMillis() < cachedAt + mStaleIfErrorMs;
+    }
+
+    /**
+     * Build the headers for a 304: those of the cached response it confirms, updated with the
+     * ones the server sent. A 304 leaves out headers such as Content-Type and Content-Encoding,
+     * which are still needed to decode the cached body.
+     *
+     * @param cached the cache entry the request was sent with, may be null.
+     * @param headers the headers of the 304.
+     * @return the merged headers.
+     */
+    static Map<String, String> mergeNotModifiedHeaders(Cache.Entry cached,
+                                                       Map<String, String> headers) {
+        Map<String, String> merged = new HashMap<String, String>();
+        if (cached != null && cached.responseHeaders != null) {
+            merged.putAll(cached.responseHeaders);
+        }
+        // The response has just been confirmed by the network, so it is not a cached one, and
+        // a cookie from the original response must not replace the current session.
+        merged.remove(HEADER_CACHED_AT);
+        merged.remove(HEADER_SET_COOKIE);
+        if (headers != null) {
+            merged.putAll(headers);
+        }
+        return merged;
+    }
+
+    /**
+     * Get when a cached response was stored, from the headers of its cache entry.
+     *
+     * @return the time in milliseconds, or 0 if it was not stored under a policy.
+     */
+    static long getCachedAt(Map<String, String> headers) {
+        if (headers == null || headers.get(HEADER_CACHED_AT) == null) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(headers.get(HEADER_CACHED_AT));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+/* Copyright (C) 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.plus.samples.haikuplus.api;
+
+import android.os.SystemClock;
+
+/**
+ * Fails requests to an endpoint fast while it appears to be down. After enough consecutive
+ * failures the circuit opens and requests are refused without touching the network; once the
+ * cool-down has passed a single probe is let through, and its outcome closes the circuit or
+ * opens it again.
+ */
+class CircuitBreaker {
+    private static final int FAILURE_THRESHOLD = 5;
+    private static final long OPEN_MS = 30 * 1000;
+
+    private int mFailures;
+    private long mOpenUntil;
+    private boolean mProbing;
+
+    /**
+     * Check whether a request may be sent.
+     *
+     * @return false if the circuit is open and the request should fail immediately.
+     */
+    synchronized boolean allowRequest() {
+        if (mFailures < FAILURE_THRESHOLD) {
+            return true;
+        }
+        if (mProbing || SystemClock.elapsedRealtime() < mOpenUntil) {
+            return false;
+        }
+        mProbing = true;
+        return true;
+    }
+
+    /**
+     * Record a request that reached a working server, whatever its status.
+     */
+    synchronized void onSuccess() {
+        mFailures = 0;
+        mProbing = false;
+    }
+
+    /**
+     * Record a request that ended without an outcome, such as one that threw before reaching
+     * the network. Counts as neither success nor failure, but lets another probe through.
+     */
+    synchronized void onAbandoned() {
+        mProbing = false;
+    }
+
+    /**
+     * Record a request that timed out, could not connect or got a server error.
+     */
+    synchronized void onFailure() {
+        mFailures++;
+        mProbing = false;
+        if (mFailures >= FAILURE_THRESHOLD) {
+            mOpenUntil = SystemClock.elapsedRealtime() + OPEN_MS;
+        }
+    }
+}
@@ -16,25 +16,35 @@
 package com.google.plus.samples.haikuplus.api;
 
 import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-import com.google.gson.JsonSyntaxException;
+import com.google.gson.JsonIOException;
+import com.google.gson.JsonParseException;
 import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
 import com.google.plus.samples.haikuplus.Constants;
 
-import android.text.TextUtils;
+import android.net.Uri;
 import android.util.Log;
 
-import com.android.volley.DefaultRetryPolicy;
+import com.android.volley.Cache;
 import com.android.volley.NetworkResponse;
 import com.android.volley.Request;
 import com.android.volley.Response;
 import com.android.volley.VolleyError;
 import com.android.volley.toolbox.HttpHeaderParser;
 
-import java.io.UnsupportedEncodingException;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.nio.charset.Charset;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
 
 /**
  * Custom Volley request type that implements the logic for managing the session and
@@ -56,35 +66,104 @@ public class HaikuApiRequest<T> extends Request<T> {
     private static final String HEADER_BEARER = "Bearer ";
     private static final String HEADER_SETCOOKIE = "Set-Cookie";
     private static final String HEADER_USER_AGENT = "User-Agent";
+    private static final String HEADER_ETAG = "ETag";
+    private static final String HEADER_LAST_MODIFIED = "Last-Modified";
+    private static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+    private static final String HEADER_IF_MODIFIED_SINCE = "If-Modified-Since";
+    private static final String HEADER_IDEMPOTENCY_KEY = "Idempotency-Key";
+    private static final String HEADER_ACCEPT = "Accept";
+    private static final String HEADER_ACCEPT_ENCODING = "Accept-Encoding";
+    private static final String HEADER_CONTENT_TYPE = "Content-Type";
+    private static final String HEADER_CONTENT_ENCODING = "Content-Encoding";
+    private static final String ENCODING_GZIP = "gzip";
+    private static final String ENCODING_DEFLATE = "deflate";
+    private static final String ACCEPT_ENCODINGS = ENCODING_GZIP + ", " + ENCODING_DEFLATE;
+    private static final String CONTENT_TYPE_JSON = "application/json";
+    // Servers that don't know the binary format fall back to JSON.
+    private static final String ACCEPT_BINARY =
+            MessagePackCodec.CONTENT_TYPE + ", " + CONTENT_TYPE_JSON + ";q=0.5";
+    // Below this a gzip header and trailer can outweigh the saving.
+    private static final int GZIP_MIN_BODY_BYTES = 256;
+    private static final int HTTP_NOT_MODIFIED = 304;
 
     private static final int TIMEOUT_MS = 10 * 1000;
     private static final int MAX_RETRIES = 3;
     private static final int NO_RETRIES = 0;
     private static final float BACKOFF_MULT = 2.0f;
 
+    private static final ParsedResponseCache sParsedCache = new ParsedResponseCache();
+
     private final Response.Listener<T> mListener;
-    private Gson mGson;
-    private TypeToken<T> mType;
+    private final Response.ErrorListener mErrorListener;
+    private final boolean mBackoff;
+    private final Gson mGson;
+    private final TypeToken<T> mType;
     private HaikuSession mSession;
+    private T mBodySource;
     private byte[] mBody;
+    private boolean mConditional;
+    private String mIdempotencyKey;
+    private boolean mCompressBody;
+    private byte[] mEncodedBody;
+    private String mBodyEncoding;
+    private CachePolicy mCachePolicy;
+    private Priority mPriority = Priority.NORMAL;
+    // Set on the cache or network thread while parsing, read on delivery.
+    private volatile boolean mIntermediate;
+    private volatile T mStaleResult;
+    private boolean mIntermediateDelivered;
+    private T mIntermediateResult;
+    private AuthCoordinator mAuthCoordinator;
+    private boolean mReplayed;
+    // Set on the network thread when headers are built, read on delivery.
+    private volatile String mSentSessionId;
+    // Timings for HaikuMetrics, in System.nanoTime(). Written on the dispatcher threads.
+    private final long mQueuedNanos = System.nanoTime();
+    private volatile long mPickedUpNanos;
+    private volatile long mNetworkStartNanos;
+    private volatile long mNetworkEndNanos;
+    private volatile long mParsedNanos;
+    private HaikuMetrics.Recorder mRecorder;
+
+    /**
+     * Listener that is also told whether a response is intermediate: a cached copy past its
+     * soft TTL, delivered while a fresh copy is fetched. A final call always follows: either
+     * {@link #onResponse(Object, boolean)} with the fresh copy, or {@link #onRefreshFailed}.
+     *
+     * @param <T> the type of the response.
+     */
+    public interface IntermediateListener<T> extends Response.Listener<T> {
+        public void onResponse(T response, boolean intermediate);
+
+        /**
+         * Called instead of a final response when the refresh that followed an intermediate
+         * response failed, so the stale copy is all there is.
+         *
+         * @param response the intermediate response delivered earlier.
+         */
+        public void onRefreshFailed(T response);
+    }
 
     public HaikuApiRequest(TypeToken<T> type, int method, String url, Response.Listener<T> listener,
                            Response.ErrorListener errorListener, boolean backoff) {
         super(method, url, errorListener);
         mListener = listener;
-        mGson = new GsonBuilder()
-                // Fixes the support for the API date format.
-                .setDateFormat("yyyy-MM-dd'T'HH:mm:ssZ")
-                .create();
+        mErrorListener = errorListener;
+        mBackoff = backoff;
+        mGson = HaikuCodecs.getGson();
         mType = type;
         mBody = null;
+        // Only GET responses are safe to cache; POSTs to the same URL would overwrite them.
+        setShouldCache(method == Method.GET);
 
         if (backoff) {
-            // Exponential backoff with 10s retry, 2x multiplier, and 3 max retries
-            setRetryPolicy(new HaikuRetryPolicy(TIMEOUT_MS, MAX_RETRIES, BACKOFF_MULT));
+            // Jittered exponential backoff, 10s timeout growing 2x, and 3 max retries
+            setRetryPolicy(new AdaptiveRetryPolicy(TIMEOUT_MS, MAX_RETRIES, BACKOFF_MULT,
+                    RetryBudget.getDefault()));
         } else {
             // No retry
-            setRetryPolicy(new HaikuRetryPolicy(TIMEOUT_MS, NO_RETRIES, BACKOFF_MULT));
+            setRetryPolicy(new AdaptiveRetryPolicy(TIMEOUT_MS, NO_RETRIES, BACKOFF_MULT,
+                    RetryBudget.getDefault()));
         }
     }
 
@@ -92,13 +171,163 @@ public class HaikuApiRequest<T> extends Request<T> {
         mSession = session;
     }
 
+    /**
+     * Make this a conditional request. The parsed result is kept in memory along with its
+     * validators, and the next request for the same URL sends them. If the server answers 304
+     * the listener receives the same object it was given last time, without a re-parse.
+     *
+     * @param conditional whether to revalidate against the previously parsed response.
+     */
+    public void setConditional(boolean conditional) {
+        mConditional = conditional;
+    }
+
+    /**
+     * Attach a key that identifies this write across retries and replays, so the server can
+     * recognise one it has already applied.
+     *
+     * @param key a unique key for the write.
+     */
+    public void setIdempotencyKey(String key) {
+        mIdempotencyKey = key;
+    }
+
+    /**
+     * Apply a client-side cache policy to this request, see {@link CachePolicy}.
+     *
+     * @param policy the policy for the endpoint.
+     */
+    public void setCachePolicy(CachePolicy policy) {
+        mCachePolicy = policy;
+    }
+
+    /**
+     * Set the order in which this is taken off the queue relative to other requests; use
+     * {@link Priority#LOW} for speculative fetches that nobody is waiting on yet.
+     *
+     * @param priority the priority of the request.
+     */
+    public void setPriority(Priority priority) {
+        mPriority = priority;
+    }
+
+    @Override
+    public Priority getPriority() {
+        return mPriority;
+    }
+
+    @Override
+    public String getCacheKey() {
+        // Cached responses depend on who is signed in, not just the URL.
+        if (mSession != null && mSession.getAccountName() != null) {
+            return getUrl() + "#" + mSession.getAccountName();
+        }
+        return getUrl();
+    }
+
     @Override
     protected void deliverResponse(T response) {
-        mListener.onResponse(response);
+        boolean intermediate = mIntermediate;
+        if (intermediate) {
+            mIntermediateDelivered = true;
+            mIntermediateResult = response;
+        } else {
+            recordCompletion(false);
+        }
+        notifyListener(response, intermediate);
+    }
+
+    private void notifyListener(T response, boolean intermediate) {
+        if (mListener instanceof IntermediateListener) {
+            ((IntermediateListener<T>) mListener).onResponse(response, intermediate);
+        } else {
+            mListener.onResponse(response);
+        }
+    }
+
+    /**
+     * Hand requests rejected because the session expired to a coordinator, which renews the
+     * session once and replays them, rather than delivering the error.
+     *
+     * @param coordinator the coordinator to use.
+     */
+    void setAuthCoordinator(AuthCoordinator coordinator) {
+        mAuthCoordinator = coordinator;
+    }
+
+    /**
+     * Get the session ID this request was last sent with, null if it was sent without one.
+     */
+    String getSentSessionId() {
+        return mSentSessionId;
+    }
+
+    /**
+     * Build a fresh copy of this request, with the same listeners and settings, to send again
+     * after the session has been renewed. The copy is never replayed itself.
+     */
+    HaikuApiRequest<T> copyForReplay() {
+        HaikuApiRequest<T> copy = new HaikuApiRequest<T>(
+                mType, getMethod(), getUrl(), mListener, mErrorListener, mBackoff);
+        copy.setTag(getTag());
+        copy.setShouldCache(shouldCache());
+        copy.mSession = mSession;
+        copy.mConditional = mConditional;
+        copy.mCachePolicy = mCachePolicy;
+        copy.mPriority = mPriority;
+        copy.mIdempotencyKey = mIdempotencyKey;
+        copy.mBodySource = mBodySource;
+        copy.mBody = mBody;
+        copy.mCompressBody = mCompressBody;
+        copy.mReplayed = true;
+        return copy;
+    }
+
+    /**
+     * Deliver an error for a request that was parked by the {@link AuthCoordinator}.
+     */
+    void deliverUnparked(VolleyError error) {
+        deliverErrorToListener(error);
     }
 
     @Override
     public void deliverError(VolleyError error) {
+        if (mAuthCoordinator != null && !mReplayed && isSessionExpired(error)
+                && mAuthCoordinator.onSessionExpired(this, mSession, error)) {
+            return;
+        }
+        deliverErrorToListener(error);
+    }
+
+    /**
+     * Check whether an error means the session cookie is no longer valid, as opposed to the
+     * server wanting a fresh auth code, which needs the user.
+     */
+    private static boolean isSessionExpired(VolleyError error) {
+        return error.networkResponse != null
+                && error.networkResponse.statusCode == 401
+                && error.networkResponse.headers.get(HEADER_WWWAUTH) != null
+                && error.networkResponse.headers.get(HEADER_XOAUTH) == null;
+    }
+
+    private void deliverErrorToListener(VolleyError error) {
+        recordCompletion(true);
+        if (mIntermediateDelivered) {
+            // The listener already has the cached copy, which will have to do; tell it the
+            // refresh is over, without passing the copy off as fresh.
+            Log.d(TAG, "Refresh failed, keeping cached response: " + error.getMessage());
+            if (mListener instanceof IntermediateListener) {
+                ((IntermediateListener<T>) mListener).onRefreshFailed(mIntermediateResult);
+            } else {
+                mListener.onResponse(mIntermediateResult);
+            }
+            return;
+        }
+        if (mStaleResult != null) {
+            Log.d(TAG, "Request failed, serving cached response: " + error.getMessage());
+            mListener.onResponse(mStaleResult);
+            return;
+        }
         if (error.networkResponse != null) {
             extractCookieIfPresent(error.networkResponse);
             if (error.networkResponse.statusCode == 401) {
@@ -134,39 +363,345 @@ public class HaikuApiRequest<T> extends Request<T> {
 
     @Override
     protected Response<T> parseNetworkResponse(NetworkResponse response) {
+        long start = System.nanoTime();
+        markPickedUp(start);
+        if (mNetworkStartNanos != 0 && mNetworkEndNanos == 0
+                && (mCachePolicy == null || !mCachePolicy.isFromCache(response))) {
+            mNetworkEndNanos = start;
+        }
+        if (!response.notModified && response.data != null) {
+            getRecorder().onBytesReceived(response.data.length);
+        }
+        try {
+            return parseResponse(response);
+        } finally {
+            mParsedNanos = System.nanoTime();
+            getRecorder().parse.record(mParsedNanos - start);
+        }
+    }
+
+    private Response<T> parseResponse(NetworkResponse response) {
         extractCookieIfPresent(response);
+        if (response.notModified) {
+            // The cached body is decoded, and cached again, with the headers it came with.
+            response = new NetworkResponse(response.statusCode, response.data,
+                    CachePolicy.mergeNotModifiedHeaders(getCacheEntry(), response.headers), true);
+        }
 
-        String string;
+        boolean fromCache = mCachePolicy != null && mCachePolicy.isFromCache(response);
+        mIntermediate = fromCache && mCachePolicy.isIntermediate(response);
+
+        if (mConditional) {
+            ParsedResponseCache.Entry entry = sParsedCache.get(getCacheKey());
+            boolean notModified = response.notModified || response.statusCode == HTTP_NOT_MODIFIED;
+            // A cached body we have already parsed is as good as a 304.
+            boolean sameBody = fromCache && entry != null && entry.etag != null
+                    && entry.etag.equals(getHeader(response, HEADER_ETAG));
+            if (entry != null && (notModified || sameBody)) {
+                /* Unchecked cast is safe as entries are only stored under this URL by
+                requests of the same type.
+                 */
+                @SuppressWarnings("unchecked")
+                T unchanged = (T) entry.parsed;
+                return Response.success(unchanged, fromCache ? null : buildCacheEntry(response));
+            }
+        }
+
+        T parsed;
         try {
-            string = new String(response.data, HttpHeaderParser.parseCharset(response.headers));
-        } catch (UnsupportedEncodingException e) {
-            string = new String(response.data);
+            parsed = decode(response);
+        } catch (JsonParseException e) {
+            Log.e(TAG, "Unparseable " + response.data.length + " byte response", e);
+            return Response.error(new VolleyError("Error: could not parse JSON Response"));
+        }
+
+        if (mConditional) {
+            String etag = getHeader(response, HEADER_ETAG);
+            String lastModified = getHeader(response, HEADER_LAST_MODIFIED);
+            if (parsed != null && (etag != null || lastModified != null)) {
+                sParsedCache.put(getCacheKey(),
+                        new ParsedResponseCache.Entry(parsed, etag, lastModified));
+            } else {
+                sParsedCache.remove(getCacheKey());
+            }
+        }
+
+        return Response.success(parsed, fromCache ? null : buildCacheEntry(response));
+    }
+
+    @Override
+    protected VolleyError parseNetworkError(VolleyError volleyError) {
+        long now = System.nanoTime();
+        markPickedUp(now);
+        if (mNetworkStartNanos != 0 && mNetworkEndNanos == 0) {
+            mNetworkEndNanos = now;
         }
+        mParsedNanos = now;
+        // Runs on the network thread, so any stale copy is parsed here rather than on delivery.
+        Cache.Entry entry = getCacheEntry();
+        if (mCachePolicy != null && !hasHadResponseDelivered()
+                && mCachePolicy.canServeOnError(entry, volleyError)) {
+            ParsedResponseCache.Entry parsed = mConditional
+                    ? sParsedCache.get(getCacheKey()) : null;
+            try {
+                if (parsed != null) {
+                    @SuppressWarnings("unchecked")
+                    T stale = (T) parsed.parsed;
+                    mStaleResult = stale;
+                } else {
+                    mStaleResult = decode(new NetworkResponse(entry.data, entry.responseHeaders));
+                }
+            } catch (JsonParseException e) {
+                Log.e(TAG, "Invalid JSON in cached response", e);
+            }
+        }
+        return super.parseNetworkError(volleyError);
+    }
+
+    private void markPickedUp(long now) {
+        if (mPickedUpNanos == 0) {
+            mPickedUpNanos = now;
+        }
+    }
 
-        T parsed = null;
-        if (!TextUtils.isEmpty(string)) {
+    /**
+     * Record the timings of a request that has delivered its final result. Called on the main
+     * thread.
+     */
+    private void recordCompletion(boolean error) {
+        long now = System.nanoTime();
+        HaikuMetrics.Recorder recorder = getRecorder();
+        recorder.onCompleted(error);
+        if (mPickedUpNanos != 0) {
+            recorder.queueWait.record(mPickedUpNanos - mQueuedNanos);
+        }
+        if (mNetworkStartNanos != 0 && mNetworkEndNanos != 0) {
+            recorder.network.record(mNetworkEndNanos - mNetworkStartNanos);
+        }
+        if (mParsedNanos != 0) {
+            recorder.delivery.record(now - mParsedNanos);
+        }
+        recorder.total.record(now - mQueuedNanos);
+    }
+
+    /**
+     * Get the metrics recorder for this request's endpoint, named by method and tag, or by
+     * URL path for untagged requests.
+     */
+    private HaikuMetrics.Recorder getRecorder() {
+        HaikuMetrics.Recorder recorder = mRecorder;
+        if (recorder == null) {
+            Object tag = getTag();
+            String path = tag instanceof String ? (String) tag : Uri.parse(getUrl()).getPath();
+            recorder = HaikuMetrics.forEndpoint(getMethodName(getMethod()) + " " + path);
+            mRecorder = recorder;
+        }
+        return recorder;
+    }
+
+    private static String getMethodName(int method) {
+        switch (method) {
+            case Method.GET:
+                return "GET";
+            case Method.POST:
+                return "POST";
+            case Method.PUT:
+                return "PUT";
+            case Method.DELETE:
+                return "DELETE";
+            default:
+                return String.valueOf(method);
+        }
+    }
+
+    /**
+     * Decode the body of a response.
+     *
+     * @param response the raw response.
+     * @return the decoded object, or null if the body was empty.
+     * @throws JsonParseException if the body could not be parsed.
+     */
+    private T decode(NetworkResponse response) {
+        if (response.data == null || response.data.length == 0) {
+            return null;
+        }
+        InputStream body = openBody(response);
+        if (MessagePackCodec.supports(mType)) {
+            body = new BufferedInputStream(body);
+            if (isMessagePack(response, body)) {
+                return decodeMessagePack(body);
+            }
+        }
+        /* Decode straight from the response bytes rather than building an intermediate
+        String: Gson pulls tokens from the reader and builds each object as it goes, so a
+        long stream never holds both the full text and the parsed list at once.
+         */
+        JsonReader reader = new JsonReader(new InputStreamReader(body, parseCharset(response)));
+        try {
             /* We can be confident in suppressing the unchecked cast here
             as mType is parameterised as T in the constructor. Temp
             variable introduced so we can scope the suppression to just
             the method.
              */
-            try {
-                @SuppressWarnings("unchecked")
-                T tmpParsed = (T) mGson.fromJson(string, mType.getType());
-                parsed = tmpParsed;
-            } catch (JsonSyntaxException e) {
-                Log.e(TAG, "Invalid JSON: " + string, e);
-                return Response.error(new VolleyError("Error: could not parse JSON Response"));
+            @SuppressWarnings("unchecked")
+            T parsed = (T) mGson.fromJson(reader, mType.getType());
+            return parsed;
+        } finally {
+            closeQuietly(reader);
+        }
+    }
+
+    /**
+     * Decode a MessagePack body.
+     *
+     * @throws JsonParseException if the body could not be parsed, so callers handle both
+     *     formats alike.
+     */
+    private T decodeMessagePack(InputStream body) {
+        try {
+            /* Unchecked cast is safe as the codec returns the type it is asked for.
+             */
+            @SuppressWarnings("unchecked")
+            T parsed = (T) MessagePackCodec.read(body, mType);
+            return parsed;
+        } catch (IOException e) {
+            throw new JsonParseException("Invalid MessagePack response", e);
+        } finally {
+            closeQuietly(body);
+        }
+    }
+
+    /**
+     * Check whether a body is MessagePack, from its Content-Type or, if it has none (as when a
+     * 304 is answered from the cache), from its first byte.
+     *
+     * @param body the body, which must support mark and reset.
+     */
+    private static boolean isMessagePack(NetworkResponse response, InputStream body) {
+        String contentType = getHeader(response, HEADER_CONTENT_TYPE);
+        if (contentType != null) {
+            return contentType.startsWith(MessagePackCodec.CONTENT_TYPE);
+        }
+        try {
+            body.mark(1);
+            int first = body.read();
+            body.reset();
+            return MessagePackCodec.isMessagePack(first);
+        } catch (IOException e) {
+            throw new JsonIOException("Unreadable response", e);
+        }
+    }
+
+    /**
+     * Open the body of a response, inflating it as it is read if it was compressed. Gzip is
+     * recognised by its magic number as well as the header, since entries cached from a 304
+     * before its headers were merged with the cached ones have no Content-Encoding.
+     */
+    private static InputStream openBody(NetworkResponse response) {
+        InputStream in = new ByteArrayInputStream(response.data);
+        String encoding = getHeader(response, HEADER_CONTENT_ENCODING);
+        try {
+            if (ENCODING_GZIP.equalsIgnoreCase(encoding) || isGzip(response.data)) {
+                return new GZIPInputStream(in);
+            } else if (ENCODING_DEFLATE.equalsIgnoreCase(encoding)) {
+                return new InflaterInputStream(in);
+            }
+        } catch (IOException e) {
+            throw new JsonIOException("Unreadable " + encoding + " response", e);
+        }
+        return in;
+    }
+
+    private static boolean isGzip(byte[] data) {
+        return data.length >= 2 && (data[0] & 0xff) == 0x1f && (data[1] & 0xff) == 0x8b;
+    }
+
+    /**
+     * Forget every parsed response, as a new process would, so the next read of each is
+     * decoded from the cached body. Meant for tests.
+     */
+    static void clearParsedResponses() {
+        sParsedCache.clear();
+    }
+
+    /**
+     * Build the Volley cache entry for a network response, applying the cache policy if set.
+     */
+    private Cache.Entry buildCacheEntry(NetworkResponse response) {
+        if (mCachePolicy != null) {
+            return mCachePolicy.buildEntry(response);
+        }
+        return response.data != null ? HttpHeaderParser.parseCacheHeaders(response) : null;
+    }
+
+    /**
+     * Look up a response header, ignoring case as servers differ in how they send them.
+     */
+    private static String getHeader(NetworkResponse response, String name) {
+        if (response.headers == null) {
+            return null;
+        }
+        for (Map.Entry<String, String> header : response.headers.entrySet()) {
+            if (name.equalsIgnoreCase(header.getKey())) {
+                return header.getValue();
             }
         }
+        return null;
+    }
 
-        return Response.success(parsed, HttpHeaderParser.parseCacheHeaders(response));
+    /**
+     * Determine the charset of a response, falling back to the platform default if the
+     * server sent one we don't support.
+     *
+     * @param response the raw response.
+     * @return the charset to decode the body with.
+     */
+    private static Charset parseCharset(NetworkResponse response) {
+        try {
+            return Charset.forName(HttpHeaderParser.parseCharset(response.headers));
+        } catch (IllegalArgumentException e) {
+            return Charset.defaultCharset();
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to close response reader", e);
+        }
     }
 
     @Override
     public Map<String, String> getHeaders() {
+        long now = System.nanoTime();
+        markPickedUp(now);
+        if (mNetworkStartNanos == 0) {
+            mNetworkStartNanos = now;
+        }
         HashMap<String, String> headers = new HashMap<String, String>();
         headers.put(HEADER_USER_AGENT, Constants.USER_AGENT);
+        // Setting this ourselves stops HttpURLConnection from inflating the body, so the
+        // compressed bytes are what Volley caches and what decode() streams from.
+        headers.put(HEADER_ACCEPT_ENCODING, ACCEPT_ENCODINGS);
+        headers.put(HEADER_ACCEPT,
+                MessagePackCodec.supports(mType) ? ACCEPT_BINARY : CONTENT_TYPE_JSON);
+        encodeBody();
+        if (mBodyEncoding != null) {
+            headers.put(HEADER_CONTENT_ENCODING, mBodyEncoding);
+        }
+        if (mIdempotencyKey != null) {
+            headers.put(HEADER_IDEMPOTENCY_KEY, mIdempotencyKey);
+        }
+        if (mConditional) {
+            ParsedResponseCache.Entry entry = sParsedCache.get(getCacheKey());
+            if (entry != null && entry.etag != null) {
+                headers.put(HEADER_IF_NONE_MATCH, entry.etag);
+            }
+            if (entry != null && entry.lastModified != null) {
+                headers.put(HEADER_IF_MODIFIED_SINCE, entry.lastModified);
+            }
+        }
         if (mSession == null) {
             return headers;
         }
@@ -177,6 +712,7 @@ public class HaikuApiRequest<T> extends Request<T> {
             mSession.setCode(null);
         }
 
+        mSentSessionId = mSession.getSessionId();
         if (mSession.getSessionId() != null) {
             headers.put(HEADER_COOKIE, HaikuClient.COOKIE_PREFIX + mSession.getSessionId());
         } else if (mSession.getAccountName() != null) {
@@ -193,32 +729,63 @@ public class HaikuApiRequest<T> extends Request<T> {
 
     @Override
     public byte[] getBody() {
-        return mBody;
+        encodeBody();
+        if (mEncodedBody != null) {
+            getRecorder().onBytesSent(mEncodedBody.length);
+        }
+        return mEncodedBody;
     }
 
+    /**
+     * Set the object to send as the body. It is serialized when the request is sent, on a
+     * network thread, so must not be changed after the request is queued.
+     *
+     * @param body the object to send.
+     */
     public void setBody(T body) {
-        String data = mGson.toJson(body);
-        mBody = data.getBytes(Charset.forName("UTF-8"));
+        mBodySource = body;
+        mBody = null;
+        mEncodedBody = null;
     }
 
     /**
-     * Modification of Volley's DefaultRetryPolicy to never retry on a 401 response.
+     * Send the body gzip-encoded when it is large enough to benefit. The server must accept
+     * Content-Encoding: gzip on requests.
+     *
+     * @param compress whether to compress the body.
      */
-    private static class HaikuRetryPolicy extends DefaultRetryPolicy {
+    public void setCompressBody(boolean compress) {
+        mCompressBody = compress;
+        mEncodedBody = null;
+    }
 
-        public HaikuRetryPolicy(int initialTimeoutMs, int maxNumRetries, float backoffMultiplier) {
-            super(initialTimeoutMs, maxNumRetries, backoffMultiplier);
+    /**
+     * Work out the bytes to send, once, so that the body and its Content-Encoding header agree.
+     */
+    private void encodeBody() {
+        if (mBody == null && mBodySource != null) {
+            mBody = mGson.toJson(mBodySource).getBytes(Charset.forName("UTF-8"));
         }
-
-        @Override
-        public void retry(VolleyError volleyError) throws VolleyError {
-            if (volleyError.networkResponse.statusCode == 401) {
-                // On 401, raise error immediately
-                throw volleyError;
-            } else {
-                // Otherwise, default to standard retry policy
-                super.retry(volleyError);
-            }
+        if (mEncodedBody != null || mBody == null) {
+            return;
+        }
+        mEncodedBody = mBody;
+        mBodyEncoding = null;
+        if (!mCompressBody || mBody.length < GZIP_MIN_BODY_BYTES) {
+            return;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(mBody.length / 2);
+        try {
+            GZIPOutputStream gzip = new GZIPOutputStream(bytes);
+            gzip.write(mBody);
+            gzip.close();
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to compress request body, sending it as is", e);
+            return;
+        }
+        if (bytes.size() < mBody.length) {
+            mEncodedBody = bytes.toByteArray();
+            mBodyEncoding = ENCODING_GZIP;
         }
     }
 }
@@ -30,13 +30,16 @@ import com.android.volley.RequestQueue;
 import com.android.volley.Response;
 import com.android.volley.VolleyError;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ExecutionException;
 
 /**
  * API wrapper class for the Haiku+ API. All interactions with the Haiku+ backend service should
  * take advantage of this class. The general approach is to provide simple method calls with
- * callbacks for success and failure.
+ * callbacks for success and failure. Each call also has a variant without a listener that
+ * returns a {@link HaikuFuture}, for running calls in parallel or chaining them.
  *
  * @author samstern@google.com (Sam Stern)
  * @author ianbarber@google.com (Ian Barber)
@@ -62,11 +65,20 @@ public class HaikuClient {
     private static final String LIST_HAIKUS = "/api/haikus";
     private static final String USER_SIGNOUT = "/api/signout";
     private static final String USER_DISCONNECT = "/api/disconnect";
+    private static final String FILTER_CIRCLES = "filter=circles";
+    private static final String PARAM_LIMIT = "limit";
+
+    public static final int DEFAULT_PAGE_SIZE = 25;
 
     private static HaikuClient mInjectableClient;
+    private static final RequestCoalescer sCoalescer = new RequestCoalescer();
+    private static final VoteQueue sVoteQueue = new VoteQueue();
 
     private final HaikuSession mHaikuSession;
     private final VolleyContainer mVolley;
+    private final Outbox mOutbox;
+    private final AuthCoordinator mAuth;
+    private final RequestScope mScope;
 
     /**
      * Interface for the callback when a haiku is retrieved individually from the API.
@@ -85,6 +97,7 @@ public class HaikuClient {
     public interface HaikuServiceListener {
         public void onUserRetrieved(User user);
         public void onHaikuWritten(Haiku haiku);
+        public void onHaikuQueued(Haiku haiku);
         public void onVoteWritten(Haiku haiku);
 
         public void onSignedOut();
@@ -99,15 +112,35 @@ public class HaikuClient {
         public void onHaikusRetrieved(List<Haiku> data);
     }
 
+    /**
+     * Interface for the callback when a page of the haiku stream is retrieved from the service.
+     */
+    public interface HaikuPageListener {
+        public void onPageRetrieved(StreamPage page);
+    }
+
+    /**
+     * Interface for the callback when the haikus added to the stream since a watermark are
+     * retrieved from the service.
+     */
+    public interface HaikuDeltaListener {
+        public void onDeltaRetrieved(StreamDelta delta);
+    }
+
     /**
      * Construct a new client for making calls to the Haiku+ API.
      *
      * @param context application context
      * @param haikuSession authentication object
+     * @param scope the scope reads are issued in, or null
      */
-    private HaikuClient(Context context, HaikuSession haikuSession) {
+    private HaikuClient(Context context, HaikuSession haikuSession, RequestScope scope) {
         mVolley = VolleyContainer.getInstance(context);
         mHaikuSession = haikuSession;
+        mScope = scope;
+        mOutbox = Outbox.getInstance(context);
+        mAuth = AuthCoordinator.getInstance(
+                mVolley.getRequestQueue(), Constants.SERVER_URL + GET_USER);
     }
 
     /**
@@ -121,7 +154,25 @@ public class HaikuClient {
         if (mInjectableClient != null) {
             return mInjectableClient;
         }
-        return new HaikuClient(context, haikuSession);
+        return new HaikuClient(context, haikuSession, null);
+    }
+
+    /**
+     * Get a client whose reads are issued in a scope, so that they can be cancelled when the
+     * caller goes away. Writes such as votes and new haikus are never scoped, since they should
+     * complete regardless.
+     *
+     * @param context
+     * @param haikuSession
+     * @param scope the scope to issue reads in
+     * @return HaikuClient
+     */
+    public static HaikuClient getInstance(Context context, HaikuSession haikuSession,
+                                          RequestScope scope) {
+        if (mInjectableClient != null) {
+            return mInjectableClient;
+        }
+        return new HaikuClient(context, haikuSession, scope);
     }
 
     /**
@@ -141,13 +192,51 @@ public class HaikuClient {
      * @param listener the object to be called when the call is complete
      */
     public void fetchHaiku(final String haikuId, final HaikuRetrievedListener listener) {
-        RequestQueue rq = mVolley.getRequestQueue();
-        String path = GET_HAIKU.replace("{haiku_id}", haikuId);
-        HaikuApiRequest<Haiku> haikuGet = new HaikuApiRequest<Haiku>(
-                (new TypeToken<Haiku>() {
-                }),
-                Request.Method.GET,
-                Constants.SERVER_URL + path,
+        fetchHaiku(haikuId, Request.Priority.NORMAL, listener);
+    }
+
+    /**
+     * Retrieve an individual haiku from the API.
+     *
+     * @param haikuId the opaque identifier for a haiku
+     * @return the haiku, which may be a cached copy
+     */
+    public HaikuFuture<Haiku> fetchHaiku(String haikuId) {
+        HaikuFuture<Haiku> future = new HaikuFuture<Haiku>();
+        future.setRequest(fetchHaiku(haikuId, Request.Priority.NORMAL, future.listener(),
+                future.errorListener()));
+        return future;
+    }
+
+    /**
+     * Retrieve an individual haiku ahead of it being displayed, so that the response is cached
+     * by the time it is needed. The request waits behind any others on the queue. A cached copy
+     * past its soft TTL is passed on as intermediate; a failure as a final null.
+     *
+     * @param haikuId the opaque identifier for a haiku
+     * @param listener the object to be called when the call is complete
+     */
+    public void prefetchHaiku(final String haikuId,
+                              final HaikuApiRequest.IntermediateListener<Haiku> listener) {
+        fetchHaiku(
+                haikuId,
+                Request.Priority.LOW,
+                listener,
+                new Response.ErrorListener() {
+                    @Override
+                    public void onErrorResponse(VolleyError volleyError) {
+                        Log.d(TAG, "Prefetch haiku error");
+                        listener.onResponse(null, false);
+                    }
+                }
+        );
+    }
+
+    private void fetchHaiku(String haikuId, Request.Priority priority,
+                            final HaikuRetrievedListener listener) {
+        fetchHaiku(
+                haikuId,
+                priority,
                 new Response.Listener<Haiku>() {
                     @Override
                     public void onResponse(Haiku data) {
@@ -162,14 +251,24 @@ public class HaikuClient {
                             listener.onHaikuRetrieved(null);
                         }
                     }
-                },
-                true
+                }
+        );
+    }
+
+    private RequestScope.Member fetchHaiku(String haikuId, Request.Priority priority,
+                                           Response.Listener<Haiku> listener,
+                                           Response.ErrorListener errorListener) {
+        String path = GET_HAIKU.replace("{haiku_id}", haikuId);
+        return addGet(
+                HaikuCodecs.HAIKU,
+                Constants.SERVER_URL + path,
+                GET_HAIKU,
+                true,
+                CachePolicy.HAIKU,
+                priority,
+                listener,
+                errorListener
         );
-        haikuGet.setTag(GET_HAIKU);
-        if (mHaikuSession != null) {
-            haikuGet.setSession(mHaikuSession);
-        }
-        rq.add(haikuGet);
     }
 
     /**
@@ -179,13 +278,8 @@ public class HaikuClient {
      * @param listener the object to be called when the request completes.
      */
     public void fetchStream(final StreamMode mode, final HaikuStreamListener listener) {
-        RequestQueue rq = mVolley.getRequestQueue();
-        String path = mode == StreamMode.ALL ? "" : "?filter=circles";
-        HaikuApiRequest<List<Haiku>> streamGet = new HaikuApiRequest<List<Haiku>>(
-                (new TypeToken<List<Haiku>>() {
-                }),
-                Request.Method.GET,
-                Constants.SERVER_URL + LIST_HAIKUS + path,
+        fetchStream(
+                mode,
                 new Response.Listener<List<Haiku>>() {
                     @Override
                     public void onResponse(List<Haiku> data) {
@@ -200,14 +294,211 @@ public class HaikuClient {
                             listener.onHaikusRetrieved(null);
                         }
                     }
+                }
+        );
+    }
+
+    /**
+     * Retrieve a list of haikus from the API.
+     *
+     * @param mode whether the haikus should be restricted to circles.
+     * @return the haikus, which may be a cached copy.
+     */
+    public HaikuFuture<List<Haiku>> fetchStream(StreamMode mode) {
+        HaikuFuture<List<Haiku>> future = new HaikuFuture<List<Haiku>>();
+        future.setRequest(fetchStream(mode, future.listener(), future.errorListener()));
+        return future;
+    }
+
+    private RequestScope.Member fetchStream(StreamMode mode,
+                                            Response.Listener<List<Haiku>> listener,
+                                            Response.ErrorListener errorListener) {
+        String path = mode == StreamMode.ALL ? "" : "?" + FILTER_CIRCLES;
+        return addGet(
+                HaikuCodecs.HAIKU_LIST,
+                Constants.SERVER_URL + LIST_HAIKUS + path,
+                LIST_HAIKUS,
+                true,
+                CachePolicy.STREAM,
+                listener,
+                errorListener
+        );
+    }
+
+    /**
+     * Retrieve a single page of haikus from the API, newest first.
+     *
+     * @param mode whether the haikus should be restricted to circles.
+     * @param cursor the continuation point from the previous page, or null for the first page.
+     * @param pageSize the maximum number of haikus to return.
+     * @param listener the object to be called when the request completes.
+     */
+    public void fetchStreamPage(final StreamMode mode, final StreamPage.Cursor cursor,
+                                final int pageSize, final HaikuPageListener listener) {
+        fetchStreamPage(
+                mode,
+                cursor,
+                pageSize,
+                new Response.Listener<StreamPage>() {
+                    @Override
+                    public void onResponse(StreamPage page) {
+                        listener.onPageRetrieved(page);
+                    }
                 },
-                true
+                new Response.ErrorListener() {
+                    @Override
+                    public void onErrorResponse(VolleyError volleyError) {
+                        Log.d(TAG, "Retrieve haiku page error");
+                        if (listener != null) {
+                            listener.onPageRetrieved(null);
+                        }
+                    }
+                }
         );
-        streamGet.setTag(LIST_HAIKUS);
-        if (mHaikuSession != null) {
-            streamGet.setSession(mHaikuSession);
+    }
+
+    /**
+     * Retrieve a single page of haikus from the API, newest first.
+     *
+     * @param mode whether the haikus should be restricted to circles.
+     * @param cursor the continuation point from the previous page, or null for the first page.
+     * @param pageSize the maximum number of haikus to return.
+     * @return the page, which is marked intermediate if it is a cached copy being refreshed.
+     */
+    public HaikuFuture<StreamPage> fetchStreamPage(StreamMode mode, StreamPage.Cursor cursor,
+                                                   int pageSize) {
+        HaikuFuture<StreamPage> future = new HaikuFuture<StreamPage>();
+        future.setRequest(fetchStreamPage(mode, cursor, pageSize, future.listener(),
+                future.errorListener()));
+        return future;
+    }
+
+    private RequestScope.Member fetchStreamPage(final StreamMode mode,
+                                                final StreamPage.Cursor cursor,
+                                                final int pageSize,
+                                                final Response.Listener<StreamPage> listener,
+                                                Response.ErrorListener errorListener) {
+        StringBuilder query = new StringBuilder("?")
+                .append(PARAM_LIMIT).append('=').append(pageSize);
+        if (mode == StreamMode.FRIENDS) {
+            query.append('&').append(FILTER_CIRCLES);
+        }
+        if (cursor != null) {
+            query.append('&').append(cursor.toQuery());
         }
-        rq.add(streamGet);
+        return addGet(
+                HaikuCodecs.HAIKU_LIST,
+                Constants.SERVER_URL + LIST_HAIKUS + query,
+                LIST_HAIKUS,
+                true,
+                CachePolicy.STREAM,
+                new HaikuApiRequest.IntermediateListener<List<Haiku>>() {
+                    @Override
+                    public void onResponse(List<Haiku> data) {
+                        onResponse(data, false);
+                    }
+
+                    @Override
+                    public void onRefreshFailed(List<Haiku> data) {
+                        // Still the stale copy, so it is passed on as such.
+                        onResponse(data, true);
+                    }
+
+                    @Override
+                    public void onResponse(List<Haiku> data, boolean intermediate) {
+                        List<Haiku> haikus = data != null ? data : new ArrayList<Haiku>();
+                        // A server that ignores paging returns more than was asked for, in which
+                        // case this page already holds the whole stream.
+                        StreamPage.Cursor next = null;
+                        if (haikus.size() == pageSize) {
+                            next = StreamPage.Cursor.after(haikus.get(haikus.size() - 1));
+                        }
+                        listener.onResponse(
+                                new StreamPage(mode, cursor, haikus, next, intermediate));
+                    }
+                },
+                errorListener
+        );
+    }
+
+    /**
+     * Retrieve the haikus added to the stream since a watermark, newest first. If more than a
+     * page's worth have been added the delta is marked incomplete, and the caller should reload
+     * the stream instead.
+     *
+     * @param mode whether the haikus should be restricted to circles.
+     * @param since the newest haiku already seen.
+     * @param pageSize the maximum number of haikus to return.
+     * @param listener the object to be called when the request completes.
+     */
+    public void fetchStreamDelta(final StreamMode mode, final StreamPage.Cursor since,
+                                 final int pageSize, final HaikuDeltaListener listener) {
+        fetchStreamDelta(
+                mode,
+                since,
+                pageSize,
+                new Response.Listener<StreamDelta>() {
+                    @Override
+                    public void onResponse(StreamDelta delta) {
+                        listener.onDeltaRetrieved(delta);
+                    }
+                },
+                new Response.ErrorListener() {
+                    @Override
+                    public void onErrorResponse(VolleyError volleyError) {
+                        Log.d(TAG, "Retrieve haiku delta error");
+                        if (listener != null) {
+                            listener.onDeltaRetrieved(null);
+                        }
+                    }
+                }
+        );
+    }
+
+    /**
+     * Retrieve the haikus added to the stream since a watermark, newest first, see
+     * {@link #fetchStreamDelta(StreamMode, StreamPage.Cursor, int, HaikuDeltaListener)}.
+     *
+     * @param mode whether the haikus should be restricted to circles.
+     * @param since the newest haiku already seen.
+     * @param pageSize the maximum number of haikus to return.
+     * @return the delta.
+     */
+    public HaikuFuture<StreamDelta> fetchStreamDelta(StreamMode mode, StreamPage.Cursor since,
+                                                     int pageSize) {
+        HaikuFuture<StreamDelta> future = new HaikuFuture<StreamDelta>();
+        future.setRequest(fetchStreamDelta(mode, since, pageSize, future.listener(),
+                future.errorListener()));
+        return future;
+    }
+
+    private RequestScope.Member fetchStreamDelta(final StreamMode mode,
+                                                 final StreamPage.Cursor since,
+                                                 final int pageSize,
+                                                 final Response.Listener<StreamDelta> listener,
+                                                 Response.ErrorListener errorListener) {
+        StringBuilder query = new StringBuilder("?")
+                .append(PARAM_LIMIT).append('=').append(pageSize);
+        if (mode == StreamMode.FRIENDS) {
+            query.append('&').append(FILTER_CIRCLES);
+        }
+        query.append('&').append(since.toSinceQuery());
+        return addGet(
+                HaikuCodecs.HAIKU_LIST,
+                Constants.SERVER_URL + LIST_HAIKUS + query,
+                LIST_HAIKUS,
+                true,
+                null,
+                new Response.Listener<List<Haiku>>() {
+                    @Override
+                    public void onResponse(List<Haiku> data) {
+                        List<Haiku> haikus = data != null ? data : new ArrayList<Haiku>();
+                        listener.onResponse(
+                                new StreamDelta(mode, since, haikus, haikus.size() < pageSize));
+                    }
+                },
+                errorListener
+        );
     }
 
     /**
@@ -217,12 +508,7 @@ public class HaikuClient {
      * @param listener the object to be called when the call completes.
      */
     public void fetchCurrentUser(final HaikuServiceListener listener) {
-        RequestQueue rq = mVolley.getRequestQueue();
-        HaikuApiRequest<User> userGet = new HaikuApiRequest<User>(
-                (new TypeToken<User>() {
-                }),
-                Request.Method.GET,
-                Constants.SERVER_URL + GET_USER,
+        fetchCurrentUser(
                 new Response.Listener<User>() {
                     @Override
                     public void onResponse(User data) {
@@ -238,12 +524,32 @@ public class HaikuClient {
                             listener.onUserRetrieved(null);
                         }
                     }
-                },
-                true
+                }
+        );
+    }
+
+    /**
+     * Retrieve the currently signed in user from the API.
+     *
+     * @return the user; fails with the {@link VolleyError} if the user is not signed in.
+     */
+    public HaikuFuture<User> fetchCurrentUser() {
+        HaikuFuture<User> future = new HaikuFuture<User>();
+        future.setRequest(fetchCurrentUser(future.listener(), future.errorListener()));
+        return future;
+    }
+
+    private RequestScope.Member fetchCurrentUser(Response.Listener<User> listener,
+                                                 Response.ErrorListener errorListener) {
+        return addGet(
+                HaikuCodecs.USER,
+                Constants.SERVER_URL + GET_USER,
+                GET_USER,
+                false,
+                CachePolicy.USER,
+                listener,
+                errorListener
         );
-        userGet.setSession(mHaikuSession);
-        userGet.setTag(GET_USER);
-        rq.add(userGet);
     }
 
     /**
@@ -253,69 +559,200 @@ public class HaikuClient {
      * @param listener and object to call when the request is complete.
      */
     public void writeHaiku(final Haiku haiku, final HaikuServiceListener listener) {
-        RequestQueue rq = mVolley.getRequestQueue();
-        HaikuApiRequest<Haiku> haikuPost = new HaikuApiRequest<Haiku>(
-                (new TypeToken<Haiku>() {
-                }),
-                Request.Method.POST,
-                Constants.SERVER_URL + POST_HAIKU,
-                new Response.Listener<Haiku>() {
-                    @Override
-                    public void onResponse(Haiku data) {
-                        listener.onHaikuWritten(data);
-                    }
-                },
-                new Response.ErrorListener() {
-                    @Override
-                    public void onErrorResponse(VolleyError volleyError) {
-                        Log.d(TAG, "Write Haiku error: " + volleyError.getMessage());
-                        if (listener != null) {
-                            listener.onHaikuWritten(null);
-                        }
-                    }
-                },
-                true
-        );
-        haikuPost.setSession(mHaikuSession);
-        haikuPost.setTag(POST_HAIKU);
-        haikuPost.setBody(haiku);
-        rq.add(haikuPost);
+        mOutbox.add(this, POST_HAIKU, haiku, listener == null ? null : new Outbox.Callback() {
+            @Override
+            public void onSent(Haiku data) {
+                listener.onHaikuWritten(data);
+            }
+
+            @Override
+            public void onQueued() {
+                listener.onHaikuQueued(haiku);
+            }
+
+            @Override
+            public void onRejected(VolleyError volleyError) {
+                listener.onHaikuWritten(null);
+            }
+        });
     }
 
     /**
-     * Add a vote for a haiku. Requires that the user is authenticated.
+     * Write a haiku to the API. Requires that the user is authenticated.
+     *
+     * @param haiku the haiku to write
+     * @return the haiku as stored by the server, or as given if it was queued to send once
+     *         back online.
+     */
+    public HaikuFuture<Haiku> writeHaiku(final Haiku haiku) {
+        final HaikuFuture<Haiku> future = new HaikuFuture<Haiku>();
+        mOutbox.add(this, POST_HAIKU, haiku, new Outbox.Callback() {
+            @Override
+            public void onSent(Haiku data) {
+                future.set(data);
+            }
+
+            @Override
+            public void onQueued() {
+                future.set(haiku);
+            }
+
+            @Override
+            public void onRejected(VolleyError volleyError) {
+                future.setException(volleyError);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Send any writes left in the offline outbox, oldest first. They are also sent whenever
+     * connectivity returns.
+     */
+    public void replayOutbox() {
+        mOutbox.replay(this);
+    }
+
+    /**
+     * Add a vote for a haiku. Requires that the user is authenticated. Votes are sent after a
+     * short delay, together with any others made in the meantime, and the listener is called
+     * once for all the votes for the haiku sent at the same time.
      *
      * @param haiku the haiku to vote for.
      * @param listener and object to call when the request is complete.
      */
     public void writeHaikuVote(final Haiku haiku, final HaikuServiceListener listener) {
+        sVoteQueue.add(this, haiku, listener);
+    }
+
+    /**
+     * Add a vote for a haiku, see {@link #writeHaikuVote(Haiku, HaikuServiceListener)}.
+     *
+     * @param haiku the haiku to vote for.
+     * @return the haiku with the vote counted, or as given if the vote could not be sent yet.
+     */
+    public HaikuFuture<Haiku> writeHaikuVote(Haiku haiku) {
+        final HaikuFuture<Haiku> future = new HaikuFuture<Haiku>();
+        sVoteQueue.add(this, haiku, new ServiceListenerAdapter() {
+            @Override
+            public void onVoteWritten(Haiku haiku) {
+                future.set(haiku);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Send any votes waiting in the write-behind queue immediately, for example when the app
+     * is leaving the foreground. Must be called on the main thread.
+     */
+    public static void flushVotes() {
+        sVoteQueue.flush();
+    }
+
+    /**
+     * Send the votes for a haiku that were queued together. The API records one vote per
+     * request, so each is its own write; the queue only saves waking the radio for every tap.
+     *
+     * @param haiku the haiku to vote for.
+     * @param count the number of votes.
+     * @param listeners the objects to call once every vote has been written or queued.
+     */
+    void sendVotes(Haiku haiku, int count, List<HaikuServiceListener> listeners) {
         String path = VOTE_HAIKU.replace("{haiku_id}", haiku.id);
-        RequestQueue rq = mVolley.getRequestQueue();
-        HaikuApiRequest<Haiku> haikuPost = new HaikuApiRequest<Haiku>(
-                (new TypeToken<Haiku>() {
-                }),
+        VoteBatch batch = new VoteBatch(haiku, count, listeners);
+        for (int i = 0; i < count; i++) {
+            mOutbox.add(this, path, null, batch);
+        }
+    }
+
+    /**
+     * Collects the outcomes of a batch of votes, telling the listeners once when all are in.
+     */
+    private static class VoteBatch implements Outbox.Callback {
+        private final List<HaikuServiceListener> mListeners;
+        private Haiku mLatest;
+        private int mRemaining;
+
+        public VoteBatch(Haiku haiku, int count, List<HaikuServiceListener> listeners) {
+            mLatest = haiku;
+            mRemaining = count;
+            mListeners = listeners;
+        }
+
+        @Override
+        public void onSent(Haiku haiku) {
+            // Responses can arrive out of order; the highest count is the most recent.
+            if (haiku != null && (mLatest == null || haiku.votes >= mLatest.votes)) {
+                mLatest = haiku;
+            }
+            done();
+        }
+
+        @Override
+        public void onQueued() {
+            // The vote is already shown, it will be sent when we are back online.
+            done();
+        }
+
+        @Override
+        public void onRejected(VolleyError volleyError) {
+            done();
+        }
+
+        private void done() {
+            if (--mRemaining == 0) {
+                for (HaikuServiceListener listener : mListeners) {
+                    listener.onVoteWritten(mLatest);
+                }
+            }
+        }
+    }
+
+    /**
+     * Send a write from the outbox.
+     *
+     * @param path the API path, relative to the server URL.
+     * @param body the haiku to send, or null for an empty body.
+     * @param idempotencyKey identifies the write across retries and replays.
+     * @param listener the object to be called with the response.
+     * @param errorListener the object to be called if the request fails.
+     */
+    void postRecord(String path, Haiku body, String idempotencyKey,
+                    final Response.Listener<Haiku> listener,
+                    Response.ErrorListener errorListener) {
+        HaikuApiRequest<Haiku> post = new HaikuApiRequest<Haiku>(
+                HaikuCodecs.HAIKU,
                 Request.Method.POST,
                 Constants.SERVER_URL + path,
                 new Response.Listener<Haiku>() {
                     @Override
-                    public void onResponse(Haiku data) {
-                        listener.onVoteWritten(data);
-                    }
-                },
-                new Response.ErrorListener() {
-                    @Override
-                    public void onErrorResponse(VolleyError volleyError) {
-                        Log.d(TAG, "Write Haiku error: " + volleyError.getMessage());
-                        if (listener != null) {
-                            listener.onVoteWritten(haiku);
-                        }
+                    public void onResponse(Haiku haiku) {
+                        // New haikus and votes change the stream pages and the haiku itself,
+                        // which would otherwise be served from the cache for minutes.
+                        mVolley.invalidateCache(Constants.SERVER_URL + LIST_HAIKUS);
+                        listener.onResponse(haiku);
                     }
                 },
+                errorListener,
                 true
         );
-        haikuPost.setSession(mHaikuSession);
-        haikuPost.setTag(POST_HAIKU);
-        rq.add(haikuPost);
+        post.setSession(mHaikuSession);
+        post.setTag(POST_HAIKU);
+        post.setIdempotencyKey(idempotencyKey);
+        post.setAuthCoordinator(mAuth);
+        if (body != null) {
+            post.setCompressBody(true);
+            post.setBody(body);
+        }
+        mVolley.getRequestQueue().add(post);
+    }
+
+    /**
+     * Get the account the client is acting for, or null if it is not known.
+     */
+    String getAccountName() {
+        return mHaikuSession != null ? mHaikuSession.getAccountName() : null;
     }
 
     /**
@@ -324,29 +761,18 @@ public class HaikuClient {
      * @param listener and object to call when the request is complete.
      */
     public void signOut(final HaikuServiceListener listener) {
-        RequestQueue rq = mVolley.getRequestQueue();
-        HaikuApiRequest<Object> signoutPost = new HaikuApiRequest<Object>(
-                (new TypeToken<Object>() {
-                }),
-                Request.Method.POST,
-                Constants.SERVER_URL + USER_SIGNOUT,
-                new Response.Listener<Object>() {
-                    @Override
-                    public void onResponse(Object data) {
-                        listener.onSignedOut();
-                    }
-                },
-                new Response.ErrorListener() {
-                    @Override
-                    public void onErrorResponse(VolleyError volleyError) {
-                        listener.onSignedOut();
-                    }
-                },
-                false
-        );
-        signoutPost.setTag(USER_SIGNOUT);
-        signoutPost.setSession(mHaikuSession);
-        rq.add(signoutPost);
+        endSession(USER_SIGNOUT, signedOutListener(listener), signedOutErrorListener(listener));
+    }
+
+    /**
+     * End the user session with the server.
+     *
+     * @return completes once the server has ended the session.
+     */
+    public HaikuFuture<Void> signOut() {
+        HaikuFuture<Void> future = new HaikuFuture<Void>();
+        endSession(USER_SIGNOUT, voidListener(future), future.errorListener());
+        return future;
     }
 
     /**
@@ -355,29 +781,176 @@ public class HaikuClient {
      * @param listener and object to call when the request is complete.
      */
     public void disconnect(final HaikuServiceListener listener) {
+        endSession(USER_DISCONNECT, signedOutListener(listener),
+                signedOutErrorListener(listener));
+    }
+
+    /**
+     * Sign the user out on the server, but also revoke access.
+     *
+     * @return completes once the server has ended the session and revoked access.
+     */
+    public HaikuFuture<Void> disconnect() {
+        HaikuFuture<Void> future = new HaikuFuture<Void>();
+        endSession(USER_DISCONNECT, voidListener(future), future.errorListener());
+        return future;
+    }
+
+    /**
+     * Send a request that ends the user session.
+     *
+     * @param path the API path, which is also used as the tag.
+     * @param listener the object to be called with the response.
+     * @param errorListener the object to be called if the request fails.
+     */
+    private void endSession(String path, Response.Listener<Object> listener,
+                            Response.ErrorListener errorListener) {
+        // Queued votes belong to the session that is about to end.
+        sVoteQueue.flush();
         RequestQueue rq = mVolley.getRequestQueue();
-        HaikuApiRequest<Object> disconnectPost = new HaikuApiRequest<Object>(
-                (new TypeToken<Object>() {
-                }),
+        HaikuApiRequest<Object> post = new HaikuApiRequest<Object>(
+                HaikuCodecs.OBJECT,
                 Request.Method.POST,
-                Constants.SERVER_URL + USER_DISCONNECT,
-                new Response.Listener<Object>() {
-                    @Override
-                    public void onResponse(Object data) {
-                        listener.onSignedOut();
-                    }
-                },
-                new Response.ErrorListener() {
-                    @Override
-                    public void onErrorResponse(VolleyError volleyError) {
-                        listener.onSignedOut();
-                    }
-                },
+                Constants.SERVER_URL + path,
+                listener,
+                errorListener,
                 false
         );
-        disconnectPost.setTag(USER_DISCONNECT);
-        disconnectPost.setSession(mHaikuSession);
-        rq.add(disconnectPost);
+        post.setTag(path);
+        post.setSession(mHaikuSession);
+        rq.add(post);
+    }
+
+    private static Response.Listener<Object> signedOutListener(
+            final HaikuServiceListener listener) {
+        return new Response.Listener<Object>() {
+            @Override
+            public void onResponse(Object data) {
+                listener.onSignedOut();
+            }
+        };
+    }
+
+    private static Response.ErrorListener signedOutErrorListener(
+            final HaikuServiceListener listener) {
+        return new Response.ErrorListener() {
+            @Override
+            public void onErrorResponse(VolleyError volleyError) {
+                listener.onSignedOut();
+            }
+        };
+    }
+
+    private static Response.Listener<Object> voidListener(final HaikuFuture<Void> future) {
+        return new Response.Listener<Object>() {
+            @Override
+            public void onResponse(Object data) {
+                future.set(null);
+            }
+        };
+    }
+
+    /**
+     * Issue a GET request to the API. If an identical request for the same session is already
+     * in flight, no new request is made and the listeners receive its result instead. The
+     * listeners are tracked in this client's scope, if it has one.
+     *
+     * @param type the type of the response.
+     * @param url the full URL to fetch.
+     * @param tag the tag for the Volley request.
+     * @param conditional whether to revalidate the previous response, see
+     *                    {@link HaikuApiRequest#setConditional(boolean)}.
+     * @param policy the client-side cache policy for the endpoint, or null to follow the
+     *               server's caching headers.
+     * @param listener the object to be called with the response.
+     * @param errorListener the object to be called if the request fails.
+     * @return the registration, which can be cancelled to withdraw the listeners.
+     */
+    private <T> RequestCoalescer.Waiter addGet(TypeToken<T> type, String url, String tag,
+                                               boolean conditional, CachePolicy policy,
+                                               Response.Listener<T> listener,
+                                               Response.ErrorListener errorListener) {
+        return addGet(type, url, tag, conditional, policy, Request.Priority.NORMAL, listener,
+                errorListener);
+    }
+
+    /**
+     * Issue a GET request to the API at the given priority, see
+     * {@link #addGet(TypeToken, String, String, boolean, CachePolicy, Response.Listener,
+     * Response.ErrorListener)}. A request joining one already in flight keeps that request's
+     * priority.
+     */
+    private <T> RequestCoalescer.Waiter addGet(TypeToken<T> type, String url, String tag,
+                                               boolean conditional, CachePolicy policy,
+                                               Request.Priority priority,
+                                               Response.Listener<T> listener,
+                                               Response.ErrorListener errorListener) {
+        String key = getCoalescingKey(Request.Method.GET, url);
+        RequestCoalescer.Waiter waiter = sCoalescer.register(key, listener, errorListener);
+        if (mScope != null) {
+            mScope.add(waiter);
+        }
+        if (!waiter.isFirst()) {
+            Log.d(TAG, "Joined in-flight request for " + url);
+            return waiter;
+        }
+        RequestCoalescer.FanOut<T> fanOut = sCoalescer.fanOut(key);
+        HaikuApiRequest<T> get = new HaikuApiRequest<T>(
+                type,
+                Request.Method.GET,
+                url,
+                fanOut,
+                fanOut,
+                true
+        );
+        get.setTag(tag);
+        get.setConditional(conditional);
+        get.setCachePolicy(policy);
+        get.setPriority(priority);
+        get.setAuthCoordinator(mAuth);
+        if (mHaikuSession != null) {
+            get.setSession(mHaikuSession);
+        }
+        fanOut.setRequest(get);
+        mVolley.getRequestQueue().add(get);
+        return waiter;
+    }
+
+    /**
+     * Build the key identifying equivalent requests. Requests only match if they would be sent
+     * with the same credentials, so a request carrying a fresh auth code is never merged into
+     * one that was sent without it.
+     *
+     * @param method the HTTP method.
+     * @param url the full URL.
+     * @return key
+     */
+    private String getCoalescingKey(int method, String url) {
+        StringBuilder key = new StringBuilder().append(method).append(' ').append(url);
+        if (mHaikuSession != null) {
+            key.append(' ').append(mHaikuSession.getSessionId())
+                    .append(' ').append(mHaikuSession.getCode() != null);
+        }
+        return key.toString();
+    }
+
+    /**
+     * Get latency, error and traffic metrics for each API endpoint used so far in this process.
+     *
+     * @return snapshots keyed by endpoint, for example "GET /api/haikus".
+     */
+    public static Map<String, HaikuMetrics.EndpointSnapshot> getMetrics() {
+        return HaikuMetrics.snapshot();
+    }
+
+    /**
+     * Get the number of requests that were served by sharing an identical in-flight request
+     * rather than going to the network.
+     *
+     * @return count of requests saved.
+     */
+    public static int getCoalescedRequestCount() {
+        return sCoalescer.getSavedCount();
     }
 
     /**
@@ -393,4 +966,29 @@ public class HaikuClient {
         }
         return error.networkResponse.headers.get(HaikuApiRequest.HEADER_HAIKU);
     }
+
+    /**
+     * A service listener that ignores every callback, for overriding just the one needed.
+     */
+    private static class ServiceListenerAdapter implements HaikuServiceListener {
+        @Override
+        public void onUserRetrieved(User user) {
+        }
+
+        @Override
+        public void onHaikuWritten(Haiku haiku) {
+        }
+
+        @Override
+        public void onHaikuQueued(Haiku haiku) {
+        }
+
+        @Override
+        public void onVoteWritten(Haiku haiku) {
+        }
+
+        @Override
+        public void onSignedOut() {
+        }
+    }
 }
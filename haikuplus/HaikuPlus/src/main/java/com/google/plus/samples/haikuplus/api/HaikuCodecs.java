@@ -0,0 +1,89 @@
+/* Copyright (C) 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.plus.samples.haikuplus.api;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.reflect.TypeToken;
+import com.google.plus.samples.haikuplus.models.Haiku;
+import com.google.plus.samples.haikuplus.models.User;
+
+import android.util.Log;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Application-wide registry of the types and Gson configuration used to talk to the Haiku+ API.
+ * Gson instances are thread safe and cache their adapters, so a single instance is shared by
+ * every request rather than being rebuilt per call.
+ */
+public class HaikuCodecs {
+    public static final TypeToken<Haiku> HAIKU = new TypeToken<Haiku>() {
+    };
+    public static final TypeToken<List<Haiku>> HAIKU_LIST = new TypeToken<List<Haiku>>() {
+    };
+    public static final TypeToken<User> USER = new TypeToken<User>() {
+    };
+    public static final TypeToken<Object> OBJECT = new TypeToken<Object>() {
+    };
+
+    private static final String TAG = "HaikuPlus-HaikuCodecs";
+    private static final String WARM_UP_JSON = "[{\"id\":\"\",\"author\":{\"id\":\"\","
+            + "\"last_updated\":\"2014-01-01T00:00:00+0000\"},\"votes\":0,"
+            + "\"creation_time\":\"2014-01-01T00:00:00+0000\"}]";
+
+    private static final Gson sGson = new GsonBuilder()
+            .registerTypeAdapterFactory(new HaikuTypeAdapterFactory())
+            .create();
+    private static final AtomicBoolean sWarmedUp = new AtomicBoolean(false);
+
+    private HaikuCodecs() {
+    }
+
+    /**
+     * Retrieve the shared Gson instance configured for the API.
+     *
+     * @return Gson
+     */
+    public static Gson getGson() {
+        return sGson;
+    }
+
+    /**
+     * Resolve the adapters for all API types and run them over a small document on a
+     * background thread, so the first real response doesn't pay for class loading and date
+     * format setup on a network thread. Only the first call has any effect.
+     */
+    public static void warmUp() {
+        if (!sWarmedUp.compareAndSet(false, true)) {
+            return;
+        }
+        Thread warmUp = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                sGson.getAdapter(USER);
+                sGson.getAdapter(HAIKU);
+                sGson.getAdapter(OBJECT);
+                List<Haiku> sample = sGson.fromJson(WARM_UP_JSON, HAIKU_LIST.getType());
+                sGson.toJson(sample, HAIKU_LIST.getType());
+                Log.d(TAG, "Codecs warmed up");
+            }
+        }, TAG);
+        warmUp.setPriority(Thread.MIN_PRIORITY);
+        warmUp.start();
+    }
+}
@@ -0,0 +1,474 @@
+/* Copyright (C) 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.plus.samples.haikuplus.api;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import com.android.volley.Response;
+import com.android.volley.VolleyError;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The eventual result of a call to the Haiku+ API, which can be combined with others: run
+ * several in parallel with {@link #allOf(HaikuFuture[])}, chain them with
+ * {@link #then(Transform)} and {@link #thenCompose(AsyncTransform)}, bound them with
+ * {@link #withTimeout(long)} and recover with {@link #orElse(Object)}.
+ *
+ * A future completes once. Callbacks run on the main thread unless another executor is given;
+ * transforms run wherever the future they follow completed, which for API calls is also the
+ * main thread. A future can also be created and completed directly, to adapt a listener.
+ *
+ * @param <T> the type of the result.
+ */
+public class HaikuFuture<T> implements Future<T> {
+    /**
+     * Runs tasks on the main thread, straight away if already on it.
+     */
+    public static final Executor MAIN_THREAD = new Executor() {
+        @Override
+        public void execute(Runnable task) {
+            if (Looper.myLooper() == Looper.getMainLooper()) {
+                task.run();
+            } else {
+                getMainHandler().post(task);
+            }
+        }
+    };
+
+    /**
+     * Runs tasks on whichever thread completes the future.
+     */
+    public static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable task) {
+            task.run();
+        }
+    };
+
+    private static Handler sMainHandler;
+
+    private final List<Runnable> mListeners = new ArrayList<Runnable>();
+    private boolean mDone;
+    private boolean mCancelled;
+    private T mResult;
+    private Throwable mError;
+    private RequestScope.Member mRequest;
+
+    /**
+     * Called when a future completes.
+     */
+    public interface Callback<T> {
+        public void onSuccess(T result);
+
+        /**
+         * @param error the failure; a {@link VolleyError} for a failed request, a
+         *              {@link TimeoutException} or a {@link CancellationException}.
+         */
+        public void onFailure(Throwable error);
+    }
+
+    /**
+     * Converts the result of one future into the result of the next.
+     */
+    public interface Transform<A, B> {
+        public B apply(A input) throws Exception;
+    }
+
+    /**
+     * Starts the next call from the result of the previous one.
+     */
+    public interface AsyncTransform<A, B> {
+        public HaikuFuture<B> apply(A input) throws Exception;
+    }
+
+    /**
+     * Create a future to be completed with {@link #set(Object)} or
+     * {@link #setException(Throwable)}.
+     */
+    public HaikuFuture() {
+    }
+
+    /**
+     * Get a future that has already succeeded.
+     */
+    public static <T> HaikuFuture<T> immediate(T result) {
+        HaikuFuture<T> future = new HaikuFuture<T>();
+        future.set(result);
+        return future;
+    }
+
+    /**
+     * Get a future that has already failed.
+     */
+    public static <T> HaikuFuture<T> failed(Throwable error) {
+        HaikuFuture<T> future = new HaikuFuture<T>();
+        future.setException(error);
+        return future;
+    }
+
+    /**
+     * Get a future that succeeds once all of the given futures have, with their results in the
+     * same order, or fails as soon as any of them fails.
+     *
+     * @param futures the futures to wait for.
+     */
+    public static HaikuFuture<List<Object>> allOf(HaikuFuture<?>... futures) {
+        final HaikuFuture<List<Object>> all = new HaikuFuture<List<Object>>();
+        if (futures.length == 0) {
+            all.set(Collections.emptyList());
+            return all;
+        }
+        final Object[] results = new Object[futures.length];
+        final AtomicInteger remaining = new AtomicInteger(futures.length);
+        for (int i = 0; i < futures.length; i++) {
+            final int index = i;
+            futures[i].addCallback(new Callback<Object>() {
+                @Override
+                public void onSuccess(Object result) {
+                    results[index] = result;
+                    if (remaining.decrementAndGet() == 0) {
+                        all.set(Arrays.asList(results));
+                    }
+                }
+
+                @Override
+                public void onFailure(Throwable error) {
+                    all.setException(error);
+                }
+            }, DIRECT);
+        }
+        return all;
+    }
+
+    /**
+     * Complete this future successfully.
+     *
+     * @return false if it had already completed.
+     */
+    public boolean set(T result) {
+        return complete(result, null, false);
+    }
+
+    /**
+     * Complete this future with a failure.
+     *
+     * @return false if it had already completed.
+     */
+    public boolean setException(Throwable error) {
+        return complete(null, error, false);
+    }
+
+    /**
+     * Call back once this future completes, on the main thread.
+     */
+    public void addCallback(Callback<? super T> callback) {
+        addCallback(callback, MAIN_THREAD);
+    }
+
+    /**
+     * Call back once this future completes.
+     *
+     * @param callback the object to call.
+     * @param executor where to run the callback, such as {@link #MAIN_THREAD} or
+     *                 {@link #DIRECT}.
+     */
+    public void addCallback(final Callback<? super T> callback, final Executor executor) {
+        Runnable listener = new Runnable() {
+            @Override
+            public void run() {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (mError != null) {
+                            callback.onFailure(mError);
+                        } else {
+                            callback.onSuccess(mResult);
+                        }
+                    }
+                });
+            }
+        };
+        synchronized (this) {
+            if (!mDone) {
+                mListeners.add(listener);
+                return;
+            }
+        }
+        listener.run();
+    }
+
+    /**
+     * Get a future for the result of applying a transform to this one's result. A failure is
+     * passed on without calling the transform, as is an exception thrown by it.
+     */
+    public <R> HaikuFuture<R> then(Transform<? super T, ? extends R> transform) {
+        return then(transform, DIRECT);
+    }
+
+    /**
+     * Get a future for the result of applying a transform to this one's result, running the
+     * transform on the given executor.
+     */
+    public <R> HaikuFuture<R> then(final Transform<? super T, ? extends R> transform,
+                                   Executor executor) {
+        final HaikuFuture<R> next = new HaikuFuture<R>();
+        addCallback(new Callback<T>() {
+            @Override
+            public void onSuccess(T result) {
+                try {
+                    next.set(transform.apply(result));
+                } catch (Exception e) {
+                    next.setException(e);
+                }
+            }
+
+            @Override
+            public void onFailure(Throwable error) {
+                next.setException(error);
+            }
+        }, executor);
+        return next;
+    }
+
+    /**
+     * Get a future for the call started from this one's result, for chaining requests that
+     * depend on each other.
+     */
+    public <R> HaikuFuture<R> thenCompose(final AsyncTransform<? super T, R> transform) {
+        final HaikuFuture<R> next = new HaikuFuture<R>();
+        addCallback(new Callback<T>() {
+            @Override
+            public void onSuccess(T result) {
+                try {
+                    transform.apply(result).addCallback(new Callback<R>() {
+                        @Override
+                        public void onSuccess(R result) {
+                            next.set(result);
+                        }
+
+                        @Override
+                        public void onFailure(Throwable error) {
+                            next.setException(error);
+                        }
+                    }, DIRECT);
+                } catch (Exception e) {
+                    next.setException(e);
+                }
+            }
+
+            @Override
+            public void onFailure(Throwable error) {
+                next.setException(error);
+            }
+        }, DIRECT);
+        return next;
+    }
+
+    /**
+     * Get a future that succeeds with a fallback value if this one fails, other than by being
+     * cancelled.
+     */
+    public HaikuFuture<T> orElse(final T fallback) {
+        final HaikuFuture<T> next = new HaikuFuture<T>();
+        addCallback(new Callback<T>() {
+            @Override
+            public void onSuccess(T result) {
+                next.set(result);
+            }
+
+            @Override
+            public void onFailure(Throwable error) {
+                if (error instanceof CancellationException) {
+                    next.setException(error);
+                } else {
+                    next.set(fallback);
+                }
+            }
+        }, DIRECT);
+        return next;
+    }
+
+    /**
+     * Get a future that fails with a {@link TimeoutException} if this one has not completed
+     * within the given time. This future, and the request behind it, carry on regardless.
+     *
+     * @param timeoutMs how long to wait, in milliseconds.
+     */
+    public HaikuFuture<T> withTimeout(final long timeoutMs) {
+        final HaikuFuture<T> next = new HaikuFuture<T>();
+        final Runnable expire = new Runnable() {
+            @Override
+            public void run() {
+                next.setException(new TimeoutException("Timed out after " + timeoutMs + "ms"));
+            }
+        };
+        getMainHandler().postDelayed(expire, timeoutMs);
+        addCallback(new Callback<T>() {
+            @Override
+            public void onSuccess(T result) {
+                getMainHandler().removeCallbacks(expire);
+                next.set(result);
+            }
+
+            @Override
+            public void onFailure(Throwable error) {
+                getMainHandler().removeCallbacks(expire);
+                next.setException(error);
+            }
+        }, DIRECT);
+        return next;
+    }
+
+    /**
+     * Cancel this future, and withdraw from the request behind it if it came from
+     * {@link HaikuClient}. Futures derived from this one fail with a
+     * {@link CancellationException}.
+     *
+     * @param mayInterruptIfRunning ignored, requests are never interrupted.
+     * @return false if the future had already completed.
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        RequestScope.Member request;
+        synchronized (this) {
+            request = mRequest;
+        }
+        if (!complete(null, new CancellationException(), true)) {
+            return false;
+        }
+        if (request != null) {
+            request.cancel();
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized boolean isCancelled() {
+        return mCancelled;
+    }
+
+    @Override
+    public synchronized boolean isDone() {
+        return mDone;
+    }
+
+    /**
+     * Wait for the result. This blocks, so must not be called on the main thread, which is
+     * where API calls complete.
+     */
+    @Override
+    public synchronized T get() throws InterruptedException, ExecutionException {
+        while (!mDone) {
+            wait();
+        }
+        return getResult();
+    }
+
+    @Override
+    public synchronized T get(long timeout, TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (!mDone) {
+            long remainingNanos = deadline - System.nanoTime();
+            if (remainingNanos <= 0) {
+                throw new TimeoutException();
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remainingNanos);
+        }
+        return getResult();
+    }
+
+    /**
+     * Record the request this future is waiting on, so that cancelling it withdraws from it.
+     */
+    synchronized void setRequest(RequestScope.Member request) {
+        mRequest = request;
+    }
+
+    /**
+     * Get a Volley listener that completes this future with the response. Later responses,
+     * such as a fresh copy following a cached one, are ignored.
+     */
+    Response.Listener<T> listener() {
+        return new Response.Listener<T>() {
+            @Override
+            public void onResponse(T response) {
+                set(response);
+            }
+        };
+    }
+
+    /**
+     * Get a Volley listener that fails this future with the error.
+     */
+    Response.ErrorListener errorListener() {
+        return new Response.ErrorListener() {
+            @Override
+            public void onErrorResponse(VolleyError error) {
+                setException(error);
+            }
+        };
+    }
+
+    private T getResult() throws ExecutionException {
+        if (mCancelled) {
+            throw new CancellationException();
+        }
+        if (mError != null) {
+            throw new ExecutionException(mError);
+        }
+        return mResult;
+    }
+
+    private boolean complete(T result, Throwable error, boolean cancelled) {
+        List<Runnable> listeners;
+        synchronized (this) {
+            if (mDone) {
+                return false;
+            }
+            mResult = result;
+            mError = error;
+            mCancelled = cancelled;
+            mDone = true;
+            notifyAll();
+            listeners = new ArrayList<Runnable>(mListeners);
+            mListeners.clear();
+        }
+        for (Runnable listener : listeners) {
+            listener.run();
+        }
+        return true;
+    }
+
+    private static synchronized Handler getMainHandler() {
+        if (sMainHandler == null) {
+            sMainHandler = new Handler(Looper.getMainLooper());
+        }
+        return sMainHandler;
+    }
+}
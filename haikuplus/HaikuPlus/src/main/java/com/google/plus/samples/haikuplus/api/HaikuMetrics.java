@@ -0,0 +1,226 @@
+/* Copyright (C) 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.plus.samples.haikuplus.api;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per-endpoint request metrics for the Haiku+ API: where time goes between queueing a request
+ * and delivering its result, how often it fails, and how many bytes it moves. Endpoints are
+ * named by method and path template, for example "GET /api/haikus/{haiku_id}".
+ *
+ * Read the numbers with {@link HaikuClient#getMetrics()}.
+ */
+public class HaikuMetrics {
+    private static final ConcurrentMap<String, Recorder> sRecorders =
+            new ConcurrentHashMap<String, Recorder>();
+
+    private HaikuMetrics() {
+    }
+
+    /**
+     * Get the recorder for an endpoint, creating it on first use.
+     */
+    static Recorder forEndpoint(String endpoint) {
+        Recorder recorder = sRecorders.get(endpoint);
+        if (recorder == null) {
+            Recorder created = new Recorder();
+            recorder = sRecorders.putIfAbsent(endpoint, created);
+            if (recorder == null) {
+                recorder = created;
+            }
+        }
+        return recorder;
+    }
+
+    /**
+     * Summarise the metrics recorded so far.
+     *
+     * @return a snapshot for each endpoint that has been used, keyed by endpoint name.
+     */
+    static Map<String, EndpointSnapshot> snapshot() {
+        Map<String, EndpointSnapshot> snapshot = new HashMap<String, EndpointSnapshot>();
+        for (Map.Entry<String, Recorder> entry : sRecorders.entrySet()) {
+            snapshot.put(entry.getKey(), entry.getValue().snapshot());
+        }
+        return Collections.unmodifiableMap(snapshot);
+    }
+
+    /**
+     * Accumulates the metrics for one endpoint. Safe to use from any thread.
+     */
+    static class Recorder {
+        final LatencyHistogram queueWait = new LatencyHistogram();
+        final LatencyHistogram network = new LatencyHistogram();
+        final LatencyHistogram parse = new LatencyHistogram();
+        final LatencyHistogram delivery = new LatencyHistogram();
+        final LatencyHistogram total = new LatencyHistogram();
+        private final AtomicLong mRequests = new AtomicLong();
+        private final AtomicLong mErrors = new AtomicLong();
+        private final AtomicLong mBytesSent = new AtomicLong();
+        private final AtomicLong mBytesReceived = new AtomicLong();
+
+        void onCompleted(boolean error) {
+            mRequests.incrementAndGet();
+            if (error) {
+                mErrors.incrementAndGet();
+            }
+        }
+
+        void onBytesSent(long bytes) {
+            mBytesSent.addAndGet(bytes);
+        }
+
+        void onBytesReceived(long bytes) {
+            mBytesReceived.addAndGet(bytes);
+        }
+
+        EndpointSnapshot snapshot() {
+            return new EndpointSnapshot(mRequests.get(), mErrors.get(), mBytesSent.get(),
+                    mBytesReceived.get(), queueWait.snapshot(), network.snapshot(),
+                    parse.snapshot(), delivery.snapshot(), total.snapshot());
+        }
+    }
+
+    /**
+     * Metrics for one endpoint at the time the snapshot was taken.
+     */
+    public static class EndpointSnapshot {
+        private final long mRequests;
+        private final long mErrors;
+        private final long mBytesSent;
+        private final long mBytesReceived;
+        private final Percentiles mQueueWait;
+        private final Percentiles mNetwork;
+        private final Percentiles mParse;
+        private final Percentiles mDelivery;
+        private final Percentiles mTotal;
+
+        EndpointSnapshot(long requests, long errors, long bytesSent, long bytesReceived,
+                         Percentiles queueWait, Percentiles network, Percentiles parse,
+                         Percentiles delivery, Percentiles total) {
+            mRequests = requests;
+            mErrors = errors;
+            mBytesSent = bytesSent;
+            mBytesReceived = bytesReceived;
+            mQueueWait = queueWait;
+            mNetwork = network;
+            mParse = parse;
+            mDelivery = delivery;
+            mTotal = total;
+        }
+
+        /** Number of requests that have delivered a final result or error. */
+        public long getRequestCount() {
+            return mRequests;
+        }
+
+        public long getErrorCount() {
+            return mErrors;
+        }
+
+        /** Share of completed requests that ended in an error, from 0 to 1. */
+        public double getErrorRate() {
+            return mRequests == 0 ? 0 : (double) mErrors / mRequests;
+        }
+
+        /** Request body bytes, as sent on the wire. */
+        public long getBytesSent() {
+            return mBytesSent;
+        }
+
+        /** Response body bytes, as received on the wire, including cached responses. */
+        public long getBytesReceived() {
+            return mBytesReceived;
+        }
+
+        /** Time from queueing to the network or cache dispatcher picking the request up. */
+        public Percentiles getQueueWait() {
+            return mQueueWait;
+        }
+
+        /** Time spent on the network, including any retries. */
+        public Percentiles getNetwork() {
+            return mNetwork;
+        }
+
+        /** Time spent decoding response bodies. */
+        public Percentiles getParse() {
+            return mParse;
+        }
+
+        /** Time from parsing finishing to the listener being called on the main thread. */
+        public Percentiles getDelivery() {
+            return mDelivery;
+        }
+
+        /** Time from queueing to the listener being called. */
+        public Percentiles getTotal() {
+            return mTotal;
+        }
+
+        @Override
+        public String toString() {
+            return "requests=" + mRequests + " errors=" + mErrors + " sent=" + mBytesSent
+                    + "B received=" + mBytesReceived + "B queue=" + mQueueWait
+                    + " network=" + mNetwork + " parse=" + mParse + " delivery=" + mDelivery
+                    + " total=" + mTotal;
+        }
+    }
+
+    /**
+     * Summary of a latency histogram, in milliseconds.
+     */
+    public static class Percentiles {
+        private final long mCount;
+        private final double mP50;
+        private final double mP95;
+        private final double mP99;
+
+        Percentiles(long count, double p50, double p95, double p99) {
+            mCount = count;
+            mP50 = p50;
+            mP95 = p95;
+            mP99 = p99;
+        }
+
+        public long getCount() {
+            return mCount;
+        }
+
+        public double getP50Ms() {
+            return mP50;
+        }
+
+        public double getP95Ms() {
+            return mP95;
+        }
+
+        public double getP99Ms() {
+            return mP99;
+        }
+
+        @Override
+        public String toString() {
+            return "[n=" + mCount + " p50=" + mP50 + "ms p95=" + mP95 + "ms p99=" + mP99 + "ms]";
+        }
+    }
+}
@@ -0,0 +1,247 @@
+/* Copyright (C) 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.plus.samples.haikuplus.api;
+
+import com.google.plus.samples.haikuplus.models.Haiku;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.LruCache;
+
+import com.android.volley.VolleyError;
+import com.android.volley.toolbox.ImageLoader;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Warms the caches for haikus the user is likely to open next: the rows on screen or about to
+ * scroll on, and any row that is touched. For each row it fetches the haiku at low priority,
+ * keeping the result so that the detail screen can open with it straight away, and loads the
+ * author's picture at the size it is displayed.
+ *
+ * Only a few rows are fetched at a time. Rows waiting their turn are dropped, earliest first,
+ * once the queue is full, and rows that leave the window are cancelled. A prefetched haiku is
+ * only kept if it was fresh when delivered, and then for as long as {@link CachePolicy#HAIKU}
+ * would serve it without revalidating, after which it is fetched again. All methods must be
+ * called on the main thread.
+ */
+public class HaikuPrefetcher {
+    private static final int MAX_IN_FLIGHT = 3;
+    private static final int MAX_QUEUED = 16;
+    private static final int MAX_PREFETCHED = 64;
+
+    private static final ImageLoader.ImageListener IGNORE_IMAGE = new ImageLoader.ImageListener() {
+        @Override
+        public void onResponse(ImageLoader.ImageContainer container, boolean isImmediate) {
+        }
+
+        @Override
+        public void onErrorResponse(VolleyError error) {
+        }
+    };
+
+    private final Context mContext;
+    private final HaikuSession mSession;
+    private final VolleyContainer mVolley;
+    private final int mAvatarSize;
+    private final LinkedList<Haiku> mQueue = new LinkedList<Haiku>();
+    private final Map<String, Row> mInFlight = new HashMap<String, Row>();
+    private final LruCache<String, Prefetched> mPrefetched =
+            new LruCache<String, Prefetched>(MAX_PREFETCHED);
+
+    /**
+     * @param context
+     * @param session the session to fetch with, so responses land under the same cache key as
+     *                a normal fetch.
+     * @param avatarSize the width and height, in pixels, that author pictures are shown at.
+     */
+    public HaikuPrefetcher(Context context, HaikuSession session, int avatarSize) {
+        mContext = context;
+        mSession = session;
+        mVolley = VolleyContainer.getInstance(context);
+        mAvatarSize = avatarSize;
+    }
+
+    /**
+     * Set the rows that should be prefetched, replacing the previous window. Rows that are no
+     * longer in it are cancelled unless they were touched.
+     *
+     * @param haikus the haikus in the window, in display order.
+     */
+    public void setWindow(List<Haiku> haikus) {
+        Set<String> ids = new HashSet<String>();
+        for (Haiku haiku : haikus) {
+            ids.add(haiku.id);
+        }
+        for (Iterator<Row> it = mInFlight.values().iterator(); it.hasNext(); ) {
+            Row row = it.next();
+            if (!row.mTouched && !ids.contains(row.mId)) {
+                row.mScope.cancel();
+                it.remove();
+            }
+        }
+        mQueue.clear();
+        for (Haiku haiku : haikus) {
+            if (haiku.id != null && getFresh(haiku.id) == null
+                    && !mInFlight.containsKey(haiku.id)) {
+                mQueue.add(haiku);
+            }
+        }
+        while (mQueue.size() > MAX_QUEUED) {
+            mQueue.removeFirst();
+        }
+        startQueued();
+    }
+
+    /**
+     * Prefetch a row straight away, ahead of the queue, because the user has touched it.
+     *
+     * @param haiku the haiku in the touched row.
+     */
+    public void prefetchNow(Haiku haiku) {
+        if (haiku.id == null) {
+            return;
+        }
+        Row row = mInFlight.get(haiku.id);
+        if (row != null) {
+            row.mTouched = true;
+            return;
+        }
+        if (getFresh(haiku.id) != null) {
+            return;
+        }
+        mQueue.remove(haiku);
+        start(haiku, true);
+    }
+
+    /**
+     * Get the prefetched copy of a haiku, if it is still fresh and newer than the copy the
+     * caller already has.
+     *
+     * @param haikuId the opaque identifier for a haiku.
+     * @param newerThan the {@link SystemClock#elapsedRealtime()} at which the caller's own copy
+     *                  was loaded.
+     * @return the haiku, or null if there is no such copy.
+     */
+    public Haiku getPrefetched(String haikuId, long newerThan) {
+        Prefetched prefetched = haikuId == null ? null : getFresh(haikuId);
+        return prefetched != null && prefetched.mFetchedAt > newerThan
+                ? prefetched.mHaiku : null;
+    }
+
+    /**
+     * Drop every prefetched haiku, because the stream they were fetched for has been reloaded.
+     */
+    public void clearPrefetched() {
+        mPrefetched.evictAll();
+    }
+
+    /**
+     * Cancel everything in flight and drop the queue. Prefetched haikus are kept.
+     */
+    public void cancel() {
+        mQueue.clear();
+        for (Row row : new ArrayList<Row>(mInFlight.values())) {
+            row.mScope.cancel();
+        }
+        mInFlight.clear();
+    }
+
+    private Prefetched getFresh(String haikuId) {
+        Prefetched prefetched = mPrefetched.get(haikuId);
+        if (prefetched != null && SystemClock.elapsedRealtime() - prefetched.mFetchedAt
+                > CachePolicy.HAIKU.getSoftTtlMs()) {
+            mPrefetched.remove(haikuId);
+            return null;
+        }
+        return prefetched;
+    }
+
+    private void startQueued() {
+        while (mInFlight.size() < MAX_IN_FLIGHT && !mQueue.isEmpty()) {
+            start(mQueue.removeFirst(), false);
+        }
+    }
+
+    private void start(Haiku haiku, boolean touched) {
+        final Row row = new Row(haiku.id, touched);
+        mInFlight.put(row.mId, row);
+        HaikuClient.getInstance(mContext, mSession, row.mScope).prefetchHaiku(row.mId,
+                new HaikuApiRequest.IntermediateListener<Haiku>() {
+                    @Override
+                    public void onResponse(Haiku data) {
+                        onResponse(data, false);
+                    }
+
+                    @Override
+                    public void onResponse(Haiku data, boolean intermediate) {
+                        // A stale copy may be up to the hard TTL old, so only a fresh one is
+                        // kept; the stale one is just followed by the refresh.
+                        if (intermediate) {
+                            return;
+                        }
+                        if (data != null) {
+                            mPrefetched.put(row.mId, new Prefetched(data));
+                        }
+                        finish(row);
+                    }
+
+                    @Override
+                    public void onRefreshFailed(Haiku data) {
+                        finish(row);
+                    }
+                });
+        if (haiku.author != null && haiku.author.googlePhotoUrl != null) {
+            mVolley.getImageLoader(row.mScope)
+                    .get(AvatarUrls.forSize(haiku.author.googlePhotoUrl, mAvatarSize),
+                            IGNORE_IMAGE, mAvatarSize, mAvatarSize);
+        }
+    }
+
+    private void finish(Row row) {
+        if (mInFlight.get(row.mId) == row) {
+            mInFlight.remove(row.mId);
+            startQueued();
+        }
+    }
+
+    private static class Prefetched {
+        private final Haiku mHaiku;
+        private final long mFetchedAt = SystemClock.elapsedRealtime();
+
+        public Prefetched(Haiku haiku) {
+            mHaiku = haiku;
+        }
+    }
+
+    private static class Row {
+        private final String mId;
+        private final RequestScope mScope = new RequestScope();
+        private boolean mTouched;
+
+        public Row(String id, boolean touched) {
+            mId = id;
+            mTouched = touched;
+        }
+    }
+}
@@ -0,0 +1,257 @@
+/* Copyright (C) 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.plus.samples.haikuplus.api;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import com.google.plus.samples.haikuplus.models.Haiku;
+import com.google.plus.samples.haikuplus.models.User;
+
+import java.io.IOException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Hand-written Gson adapters for the Haiku+ models. These read and write the same field names
+ * as the {@code @SerializedName} annotations on {@link Haiku} and {@link User}, but avoid the
+ * reflective field binding Gson would otherwise set up for each type.
+ */
+class HaikuTypeAdapterFactory implements TypeAdapterFactory {
+    /** The date format used by the API. */
+    static final String DATE_FORMAT = "yyyy-MM-dd'T'HH:mm:ssZ";
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {
+        if (type.getRawType() == Date.class) {
+            return (TypeAdapter<T>) new DateAdapter().nullSafe();
+        } else if (type.getRawType() == User.class) {
+            return (TypeAdapter<T>) new UserAdapter(gson.getAdapter(Date.class)).nullSafe();
+        } else if (type.getRawType() == Haiku.class) {
+            return (TypeAdapter<T>) new HaikuAdapter(gson.getAdapter(User.class),
+                    gson.getAdapter(Date.class)).nullSafe();
+        } else if (type.equals(HaikuCodecs.HAIKU_LIST)) {
+            return (TypeAdapter<T>) new HaikuListAdapter(gson.getAdapter(Haiku.class)).nullSafe();
+        }
+        return null;
+    }
+
+    /**
+     * Read a string value, allowing for explicit nulls.
+     */
+    private static String nextStringOrNull(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        return in.nextString();
+    }
+
+    /**
+     * Adapter for the API date format. SimpleDateFormat is not thread safe and responses are
+     * parsed on several network threads at once, so access to the formats is synchronized.
+     */
+    private static class DateAdapter extends TypeAdapter<Date> {
+        private final SimpleDateFormat mFormat;
+        private final SimpleDateFormat mIsoFormat;
+
+        public DateAdapter() {
+            mFormat = new SimpleDateFormat(DATE_FORMAT, Locale.US);
+            mIsoFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'", Locale.US);
+            mIsoFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+        }
+
+        @Override
+        public void write(JsonWriter out, Date value) throws IOException {
+            String formatted;
+            synchronized (mFormat) {
+                formatted = mFormat.format(value);
+            }
+            out.value(formatted);
+        }
+
+        @Override
+        public Date read(JsonReader in) throws IOException {
+            String value = in.nextString();
+            synchronized (mFormat) {
+                try {
+                    return mFormat.parse(value);
+                } catch (ParseException ignored) {
+                    // Fall through to ISO 8601.
+                }
+                try {
+                    return mIsoFormat.parse(value);
+                } catch (ParseException e) {
+                    throw new JsonSyntaxException(value, e);
+                }
+            }
+        }
+    }
+
+    private static class UserAdapter extends TypeAdapter<User> {
+        private final TypeAdapter<Date> mDateAdapter;
+
+        public UserAdapter(TypeAdapter<Date> dateAdapter) {
+            mDateAdapter = dateAdapter;
+        }
+
+        @Override
+        public void write(JsonWriter out, User user) throws IOException {
+            out.beginObject();
+            out.name("id").value(user.id);
+            out.name("google_plus_id").value(user.googlePlusId);
+            out.name("google_display_name").value(user.googleDisplayName);
+            out.name("google_photo_url").value(user.googlePhotoUrl);
+            out.name("google_profile_url").value(user.googleProfileUrl);
+            out.name("last_updated");
+            mDateAdapter.write(out, user.lastUpdated);
+            out.endObject();
+        }
+
+        @Override
+        public User read(JsonReader in) throws IOException {
+            User user = new User();
+            in.beginObject();
+            while (in.hasNext()) {
+                String name = in.nextName();
+                if ("id".equals(name)) {
+                    user.id = nextStringOrNull(in);
+                } else if ("google_plus_id".equals(name)) {
+                    user.googlePlusId = nextStringOrNull(in);
+                } else if ("google_display_name".equals(name)) {
+                    user.googleDisplayName = nextStringOrNull(in);
+                } else if ("google_photo_url".equals(name)) {
+                    user.googlePhotoUrl = nextStringOrNull(in);
+                } else if ("google_profile_url".equals(name)) {
+                    user.googleProfileUrl = nextStringOrNull(in);
+                } else if ("last_updated".equals(name)) {
+                    user.lastUpdated = mDateAdapter.read(in);
+                } else {
+                    in.skipValue();
+                }
+            }
+            in.endObject();
+            return user;
+        }
+    }
+
+    private static class HaikuAdapter extends TypeAdapter<Haiku> {
+        private final TypeAdapter<User> mUserAdapter;
+        private final TypeAdapter<Date> mDateAdapter;
+
+        public HaikuAdapter(TypeAdapter<User> userAdapter, TypeAdapter<Date> dateAdapter) {
+            mUserAdapter = userAdapter;
+            mDateAdapter = dateAdapter;
+        }
+
+        @Override
+        public void write(JsonWriter out, Haiku haiku) throws IOException {
+            out.beginObject();
+            out.name("id").value(haiku.id);
+            out.name("author");
+            mUserAdapter.write(out, haiku.author);
+            out.name("title").value(haiku.title);
+            out.name("line_one").value(haiku.lineOne);
+            out.name("line_two").value(haiku.lineTwo);
+            out.name("line_three").value(haiku.lineThree);
+            out.name("votes").value(haiku.votes);
+            out.name("creation_time");
+            mDateAdapter.write(out, haiku.creationTime);
+            out.name("content_url").value(haiku.contentUrl);
+            out.name("content_deep_link_id").value(haiku.contentDeepLinkId);
+            out.name("call_to_action_url").value(haiku.callToActionUrl);
+            out.name("call_to_action_deep_link_id").value(haiku.callToActionDeepLinkId);
+            out.endObject();
+        }
+
+        @Override
+        public Haiku read(JsonReader in) throws IOException {
+            Haiku haiku = new Haiku();
+            in.beginObject();
+            while (in.hasNext()) {
+                String name = in.nextName();
+                if ("id".equals(name)) {
+                    haiku.id = nextStringOrNull(in);
+                } else if ("author".equals(name)) {
+                    haiku.author = mUserAdapter.read(in);
+                } else if ("title".equals(name)) {
+                    haiku.title = nextStringOrNull(in);
+                } else if ("line_one".equals(name)) {
+                    haiku.lineOne = nextStringOrNull(in);
+                } else if ("line_two".equals(name)) {
+                    haiku.lineTwo = nextStringOrNull(in);
+                } else if ("line_three".equals(name)) {
+                    haiku.lineThree = nextStringOrNull(in);
+                } else if ("votes".equals(name) && in.peek() != JsonToken.NULL) {
+                    haiku.votes = in.nextInt();
+                } else if ("creation_time".equals(name)) {
+                    haiku.creationTime = mDateAdapter.read(in);
+                } else if ("content_url".equals(name)) {
+                    haiku.contentUrl = nextStringOrNull(in);
+                } else if ("content_deep_link_id".equals(name)) {
+                    haiku.contentDeepLinkId = nextStringOrNull(in);
+                } else if ("call_to_action_url".equals(name)) {
+                    haiku.callToActionUrl = nextStringOrNull(in);
+                } else if ("call_to_action_deep_link_id".equals(name)) {
+                    haiku.callToActionDeepLinkId = nextStringOrNull(in);
+                } else {
+                    in.skipValue();
+                }
+            }
+            in.endObject();
+            return haiku;
+        }
+    }
+
+    private static class HaikuListAdapter extends TypeAdapter<List<Haiku>> {
+        private final TypeAdapter<Haiku> mHaikuAdapter;
+
+        public HaikuListAdapter(TypeAdapter<Haiku> haikuAdapter) {
+            mHaikuAdapter = haikuAdapter;
+        }
+
+        @Override
+        public void write(JsonWriter out, List<Haiku> haikus) throws IOException {
+            out.beginArray();
+            for (Haiku haiku : haikus) {
+                mHaikuAdapter.write(out, haiku);
+            }
+            out.endArray();
+        }
+
+        @Override
+        public List<Haiku> read(JsonReader in) throws IOException {
+            List<Haiku> haikus = new ArrayList<Haiku>();
+            in.beginArray();
+            while (in.hasNext()) {
+                haikus.add(mHaikuAdapter.read(in));
+            }
+            in.endArray();
+            return haikus;
+        }
+    }
+}
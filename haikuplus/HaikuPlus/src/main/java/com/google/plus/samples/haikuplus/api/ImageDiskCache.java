@@ -0,0 +1,357 @@
+/* Copyright (C) 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.plus.samples.haikuplus.api;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Disk cache of small images that have already been scaled to the size they are shown at. Each
+ * is kept as an encoded file, and a compact binary index records the keys and sizes in order
+ * of use, so that the cache can be bounded without listing or reading the files.
+ *
+ * The index is loaded on a background thread, and all writes happen there too. Reads should be
+ * run there with {@link #execute}, which keeps decoding off the main thread and means they
+ * always see the loaded index; any read before then misses.
+ */
+class ImageDiskCache {
+    private static final String TAG = "HaikuPlus-ImageDisk";
+    private static final String INDEX = "index";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final int INDEX_MAGIC = 0x48504943;
+    private static final int INDEX_VERSION = 1;
+    private static final int ENCODE_QUALITY = 90;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /** Images that encode to more than this are not stored. */
+    static final int MAX_ENTRY_BYTES = 64 * 1024;
+
+    private final File mDir;
+    private final long mMaxBytes;
+    private final ExecutorService mDisk = Executors.newSingleThreadExecutor();
+    // In access order, so iteration starts with the least recently used.
+    private final LinkedHashMap<String, Integer> mIndex =
+            new LinkedHashMap<String, Integer>(16, 0.75f, true);
+    private long mSizeBytes;
+    private boolean mLoaded;
+    private boolean mSavePending;
+
+    /**
+     * @param dir the directory to keep the images in, which this cache owns.
+     * @param maxBytes the total size of the encoded images to keep.
+     */
+    ImageDiskCache(File dir, long maxBytes) {
+        mDir = dir;
+        mMaxBytes = maxBytes;
+        mDisk.execute(new Runnable() {
+            @Override
+            public void run() {
+                load();
+            }
+        });
+    }
+
+    /**
+     * Run a task on the disk thread, after the index has loaded.
+     */
+    void execute(Runnable task) {
+        mDisk.execute(task);
+    }
+
+    /**
+     * Read an image, marking it as recently used.
+     *
+     * @param key the image cache key.
+     * @param config the config to decode the image with.
+     * @return the decoded image, or null if it is not stored.
+     */
+    Bitmap get(String key, Bitmap.Config config) {
+        synchronized (this) {
+            if (!mLoaded || mIndex.get(key) == null) {
+                return null;
+            }
+        }
+        Bitmap bitmap = read(key, config);
+        if (bitmap != null) {
+            scheduleSave();
+        }
+        return bitmap;
+    }
+
+    /**
+     * Read an image without changing the order of use.
+     *
+     * @param key the image cache key.
+     * @param config the config to decode the image with.
+     * @return the decoded image, or null if it is not stored.
+     */
+    Bitmap peek(String key, Bitmap.Config config) {
+        synchronized (this) {
+            if (!mLoaded || !mIndex.containsKey(key)) {
+                return null;
+            }
+        }
+        return read(key, config);
+    }
+
+    /**
+     * Store an image in the background. The bitmap must not be recycled afterwards.
+     *
+     * @param key the image cache key.
+     * @param bitmap the image, already scaled to the size it is shown at.
+     */
+    void put(final String key, final Bitmap bitmap) {
+        mDisk.execute(new Runnable() {
+            @Override
+            public void run() {
+                write(key, bitmap);
+            }
+        });
+    }
+
+    /**
+     * Get the stored keys, most recently used first.
+     */
+    synchronized List<String> getRecentKeys() {
+        List<String> keys = new ArrayList<String>(mIndex.keySet());
+        Collections.reverse(keys);
+        return keys;
+    }
+
+    private Bitmap read(String key, Bitmap.Config config) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inPreferredConfig = config;
+        Bitmap bitmap = BitmapFactory.decodeFile(getFile(key).getPath(), options);
+        if (bitmap == null) {
+            // Deleted from under us, or torn by the process dying while it was written.
+            remove(key);
+        }
+        return bitmap;
+    }
+
+    private void write(String key, Bitmap bitmap) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        // Avatars are photos, so lossy WebP is much smaller; PNG keeps any transparency.
+        Bitmap.CompressFormat format =
+                bitmap.hasAlpha() ? Bitmap.CompressFormat.PNG : Bitmap.CompressFormat.WEBP;
+        if (!bitmap.compress(format, ENCODE_QUALITY, bytes)
+                || bytes.size() > MAX_ENTRY_BYTES) {
+            return;
+        }
+        File file = getFile(key);
+        File temp = new File(mDir, file.getName() + TEMP_SUFFIX);
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(temp);
+            bytes.writeTo(out);
+        } catch (IOException e) {
+            Log.w(TAG, "Could not write image", e);
+            temp.delete();
+            return;
+        } finally {
+            closeQuietly(out);
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            return;
+        }
+        List<String> evicted = new ArrayList<String>();
+        synchronized (this) {
+            Integer previous = mIndex.put(key, bytes.size());
+            mSizeBytes += bytes.size() - (previous != null ? previous : 0);
+            Iterator<Map.Entry<String, Integer>> it = mIndex.entrySet().iterator();
+            while (mSizeBytes > mMaxBytes && it.hasNext()) {
+                Map.Entry<String, Integer> eldest = it.next();
+                mSizeBytes -= eldest.getValue();
+                evicted.add(eldest.getKey());
+                it.remove();
+            }
+        }
+        for (String old : evicted) {
+            getFile(old).delete();
+        }
+        scheduleSave();
+    }
+
+    private void remove(final String key) {
+        synchronized (this) {
+            Integer size = mIndex.remove(key);
+            if (size != null) {
+                mSizeBytes -= size;
+            }
+        }
+        mDisk.execute(new Runnable() {
+            @Override
+            public void run() {
+                getFile(key).delete();
+            }
+        });
+        scheduleSave();
+    }
+
+    /**
+     * Save the index once the writes and reads queued so far are done, rather than after each.
+     */
+    private void scheduleSave() {
+        synchronized (this) {
+            if (mSavePending) {
+                return;
+            }
+            mSavePending = true;
+        }
+        mDisk.execute(new Runnable() {
+            @Override
+            public void run() {
+                saveIndex();
+            }
+        });
+    }
+
+    private void saveIndex() {
+        Map<String, Integer> entries;
+        synchronized (this) {
+            mSavePending = false;
+            entries = new LinkedHashMap<String, Integer>(mIndex);
+        }
+        File index = new File(mDir, INDEX);
+        File temp = new File(mDir, INDEX + TEMP_SUFFIX);
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+            out.writeInt(INDEX_MAGIC);
+            out.writeInt(INDEX_VERSION);
+            out.writeInt(entries.size());
+            for (Map.Entry<String, Integer> entry : entries.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeInt(entry.getValue());
+            }
+            out.close();
+            out = null;
+            if (!temp.renameTo(index)) {
+                Log.w(TAG, "Could not replace image index");
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Could not write image index", e);
+        } finally {
+            closeQuietly(out);
+        }
+    }
+
+    /**
+     * Read the index, then delete any files it doesn't know about, such as those written just
+     * before the process died. If the index can't be read the cache starts empty.
+     */
+    private void load() {
+        if (!mDir.isDirectory() && !mDir.mkdirs()) {
+            Log.w(TAG, "Could not create " + mDir);
+            return;
+        }
+        LinkedHashMap<String, Integer> entries = new LinkedHashMap<String, Integer>();
+        long size = 0;
+        File index = new File(mDir, INDEX);
+        if (index.exists()) {
+            DataInputStream in = null;
+            try {
+                in = new DataInputStream(new BufferedInputStream(new FileInputStream(index)));
+                if (in.readInt() != INDEX_MAGIC || in.readInt() != INDEX_VERSION) {
+                    throw new IOException("Unknown index format");
+                }
+                for (int count = in.readInt(); count > 0; count--) {
+                    String key = in.readUTF();
+                    int bytes = in.readInt();
+                    entries.put(key, bytes);
+                    size += bytes;
+                }
+            } catch (IOException e) {
+                Log.w(TAG, "Could not read image index, starting again", e);
+                entries.clear();
+                size = 0;
+            } finally {
+                closeQuietly(in);
+            }
+        }
+        Set<String> known = new HashSet<String>();
+        for (String key : entries.keySet()) {
+            known.add(getFile(key).getName());
+        }
+        File[] files = mDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (!file.getName().equals(INDEX) && !known.contains(file.getName())) {
+                    file.delete();
+                }
+            }
+        }
+        synchronized (this) {
+            mIndex.putAll(entries);
+            mSizeBytes = size;
+            mLoaded = true;
+        }
+        Log.d(TAG, "Loaded " + entries.size() + " images, " + size + " bytes");
+    }
+
+    private File getFile(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(key.getBytes(UTF_8));
+            char[] name = new char[digest.length * 2];
+            for (int i = 0; i < digest.length; i++) {
+                name[i * 2] = HEX[(digest[i] >> 4) & 0xf];
+                name[i * 2 + 1] = HEX[digest[i] & 0xf];
+            }
+            return new File(mDir, new String(name));
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to provide MD5.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable == null) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // Nothing useful to do.
+        }
+    }
+}
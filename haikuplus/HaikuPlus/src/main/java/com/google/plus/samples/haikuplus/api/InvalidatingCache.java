@@ -0,0 +1,98 @@
+/* Copyright (C) 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.plus.samples.haikuplus.api;
+
+import com.android.volley.Cache;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Cache wrapper that lets a write expire every response it may have changed. The
+ * {@link CachePolicy} freshness overrides mean a response can be served for minutes without
+ * asking the server, so once a write succeeds, entries under the URLs it affects are treated
+ * as expired if they were cached before it. They are then fetched again, conditionally, rather
+ * than served. Nothing is read or written on disk to do this: each entry is checked when the
+ * cache thread reads it.
+ */
+class InvalidatingCache implements Cache {
+    private final Cache mDelegate;
+    private final Map<String, Long> mInvalidated = new HashMap<String, Long>();
+
+    InvalidatingCache(Cache delegate) {
+        mDelegate = delegate;
+    }
+
+    /**
+     * Expire every entry cached so far whose key starts with a prefix. May be called on any
+     * thread.
+     *
+     * @param keyPrefix the start of the keys to expire, such as the URL of a collection.
+     */
+    synchronized void invalidatePrefix(String keyPrefix) {
+        mInvalidated.put(keyPrefix, System.currentTimeMillis());
+    }
+
+    @Override
+    public Entry get(String key) {
+        Entry entry = mDelegate.get(key);
+        if (entry != null) {
+            long invalidatedAt = getInvalidatedAt(key);
+            if (invalidatedAt > 0
+                    && CachePolicy.getCachedAt(entry.responseHeaders) <= invalidatedAt) {
+                // Fully expired, so it is not shown while the fresh copy is fetched.
+                entry.softTtl = 0;
+                entry.ttl = 0;
+            }
+        }
+        return entry;
+    }
+
+    @Override
+    public void put(String key, Entry entry) {
+        mDelegate.put(key, entry);
+    }
+
+    @Override
+    public void initialize() {
+        mDelegate.initialize();
+    }
+
+    @Override
+    public void invalidate(String key, boolean fullExpire) {
+        mDelegate.invalidate(key, fullExpire);
+    }
+
+    @Override
+    public void remove(String key) {
+        mDelegate.remove(key);
+    }
+
+    @Override
+    public void clear() {
+        mDelegate.clear();
+    }
+
+    private synchronized long getInvalidatedAt(String key) {
+        long latest = 0;
+        for (Map.Entry<String, Long> invalidated : mInvalidated.entrySet()) {
+            if (key.startsWith(invalidated.getKey())) {
+                latest = Math.max(latest, invalidated.getValue());
+            }
+        }
+        return latest;
+    }
+}
@@ -0,0 +1,83 @@
+/* Copyright (C) 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.plus.samples.haikuplus.api;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed-bucket latency histogram. Recording is a bucket search over a short array and an
+ * atomic increment, so it is cheap enough to leave on in production. Percentiles are reported
+ * as the upper bound of the bucket they fall in.
+ */
+class LatencyHistogram {
+    /** Bucket upper bounds in microseconds, roughly 1-2-5 steps from 0.5ms to 30s. */
+    private static final long[] BOUNDS_US = {
+            500, 1000, 2000, 5000, 10000, 20000, 50000, 100000, 200000, 500000,
+            1000000, 2000000, 5000000, 10000000, 30000000
+    };
+
+    // One extra bucket for anything over the last bound.
+    private final AtomicLongArray mCounts = new AtomicLongArray(BOUNDS_US.length + 1);
+
+    /**
+     * Record a duration.
+     *
+     * @param nanos the duration in nanoseconds; negative values are ignored.
+     */
+    void record(long nanos) {
+        if (nanos < 0) {
+            return;
+        }
+        long micros = nanos / 1000;
+        int bucket = 0;
+        while (bucket < BOUNDS_US.length && micros > BOUNDS_US[bucket]) {
+            bucket++;
+        }
+        mCounts.incrementAndGet(bucket);
+    }
+
+    /**
+     * Take a consistent-enough copy of the histogram and summarise it.
+     *
+     * @return the percentiles.
+     */
+    HaikuMetrics.Percentiles snapshot() {
+        long[] counts = new long[mCounts.length()];
+        long total = 0;
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = mCounts.get(i);
+            total += counts[i];
+        }
+        return new HaikuMetrics.Percentiles(total, percentile(counts, total, 0.50),
+                percentile(counts, total, 0.95), percentile(counts, total, 0.99));
+    }
+
+    private static double percentile(long[] counts, long total, double fraction) {
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(total * fraction);
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                // The overflow bucket has no upper bound, so report the last one.
+                return BOUNDS_US[Math.min(i, BOUNDS_US.length - 1)] / 1000.0;
+            }
+        }
+        return BOUNDS_US[BOUNDS_US.length - 1] / 1000.0;
+    }
+}
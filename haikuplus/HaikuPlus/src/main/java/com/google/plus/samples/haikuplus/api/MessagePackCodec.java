@@ -0,0 +1,554 @@
+/* Copyright (C) 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.plus.samples.haikuplus.api;
+
+import com.google.gson.reflect.TypeToken;
+import com.google.plus.samples.haikuplus.models.Haiku;
+import com.google.plus.samples.haikuplus.models.User;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Compact binary encoding of the API types, using MessagePack. Objects are maps keyed by the
+ * same names as the JSON, so the two formats carry the same schema; dates are sent as epoch
+ * milliseconds and null fields are left out. Unknown keys are skipped, as with the JSON.
+ *
+ * Only the subset of MessagePack the API needs is written, but any well-formed value can be
+ * read past.
+ */
+public class MessagePackCodec {
+    /** Media type requested in the Accept header and returned by servers that support it. */
+    public static final String CONTENT_TYPE = "application/x-msgpack";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int BUFFER_SIZE = 8192;
+
+    private MessagePackCodec() {
+    }
+
+    /**
+     * Check whether a response type can be decoded from MessagePack.
+     *
+     * @param type the type of the response.
+     * @return true for haikus, haiku lists and users.
+     */
+    public static boolean supports(TypeToken<?> type) {
+        return HaikuCodecs.HAIKU_LIST.equals(type) || HaikuCodecs.HAIKU.equals(type)
+                || HaikuCodecs.USER.equals(type);
+    }
+
+    /**
+     * Check whether a body looks like MessagePack rather than JSON, from its first byte: API
+     * responses are always a map or an array, and neither can start with a JSON character.
+     *
+     * @param first the first byte of the body.
+     * @return true if the body should be decoded as MessagePack.
+     */
+    public static boolean isMessagePack(int first) {
+        return (first >= 0x80 && first <= 0x9f) || (first >= 0xdc && first <= 0xdf);
+    }
+
+    /**
+     * Decode a value of a supported type.
+     *
+     * @param in the encoded body, which is read to the end of the value but not closed.
+     * @param type the type to decode, see {@link #supports(TypeToken)}.
+     * @return the decoded value, or null if the body was nil.
+     * @throws IOException if the body is malformed.
+     */
+    public static Object read(InputStream in, TypeToken<?> type) throws IOException {
+        Reader reader = new Reader(in);
+        if (HaikuCodecs.HAIKU_LIST.equals(type)) {
+            return reader.readHaikuList();
+        } else if (HaikuCodecs.HAIKU.equals(type)) {
+            return reader.readHaiku();
+        } else if (HaikuCodecs.USER.equals(type)) {
+            return reader.readUser();
+        }
+        throw new IllegalArgumentException("Unsupported type " + type);
+    }
+
+    /**
+     * Encode a list of haikus.
+     *
+     * @param haikus the haikus to write.
+     * @param out the stream to write to; it is flushed but not closed.
+     * @throws IOException if the stream fails.
+     */
+    public static void writeHaikuList(List<Haiku> haikus, OutputStream out) throws IOException {
+        Writer writer = new Writer(out);
+        writer.writeHaikuList(haikus);
+        writer.flush();
+    }
+
+    /**
+     * Encode a single haiku.
+     */
+    public static void writeHaiku(Haiku haiku, OutputStream out) throws IOException {
+        Writer writer = new Writer(out);
+        writer.writeHaiku(haiku);
+        writer.flush();
+    }
+
+    /**
+     * Encode a user.
+     */
+    public static void writeUser(User user, OutputStream out) throws IOException {
+        Writer writer = new Writer(out);
+        writer.writeUser(user);
+        writer.flush();
+    }
+
+    private static class Reader {
+        private final InputStream mIn;
+        private byte[] mStringBuffer = new byte[64];
+
+        public Reader(InputStream in) {
+            mIn = in instanceof BufferedInputStream ? in : new BufferedInputStream(in, BUFFER_SIZE);
+        }
+
+        public List<Haiku> readHaikuList() throws IOException {
+            int b = readByte();
+            if (b == 0xc0) {
+                return null;
+            }
+            int size = readArrayHeader(b);
+            List<Haiku> haikus = new ArrayList<Haiku>(size);
+            for (int i = 0; i < size; i++) {
+                haikus.add(readHaiku());
+            }
+            return haikus;
+        }
+
+        public Haiku readHaiku() throws IOException {
+            int b = readByte();
+            if (b == 0xc0) {
+                return null;
+            }
+            int size = readMapHeader(b);
+            Haiku haiku = new Haiku();
+            for (int i = 0; i < size; i++) {
+                String name = readString(readByte());
+                if ("id".equals(name)) {
+                    haiku.id = readString(readByte());
+                } else if ("author".equals(name)) {
+                    haiku.author = readUser();
+                } else if ("title".equals(name)) {
+                    haiku.title = readString(readByte());
+                } else if ("line_one".equals(name)) {
+                    haiku.lineOne = readString(readByte());
+                } else if ("line_two".equals(name)) {
+                    haiku.lineTwo = readString(readByte());
+                } else if ("line_three".equals(name)) {
+                    haiku.lineThree = readString(readByte());
+                } else if ("votes".equals(name)) {
+                    haiku.votes = (int) readLong(readByte());
+                } else if ("creation_time".equals(name)) {
+                    haiku.creationTime = readDate(readByte());
+                } else if ("content_url".equals(name)) {
+                    haiku.contentUrl = readString(readByte());
+                } else if ("content_deep_link_id".equals(name)) {
+                    haiku.contentDeepLinkId = readString(readByte());
+                } else if ("call_to_action_url".equals(name)) {
+                    haiku.callToActionUrl = readString(readByte());
+                } else if ("call_to_action_deep_link_id".equals(name)) {
+                    haiku.callToActionDeepLinkId = readString(readByte());
+                } else {
+                    skipValue(readByte());
+                }
+            }
+            return haiku;
+        }
+
+        public User readUser() throws IOException {
+            int b = readByte();
+            if (b == 0xc0) {
+                return null;
+            }
+            int size = readMapHeader(b);
+            User user = new User();
+            for (int i = 0; i < size; i++) {
+                String name = readString(readByte());
+                if ("id".equals(name)) {
+                    user.id = readString(readByte());
+                } else if ("google_plus_id".equals(name)) {
+                    user.googlePlusId = readString(readByte());
+                } else if ("google_display_name".equals(name)) {
+                    user.googleDisplayName = readString(readByte());
+                } else if ("google_photo_url".equals(name)) {
+                    user.googlePhotoUrl = readString(readByte());
+                } else if ("google_profile_url".equals(name)) {
+                    user.googleProfileUrl = readString(readByte());
+                } else if ("last_updated".equals(name)) {
+                    user.lastUpdated = readDate(readByte());
+                } else {
+                    skipValue(readByte());
+                }
+            }
+            return user;
+        }
+
+        private Date readDate(int b) throws IOException {
+            return b == 0xc0 ? null : new Date(readLong(b));
+        }
+
+        private int readArrayHeader(int b) throws IOException {
+            if (b >= 0x90 && b <= 0x9f) {
+                return b & 0x0f;
+            } else if (b == 0xdc) {
+                return readUnsigned(2);
+            } else if (b == 0xdd) {
+                return readLength(4);
+            }
+            throw new IOException("Expected array, got 0x" + Integer.toHexString(b));
+        }
+
+        private int readMapHeader(int b) throws IOException {
+            if (b >= 0x80 && b <= 0x8f) {
+                return b & 0x0f;
+            } else if (b == 0xde) {
+                return readUnsigned(2);
+            } else if (b == 0xdf) {
+                return readLength(4);
+            }
+            throw new IOException("Expected map, got 0x" + Integer.toHexString(b));
+        }
+
+        private String readString(int b) throws IOException {
+            int length;
+            if (b >= 0xa0 && b <= 0xbf) {
+                length = b & 0x1f;
+            } else if (b == 0xd9) {
+                length = readUnsigned(1);
+            } else if (b == 0xda) {
+                length = readUnsigned(2);
+            } else if (b == 0xdb) {
+                length = readLength(4);
+            } else if (b == 0xc0) {
+                return null;
+            } else {
+                throw new IOException("Expected string, got 0x" + Integer.toHexString(b));
+            }
+            if (mStringBuffer.length < length) {
+                mStringBuffer = new byte[Math.max(length, mStringBuffer.length * 2)];
+            }
+            readFully(mStringBuffer, length);
+            return new String(mStringBuffer, 0, length, UTF_8);
+        }
+
+        private long readLong(int b) throws IOException {
+            if (b <= 0x7f) {
+                return b;
+            } else if (b >= 0xe0) {
+                return (byte) b;
+            }
+            switch (b) {
+                case 0xc0:
+                    return 0;
+                case 0xcc:
+                    return readUnsigned(1);
+                case 0xcd:
+                    return readUnsigned(2);
+                case 0xce:
+                    return readRaw(4);
+                case 0xcf:
+                    return readRaw(8);
+                case 0xd0:
+                    return (byte) readRaw(1);
+                case 0xd1:
+                    return (short) readRaw(2);
+                case 0xd2:
+                    return (int) readRaw(4);
+                case 0xd3:
+                    return readRaw(8);
+                default:
+                    throw new IOException("Expected integer, got 0x" + Integer.toHexString(b));
+            }
+        }
+
+        private void skipValue(int b) throws IOException {
+            if (b <= 0x7f || b >= 0xe0 || b == 0xc0 || b == 0xc2 || b == 0xc3) {
+                return;
+            } else if ((b >= 0x80 && b <= 0x8f) || b == 0xde || b == 0xdf) {
+                int size = readMapHeader(b);
+                for (int i = 0; i < size * 2; i++) {
+                    skipValue(readByte());
+                }
+            } else if ((b >= 0x90 && b <= 0x9f) || b == 0xdc || b == 0xdd) {
+                int size = readArrayHeader(b);
+                for (int i = 0; i < size; i++) {
+                    skipValue(readByte());
+                }
+            } else if ((b >= 0xa0 && b <= 0xbf) || (b >= 0xd9 && b <= 0xdb)) {
+                readString(b);
+            } else {
+                switch (b) {
+                    case 0xc4:
+                        skip(readUnsigned(1));
+                        break;
+                    case 0xc5:
+                        skip(readUnsigned(2));
+                        break;
+                    case 0xc6:
+                        skip(readLength(4));
+                        break;
+                    case 0xc7:
+                        skip(readUnsigned(1) + 1);
+                        break;
+                    case 0xc8:
+                        skip(readUnsigned(2) + 1);
+                        break;
+                    case 0xc9:
+                        skip(readLength(4) + 1);
+                        break;
+                    case 0xca:
+                        skip(4);
+                        break;
+                    case 0xcb:
+                        skip(8);
+                        break;
+                    case 0xcc:
+                    case 0xd0:
+                        skip(1);
+                        break;
+                    case 0xcd:
+                    case 0xd1:
+                        skip(2);
+                        break;
+                    case 0xce:
+                    case 0xd2:
+                        skip(4);
+                        break;
+                    case 0xcf:
+                    case 0xd3:
+                        skip(8);
+                        break;
+                    case 0xd4:
+                    case 0xd5:
+                    case 0xd6:
+                    case 0xd7:
+                    case 0xd8:
+                        // fixext: a type byte followed by 1, 2, 4, 8 or 16 bytes.
+                        skip(1 + (1 << (b - 0xd4)));
+                        break;
+                    default:
+                        throw new IOException("Invalid type 0x" + Integer.toHexString(b));
+                }
+            }
+        }
+
+        private int readLength(int bytes) throws IOException {
+            long length = readRaw(bytes);
+            if (length > Integer.MAX_VALUE) {
+                throw new IOException("Value too long: " + length);
+            }
+            return (int) length;
+        }
+
+        private int readUnsigned(int bytes) throws IOException {
+            return (int) readRaw(bytes);
+        }
+
+        private long readRaw(int bytes) throws IOException {
+            long value = 0;
+            for (int i = 0; i < bytes; i++) {
+                value = (value << 8) | readByte();
+            }
+            return value;
+        }
+
+        private int readByte() throws IOException {
+            int b = mIn.read();
+            if (b < 0) {
+                throw new EOFException();
+            }
+            return b;
+        }
+
+        private void readFully(byte[] buffer, int length) throws IOException {
+            int offset = 0;
+            while (offset < length) {
+                int read = mIn.read(buffer, offset, length - offset);
+                if (read < 0) {
+                    throw new EOFException();
+                }
+                offset += read;
+            }
+        }
+
+        private void skip(int length) throws IOException {
+            while (length > 0) {
+                long skipped = mIn.skip(length);
+                if (skipped <= 0) {
+                    readByte();
+                    skipped = 1;
+                }
+                length -= skipped;
+            }
+        }
+    }
+
+    private static class Writer {
+        private final OutputStream mOut;
+
+        public Writer(OutputStream out) {
+            mOut = new BufferedOutputStream(out, BUFFER_SIZE);
+        }
+
+        public void writeHaikuList(List<Haiku> haikus) throws IOException {
+            if (haikus == null) {
+                mOut.write(0xc0);
+                return;
+            }
+            writeHeader(haikus.size(), 0x90, 0xdc, 0xdd);
+            for (Haiku haiku : haikus) {
+                writeHaiku(haiku);
+            }
+        }
+
+        public void writeHaiku(Haiku haiku) throws IOException {
+            if (haiku == null) {
+                mOut.write(0xc0);
+                return;
+            }
+            int size = count(haiku.id, haiku.author, haiku.title, haiku.lineOne, haiku.lineTwo,
+                    haiku.lineThree, haiku.creationTime, haiku.contentUrl,
+                    haiku.contentDeepLinkId, haiku.callToActionUrl,
+                    haiku.callToActionDeepLinkId) + 1;
+            writeHeader(size, 0x80, 0xde, 0xdf);
+            writeField("id", haiku.id);
+            if (haiku.author != null) {
+                writeString("author");
+                writeUser(haiku.author);
+            }
+            writeField("title", haiku.title);
+            writeField("line_one", haiku.lineOne);
+            writeField("line_two", haiku.lineTwo);
+            writeField("line_three", haiku.lineThree);
+            writeString("votes");
+            writeLong(haiku.votes);
+            writeField("creation_time", haiku.creationTime);
+            writeField("content_url", haiku.contentUrl);
+            writeField("content_deep_link_id", haiku.contentDeepLinkId);
+            writeField("call_to_action_url", haiku.callToActionUrl);
+            writeField("call_to_action_deep_link_id", haiku.callToActionDeepLinkId);
+        }
+
+        public void writeUser(User user) throws IOException {
+            if (user == null) {
+                mOut.write(0xc0);
+                return;
+            }
+            int size = count(user.id, user.googlePlusId, user.googleDisplayName,
+                    user.googlePhotoUrl, user.googleProfileUrl, user.lastUpdated);
+            writeHeader(size, 0x80, 0xde, 0xdf);
+            writeField("id", user.id);
+            writeField("google_plus_id", user.googlePlusId);
+            writeField("google_display_name", user.googleDisplayName);
+            writeField("google_photo_url", user.googlePhotoUrl);
+            writeField("google_profile_url", user.googleProfileUrl);
+            writeField("last_updated", user.lastUpdated);
+        }
+
+        public void flush() throws IOException {
+            mOut.flush();
+        }
+
+        private static int count(Object... values) {
+            int count = 0;
+            for (Object value : values) {
+                if (value != null) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        private void writeField(String name, String value) throws IOException {
+            if (value != null) {
+                writeString(name);
+                writeString(value);
+            }
+        }
+
+        private void writeField(String name, Date value) throws IOException {
+            if (value != null) {
+                writeString(name);
+                writeLong(value.getTime());
+            }
+        }
+
+        private void writeHeader(int size, int fix, int marker16, int marker32)
+                throws IOException {
+            if (size < 16) {
+                mOut.write(fix | size);
+            } else if (size < 0x10000) {
+                mOut.write(marker16);
+                writeRaw(size, 2);
+            } else {
+                mOut.write(marker32);
+                writeRaw(size, 4);
+            }
+        }
+
+        private void writeString(String value) throws IOException {
+            byte[] bytes = value.getBytes(UTF_8);
+            int length = bytes.length;
+            if (length < 32) {
+                mOut.write(0xa0 | length);
+            } else if (length < 0x100) {
+                mOut.write(0xd9);
+                writeRaw(length, 1);
+            } else if (length < 0x10000) {
+                mOut.write(0xda);
+                writeRaw(length, 2);
+            } else {
+                mOut.write(0xdb);
+                writeRaw(length, 4);
+            }
+            mOut.write(bytes);
+        }
+
+        private void writeLong(long value) throws IOException {
+            if (value >= 0 && value <= 0x7f) {
+                mOut.write((int) value);
+            } else if (value < 0 && value >= -32) {
+                mOut.write((int) value & 0xff);
+            } else if (value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE) {
+                mOut.write(0xd2);
+                writeRaw(value, 4);
+            } else {
+                mOut.write(0xd3);
+                writeRaw(value, 8);
+            }
+        }
+
+        private void writeRaw(long value, int bytes) throws IOException {
+            for (int i = bytes - 1; i >= 0; i--) {
+                mOut.write((int) (value >>> (i * 8)) & 0xff);
+            }
+        }
+    }
+}
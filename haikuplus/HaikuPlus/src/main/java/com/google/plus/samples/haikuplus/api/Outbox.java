@@ -0,0 +1,423 @@
+/* Copyright (C) 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.plus.samples.haikuplus.api;
+
+import com.android.volley.Response;
+import com.android.volley.VolleyError;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.annotations.SerializedName;
+import com.google.plus.samples.haikuplus.models.Haiku;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Durable queue of POSTs to the API. Each write is recorded in an append-only journal before
+ * it is sent and marked as done once the server has accepted it, so writes made while offline
+ * survive the process and are replayed in order when connectivity returns. Every entry carries
+ * an idempotency key, sent with each attempt, so a replay of a write the server already
+ * applied is not applied twice.
+ *
+ * A write that fails while the device is online is retried with exponential backoff, holding
+ * up the ones behind it, and given up on after {@link #MAX_ATTEMPTS} attempts so that a write
+ * the server keeps failing cannot block the queue for good. Failures while offline are not
+ * counted; the queue simply waits for connectivity.
+ *
+ * The journal is only touched on a background thread, where it is loaded when the outbox is
+ * created; nothing is sent until it has been, and writes added before then are queued behind the
+ * ones it holds. Everything else must be called on the main thread.
+ */
+class Outbox {
+    private static final String TAG = "HaikuPlus-Outbox";
+    private static final String JOURNAL = "outbox.journal";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int MAX_ATTEMPTS = 6;
+    private static final long INITIAL_RETRY_MS = 10 * 1000;
+
+    private static Outbox sOutbox;
+
+    private final File mJournal;
+    private final Gson mGson = HaikuCodecs.getGson();
+    private final ExecutorService mDisk = Executors.newSingleThreadExecutor();
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private Map<String, Record> mPending = new LinkedHashMap<String, Record>();
+    private final Map<String, Callback> mCallbacks = new HashMap<String, Callback>();
+    private final Context mContext;
+    private HaikuClient mClient;
+    private String mInFlight;
+    private boolean mLoaded;
+    private boolean mBackingOff;
+    private final Runnable mRetry = new Runnable() {
+        @Override
+        public void run() {
+            mBackingOff = false;
+            drain();
+        }
+    };
+
+    /**
+     * Called when an entry is accepted by the server or given up on or, for the first attempt
+     * only, when it has been left in the outbox to be replayed later.
+     */
+    interface Callback {
+        public void onSent(Haiku haiku);
+        public void onQueued();
+        public void onRejected(VolleyError error);
+    }
+
+    /**
+     * Retrieve the outbox, starting to load it from disk on first use.
+     *
+     * @param context any context, the application context is retained.
+     * @return Outbox
+     */
+    static synchronized Outbox getInstance(Context context) {
+        if (sOutbox == null) {
+            sOutbox = new Outbox(context.getApplicationContext());
+        }
+        return sOutbox;
+    }
+
+    private Outbox(Context context) {
+        mContext = context;
+        mJournal = new File(context.getFilesDir(), JOURNAL);
+        mDisk.execute(new Runnable() {
+            @Override
+            public void run() {
+                final Map<String, Record> loaded = load();
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onLoaded(loaded);
+                    }
+                });
+            }
+        });
+        context.registerReceiver(new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                if (isConnected()) {
+                    // A new network is worth trying straight away.
+                    mMainHandler.removeCallbacks(mRetry);
+                    mBackingOff = false;
+                    drain();
+                }
+            }
+        }, new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION));
+    }
+
+    /**
+     * Record a write and send it once any earlier writes have gone.
+     *
+     * @param client the client to send with; the most recent one is used for replays.
+     * @param path the API path, relative to the server URL.
+     * @param haiku the request body, or null for none.
+     * @param callback the object to call with the outcome, may be null.
+     */
+    void add(HaikuClient client, String path, Haiku haiku, Callback callback) {
+        final Record record = new Record();
+        record.key = UUID.randomUUID().toString();
+        record.path = path;
+        record.account = client.getAccountName();
+        record.haiku = haiku;
+        mPending.put(record.key, record);
+        if (callback != null) {
+            mCallbacks.put(record.key, callback);
+        }
+        append(record);
+        mClient = client;
+        if (mBackingOff) {
+            // Queued behind a write that is waiting to be retried.
+            Callback waiting = mCallbacks.remove(record.key);
+            if (waiting != null) {
+                waiting.onQueued();
+            }
+            return;
+        }
+        drain();
+    }
+
+    /**
+     * Send the oldest pending write for the signed in account, if none is in flight.
+     *
+     * @param client the client to send with, or null to use the last one seen.
+     */
+    void replay(HaikuClient client) {
+        if (client != null) {
+            mClient = client;
+        }
+        drain();
+    }
+
+    /**
+     * Get the number of writes that have not yet been accepted by the server. Until the journal
+     * has loaded, only those added since are counted.
+     */
+    int getPendingCount() {
+        return mPending.size();
+    }
+
+    private void onLoaded(Map<String, Record> loaded) {
+        // The journal holds the older writes, so they go first.
+        loaded.putAll(mPending);
+        mPending = loaded;
+        mLoaded = true;
+        drain();
+    }
+
+    private void drain() {
+        if (!mLoaded || mBackingOff || mInFlight != null || mClient == null) {
+            return;
+        }
+        String account = mClient.getAccountName();
+        Record next = null;
+        for (Record record : mPending.values()) {
+            // Writes are only ever replayed as the user who made them.
+            if (account != null && account.equals(record.account)) {
+                next = record;
+                break;
+            }
+        }
+        if (next == null) {
+            return;
+        }
+        final Record record = next;
+        mInFlight = record.key;
+        mClient.postRecord(record.path, record.haiku, record.key,
+                new Response.Listener<Haiku>() {
+                    @Override
+                    public void onResponse(Haiku haiku) {
+                        finish(record);
+                        Callback callback = mCallbacks.remove(record.key);
+                        if (callback != null) {
+                            callback.onSent(haiku);
+                        }
+                        drain();
+                    }
+                },
+                new Response.ErrorListener() {
+                    @Override
+                    public void onErrorResponse(VolleyError error) {
+                        mInFlight = null;
+                        if (isRetryable(error) && !giveUp(record)) {
+                            // Leave it at the head of the queue to be tried again.
+                            Log.d(TAG, "Write deferred: " + error.getMessage());
+                            // Everything behind it waits too.
+                            List<Callback> waiting = new ArrayList<Callback>(mCallbacks.values());
+                            mCallbacks.clear();
+                            for (Callback callback : waiting) {
+                                callback.onQueued();
+                            }
+                            return;
+                        }
+                        Log.e(TAG, "Write rejected: " + error.getMessage());
+                        finish(record);
+                        Callback callback = mCallbacks.remove(record.key);
+                        if (callback != null) {
+                            callback.onRejected(error);
+                        }
+                        drain();
+                    }
+                });
+    }
+
+    /**
+     * Count a failed attempt at a write, if the device was online for it, and schedule the
+     * next one.
+     *
+     * @return true if the write has run out of attempts.
+     */
+    private boolean giveUp(Record record) {
+        if (!isConnected()) {
+            // Replayed when connectivity returns.
+            return false;
+        }
+        record.attempts++;
+        if (record.attempts >= MAX_ATTEMPTS) {
+            return true;
+        }
+        append(record);
+        mBackingOff = true;
+        mMainHandler.postDelayed(mRetry, INITIAL_RETRY_MS << (record.attempts - 1));
+        return false;
+    }
+
+    private static boolean isRetryable(VolleyError error) {
+        if (error.networkResponse == null) {
+            return true;
+        }
+        int status = error.networkResponse.statusCode;
+        // Not Implemented and HTTP Version Not Supported will not change on a retry.
+        return status >= 500 && status != 501 && status != 505;
+    }
+
+    private boolean isConnected() {
+        ConnectivityManager cm =
+                (ConnectivityManager) mContext.getSystemService(Context.CONNECTIVITY_SERVICE);
+        NetworkInfo info = cm.getActiveNetworkInfo();
+        return info != null && info.isConnected();
+    }
+
+    private void finish(Record record) {
+        mInFlight = null;
+        mPending.remove(record.key);
+        Record done = new Record();
+        done.key = record.key;
+        done.done = true;
+        if (mPending.isEmpty()) {
+            truncate();
+        } else {
+            append(done);
+        }
+    }
+
+    private void append(Record record) {
+        final String line = mGson.toJson(record) + "\n";
+        mDisk.execute(new Runnable() {
+            @Override
+            public void run() {
+                write(line, true);
+            }
+        });
+    }
+
+    private void truncate() {
+        mDisk.execute(new Runnable() {
+            @Override
+            public void run() {
+                write("", false);
+            }
+        });
+    }
+
+    private void write(String data, boolean append) {
+        Writer writer = null;
+        try {
+            writer = new OutputStreamWriter(new FileOutputStream(mJournal, append), UTF_8);
+            writer.write(data);
+        } catch (IOException e) {
+            Log.e(TAG, "Could not write outbox journal", e);
+        } finally {
+            closeQuietly(writer);
+        }
+    }
+
+    /**
+     * Rebuild the pending writes from the journal, then rewrite it without the completed ones.
+     * Runs on the disk thread, ahead of any journal writes.
+     *
+     * @return the pending writes, oldest first.
+     */
+    private Map<String, Record> load() {
+        Map<String, Record> pending = new LinkedHashMap<String, Record>();
+        if (!mJournal.exists()) {
+            return pending;
+        }
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(
+                    new InputStreamReader(new FileInputStream(mJournal), UTF_8));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                Record record;
+                try {
+                    record = mGson.fromJson(line, Record.class);
+                } catch (JsonParseException e) {
+                    // A write torn by the process dying; nothing after it can be trusted.
+                    Log.e(TAG, "Corrupt outbox entry, ignoring the rest of the journal", e);
+                    break;
+                }
+                if (record == null || record.key == null) {
+                    continue;
+                }
+                if (record.done) {
+                    pending.remove(record.key);
+                } else {
+                    pending.put(record.key, record);
+                }
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Could not read outbox journal", e);
+        } finally {
+            closeQuietly(reader);
+        }
+
+        StringBuilder compacted = new StringBuilder();
+        for (Record record : pending.values()) {
+            compacted.append(mGson.toJson(record)).append('\n');
+        }
+        write(compacted.toString(), false);
+        Log.d(TAG, "Loaded " + pending.size() + " pending writes");
+        return pending;
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable == null) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // Nothing useful to do.
+        }
+    }
+
+    /**
+     * A single line of the journal: either a write to send or a marker that one is done. A write
+     * is journalled again, under the same key, each time a failed attempt is counted.
+     */
+    static class Record {
+        @SerializedName("key")
+        String key;
+        @SerializedName("path")
+        String path;
+        @SerializedName("account")
+        String account;
+        @SerializedName("haiku")
+        Haiku haiku;
+        @SerializedName("attempts")
+        int attempts;
+        @SerializedName("done")
+        boolean done;
+    }
+}
@@ -0,0 +1,67 @@
+/* Copyright (C) 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.plus.samples.haikuplus.api;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Small in-memory LRU of parsed responses along with the validators they were served with.
+ * Lets a conditional request answer a 304 with the objects that were already parsed, instead
+ * of decoding the cached body again.
+ */
+class ParsedResponseCache {
+    private static final int MAX_ENTRIES = 32;
+
+    private final Map<String, Entry> mEntries =
+            new LinkedHashMap<String, Entry>(MAX_ENTRIES, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                    return size() > MAX_ENTRIES;
+                }
+            };
+
+    public synchronized Entry get(String key) {
+        return mEntries.get(key);
+    }
+
+    public synchronized void put(String key, Entry entry) {
+        mEntries.put(key, entry);
+    }
+
+    public synchronized void remove(String key) {
+        mEntries.remove(key);
+    }
+
+    public synchronized void clear() {
+        mEntries.clear();
+    }
+
+    /**
+     * A parsed response and the validators needed to revalidate it.
+     */
+    static class Entry {
+        public final Object parsed;
+        public final String etag;
+        public final String lastModified;
+
+        public Entry(Object parsed, String etag, String lastModified) {
+            this.parsed = parsed;
+            this.etag = etag;
+            this.lastModified = lastModified;
+        }
+    }
+}
@@ -0,0 +1,143 @@
+/* Copyright (C) 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.plus.samples.haikuplus.api;
+
+import android.graphics.Bitmap;
+
+import com.android.volley.toolbox.ImageLoader;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Image loader for lists that can hold back loads while the list is flinging. Images already
+ * cached are shown straight away; anything else waits, showing its placeholder, until
+ * {@link #resume()}. A view that is rebound or recycled before then cancels its load, so only
+ * the rows still showing when the list settles reach the network and the decoder.
+ *
+ * All methods must be called on the main thread.
+ */
+public class PausableImageLoader extends ImageLoader {
+    private final ImageLoader mDelegate;
+    private final RequestScope mScope;
+    private final List<DeferredLoad> mDeferred = new ArrayList<DeferredLoad>();
+    private boolean mPaused;
+
+    /**
+     * @param delegate the loader to issue loads through.
+     * @param scope the scope to hold deferred loads in, so cancelling it drops them too.
+     */
+    public PausableImageLoader(ImageLoader delegate, RequestScope scope) {
+        super(null, null);
+        mDelegate = delegate;
+        mScope = scope;
+    }
+
+    /**
+     * Hold back loads for images that aren't cached until {@link #resume()}.
+     */
+    public void pause() {
+        mPaused = true;
+    }
+
+    /**
+     * Start every load held back since {@link #pause()} that is still wanted.
+     */
+    public void resume() {
+        mPaused = false;
+        List<DeferredLoad> deferred = new ArrayList<DeferredLoad>(mDeferred);
+        mDeferred.clear();
+        for (DeferredLoad load : deferred) {
+            load.start();
+        }
+    }
+
+    public boolean isPaused() {
+        return mPaused;
+    }
+
+    @Override
+    public boolean isCached(String requestUrl, int maxWidth, int maxHeight) {
+        return mDelegate.isCached(requestUrl, maxWidth, maxHeight);
+    }
+
+    @Override
+    public ImageContainer get(String requestUrl, ImageListener listener,
+                              int maxWidth, int maxHeight) {
+        if (!mPaused || mDelegate.isCached(requestUrl, maxWidth, maxHeight)) {
+            return mDelegate.get(requestUrl, listener, maxWidth, maxHeight);
+        }
+        DeferredLoad load = new DeferredLoad(requestUrl, listener, maxWidth, maxHeight);
+        mDeferred.add(load);
+        mScope.add(load);
+        // Let the view show its placeholder, as it would while a load is in flight.
+        listener.onResponse(load, true);
+        return load;
+    }
+
+    /**
+     * A load waiting for the loader to resume, and then the handle for the real load.
+     */
+    private class DeferredLoad extends ImageContainer implements RequestScope.Member {
+        private final String mRequestUrl;
+        private final ImageListener mListener;
+        private final int mMaxWidth;
+        private final int mMaxHeight;
+        private ImageContainer mStarted;
+        private boolean mCancelled;
+
+        public DeferredLoad(String requestUrl, ImageListener listener, int maxWidth,
+                            int maxHeight) {
+            super(null, requestUrl, null, listener);
+            mRequestUrl = requestUrl;
+            mListener = listener;
+            mMaxWidth = maxWidth;
+            mMaxHeight = maxHeight;
+        }
+
+        public void start() {
+            if (!mCancelled) {
+                mStarted = mDelegate.get(mRequestUrl, mListener, mMaxWidth, mMaxHeight);
+            }
+        }
+
+        @Override
+        public Bitmap getBitmap() {
+            return mStarted != null ? mStarted.getBitmap() : null;
+        }
+
+        @Override
+        public void cancelRequest() {
+            if (mStarted != null) {
+                mStarted.cancelRequest();
+            } else if (!mCancelled) {
+                mCancelled = true;
+                mDeferred.remove(this);
+            }
+        }
+
+        @Override
+        public boolean isDone() {
+            // Once started, the delegate tracks the load.
+            return mCancelled || mStarted != null;
+        }
+
+        @Override
+        public void cancel() {
+            cancelRequest();
+        }
+    }
+}
@@ -0,0 +1,246 @@
+/* Copyright (C) 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.plus.samples.haikuplus.api;
+
+import com.android.volley.Request;
+import com.android.volley.Response;
+import com.android.volley.VolleyError;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tracks in-flight requests by key so that identical concurrent requests can share a single
+ * network call. The first caller for a key issues the request using the listeners returned by
+ * {@link #fanOut(String)}; later callers just
+ * register their own listeners and have the result fanned out to them. A caller can withdraw
+ * by cancelling its {@link Waiter}; once every caller sharing a request has done so, the request
+ * itself is cancelled.
+ */
+class RequestCoalescer {
+    private final Map<String, Entry> mInFlight = new HashMap<String, Entry>();
+    private final AtomicInteger mSaved = new AtomicInteger();
+
+    /**
+     * Register interest in the result for a key.
+     *
+     * @param key identifies the request, see {@link HaikuClient}.
+     * @param listener called with the response.
+     * @param errorListener called if the request fails.
+     * @return the registration; if {@link Waiter#isFirst()} the caller should issue the request,
+     *         otherwise one is already in flight.
+     */
+    public synchronized Waiter register(String key, Response.Listener<?> listener,
+                                        Response.ErrorListener errorListener) {
+        Entry entry = mInFlight.get(key);
+        boolean first = entry == null;
+        if (first) {
+            entry = new Entry(key);
+            mInFlight.put(key, entry);
+        } else {
+            mSaved.incrementAndGet();
+        }
+        Waiter waiter = new Waiter(entry, listener, errorListener, first);
+        entry.mWaiters.add(waiter);
+        return waiter;
+    }
+
+    /**
+     * Build the listeners for the request issued for a key, which deliver the result to every
+     * registered caller. The returned object is both the response and the error listener.
+     */
+    public synchronized <T> FanOut<T> fanOut(String key) {
+        return new FanOut<T>(mInFlight.get(key));
+    }
+
+    /**
+     * Get the number of requests that were not sent because an identical one was in flight.
+     */
+    public int getSavedCount() {
+        return mSaved.get();
+    }
+
+    private synchronized List<Waiter> complete(Entry entry) {
+        if (mInFlight.get(entry.mKey) == entry) {
+            mInFlight.remove(entry.mKey);
+        }
+        List<Waiter> waiters = new ArrayList<Waiter>();
+        for (Waiter waiter : entry.mWaiters) {
+            if (!waiter.mCancelled) {
+                waiters.add(waiter);
+            }
+        }
+        return waiters;
+    }
+
+    private synchronized void cancel(Waiter waiter) {
+        if (waiter.mCancelled) {
+            return;
+        }
+        waiter.mCancelled = true;
+        Entry entry = waiter.mEntry;
+        for (Waiter other : entry.mWaiters) {
+            if (!other.mCancelled) {
+                return;
+            }
+        }
+        // Nobody is left to deliver to, so stop the request and let the next caller start over.
+        entry.mCancelled = true;
+        if (mInFlight.get(entry.mKey) == entry) {
+            mInFlight.remove(entry.mKey);
+        }
+        if (entry.mRequest != null) {
+            entry.mRequest.cancel();
+        }
+    }
+
+    /**
+     * Delivers the result of one request to its waiters. An intermediate response ends the
+     * in-flight entry, so new callers issue their own request, but the same waiters still get
+     * the final response or error that follows it.
+     */
+    class FanOut<T> implements HaikuApiRequest.IntermediateListener<T>, Response.ErrorListener {
+        private final Entry mEntry;
+
+        private FanOut(Entry entry) {
+            mEntry = entry;
+        }
+
+        /**
+         * Record the request issued for these waiters, so it can be cancelled if they all are.
+         */
+        public void setRequest(Request<?> request) {
+            synchronized (RequestCoalescer.this) {
+                mEntry.mRequest = request;
+                if (mEntry.mCancelled) {
+                    request.cancel();
+                }
+            }
+        }
+
+        @Override
+        public void onResponse(T response) {
+            onResponse(response, false);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public void onResponse(T response, boolean intermediate) {
+            for (Waiter waiter : waiters(intermediate)) {
+                if (waiter.mListener instanceof HaikuApiRequest.IntermediateListener) {
+                    ((HaikuApiRequest.IntermediateListener<T>) waiter.mListener)
+                            .onResponse(response, intermediate);
+                } else {
+                    ((Response.Listener<T>) waiter.mListener).onResponse(response);
+                }
+            }
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public void onRefreshFailed(T response) {
+            for (Waiter waiter : waiters(false)) {
+                if (waiter.mListener instanceof HaikuApiRequest.IntermediateListener) {
+                    ((HaikuApiRequest.IntermediateListener<T>) waiter.mListener)
+                            .onRefreshFailed(response);
+                } else {
+                    ((Response.Listener<T>) waiter.mListener).onResponse(response);
+                }
+            }
+        }
+
+        @Override
+        public void onErrorResponse(VolleyError error) {
+            for (Waiter waiter : waiters(false)) {
+                waiter.mErrorListener.onErrorResponse(error);
+            }
+        }
+
+        private List<Waiter> waiters(boolean intermediate) {
+            // Recomputed on each delivery, so a waiter cancelled after an intermediate response
+            // does not get the follow-up.
+            List<Waiter> waiters = complete(mEntry);
+            if (!intermediate) {
+                markDone(waiters);
+            }
+            return waiters;
+        }
+
+        private void markDone(List<Waiter> waiters) {
+            synchronized (RequestCoalescer.this) {
+                for (Waiter waiter : waiters) {
+                    waiter.mDone = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * The in-flight request for a key and everyone waiting on it.
+     */
+    private static class Entry {
+        private final String mKey;
+        private final List<Waiter> mWaiters = new ArrayList<Waiter>();
+        private Request<?> mRequest;
+        private boolean mCancelled;
+
+        private Entry(String key) {
+            mKey = key;
+        }
+    }
+
+    /**
+     * One caller's interest in a request.
+     */
+    class Waiter implements RequestScope.Member {
+        private final Entry mEntry;
+        private final Response.Listener<?> mListener;
+        private final Response.ErrorListener mErrorListener;
+        private final boolean mFirst;
+        private boolean mCancelled;
+        private boolean mDone;
+
+        private Waiter(Entry entry, Response.Listener<?> listener,
+                       Response.ErrorListener errorListener, boolean first) {
+            mEntry = entry;
+            mListener = listener;
+            mErrorListener = errorListener;
+            mFirst = first;
+        }
+
+        /**
+         * Check whether this caller was the first for its key, and so must issue the request.
+         */
+        public boolean isFirst() {
+            return mFirst;
+        }
+
+        @Override
+        public boolean isDone() {
+            synchronized (RequestCoalescer.this) {
+                return mDone || mCancelled;
+            }
+        }
+
+        @Override
+        public void cancel() {
+            RequestCoalescer.this.cancel(this);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+/* Copyright (C) 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.plus.samples.haikuplus.api;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * A group of requests tied to the lifetime of whatever issued them, typically a fragment or
+ * activity, so they can be cancelled together once their results can no longer be shown. A
+ * cancelled API request is not delivered to the listeners in the scope, and the network call is
+ * dropped as well unless a caller outside the scope is sharing it. Image loads made through
+ * {@link VolleyContainer#getImageLoader(RequestScope)} are cancelled the same way.
+ *
+ * A scope can be reused after it is cancelled. All methods must be called on the main thread.
+ */
+public class RequestScope {
+    private final List<Member> mMembers = new ArrayList<Member>();
+
+    /**
+     * Something issued in a scope that can be cancelled.
+     */
+    interface Member {
+        /**
+         * Check whether this has completed or been cancelled, so no longer needs tracking.
+         */
+        public boolean isDone();
+
+        public void cancel();
+    }
+
+    /**
+     * Track something issued in this scope.
+     */
+    void add(Member member) {
+        // Drop finished members as we go, rather than having each one report back.
+        for (Iterator<Member> it = mMembers.iterator(); it.hasNext(); ) {
+            if (it.next().isDone()) {
+                it.remove();
+            }
+        }
+        mMembers.add(member);
+    }
+
+    /**
+     * Cancel everything issued in this scope that has not yet completed.
+     */
+    public void cancel() {
+        List<Member> members = new ArrayList<Member>(mMembers);
+        mMembers.clear();
+        for (Member member : members) {
+            if (!member.isDone()) {
+                member.cancel();
+            }
+        }
+    }
+
+    /**
+     * Get the number of requests and image loads in this scope that may still be outstanding.
+     */
+    public int getPendingCount() {
+        int count = 0;
+        for (Member member : mMembers) {
+            if (!member.isDone()) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,121 @@
+/* Copyright (C) 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.plus.samples.haikuplus.api;
+
+import com.android.volley.Network;
+import com.android.volley.NetworkResponse;
+import com.android.volley.Request;
+import com.android.volley.ServerError;
+import com.android.volley.VolleyError;
+
+import android.net.Uri;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Network wrapper that applies a circuit breaker per endpoint and counts requests towards the
+ * retry budget. Volley only retries timeouts and auth failures itself, so server errors on
+ * GETs are retried here through the request's retry policy.
+ */
+class ResilientNetwork implements Network {
+    private static final String MARKER_CIRCUIT_OPEN = "circuit-open";
+
+    private final Network mDelegate;
+    private final RetryBudget mBudget;
+    private final Map<String, CircuitBreaker> mBreakers = new HashMap<String, CircuitBreaker>();
+
+    ResilientNetwork(Network delegate, RetryBudget budget) {
+        mDelegate = delegate;
+        mBudget = budget;
+    }
+
+    @Override
+    public NetworkResponse performRequest(Request<?> request) throws VolleyError {
+        CircuitBreaker breaker = getBreaker(request);
+        if (!breaker.allowRequest()) {
+            request.addMarker(MARKER_CIRCUIT_OPEN);
+            throw new CircuitOpenError();
+        }
+        mBudget.onRequest();
+        while (true) {
+            try {
+                NetworkResponse response = mDelegate.performRequest(request);
+                breaker.onSuccess();
+                if (response.notModified && request.hasHadResponseDelivered()) {
+                    // Volley drops a 304 for a request whose stale copy was already delivered,
+                    // so the entry would never be renewed; pass it on as a full response to be
+                    // parsed, cached and delivered as the final one.
+                    response = new NetworkResponse(response.statusCode, response.data,
+                            CachePolicy.mergeNotModifiedHeaders(
+                                    request.getCacheEntry(), response.headers), false);
+                }
+                return response;
+            } catch (ServerError error) {
+                if (request.getMethod() == Request.Method.GET && isFailure(error)) {
+                    try {
+                        // Throws once retries or the budget are used up.
+                        request.getRetryPolicy().retry(error);
+                        continue;
+                    } catch (VolleyError exhausted) {
+                        breaker.onFailure();
+                        throw exhausted;
+                    }
+                }
+                record(breaker, error);
+                throw error;
+            } catch (VolleyError error) {
+                record(breaker, error);
+                throw error;
+            } catch (RuntimeException e) {
+                // Says nothing about the endpoint, but must not leave a probe outstanding.
+                breaker.onAbandoned();
+                throw e;
+            }
+        }
+    }
+
+    private static void record(CircuitBreaker breaker, VolleyError error) {
+        if (isFailure(error)) {
+            breaker.onFailure();
+        } else {
+            breaker.onSuccess();
+        }
+    }
+
+    private static boolean isFailure(VolleyError error) {
+        return error.networkResponse == null || error.networkResponse.statusCode >= 500;
+    }
+
+    /**
+     * Find the breaker for a request's endpoint. API requests are tagged with their path
+     * template, so all haikus share one; anything else is grouped by host.
+     */
+    private synchronized CircuitBreaker getBreaker(Request<?> request) {
+        String key;
+        if (request.getTag() instanceof String) {
+            key = request.getMethod() + " " + request.getTag();
+        } else {
+            key = String.valueOf(Uri.parse(request.getUrl()).getHost());
+        }
+        CircuitBreaker breaker = mBreakers.get(key);
+        if (breaker == null) {
+            breaker = new CircuitBreaker();
+            mBreakers.put(key, breaker);
+        }
+        return breaker;
+    }
+}
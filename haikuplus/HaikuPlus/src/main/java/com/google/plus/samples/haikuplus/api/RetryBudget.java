@@ -0,0 +1,70 @@
+/* Copyright (C) 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.plus.samples.haikuplus.api;
+
+/**
+ * Caps the share of traffic that may be spent on retries. Every request deposits a fraction of
+ * a token and every retry withdraws a whole one, so over time retries are limited to that
+ * fraction of requests, with a small reserve for bursts. When the server has a blip, clients
+ * stop retrying once the reserve is gone instead of multiplying the load on it.
+ */
+class RetryBudget {
+    /** Retries allowed per request, over time. */
+    private static final double DEFAULT_RATIO = 0.2;
+    /** Retries allowed in a burst, and the starting balance. */
+    private static final int DEFAULT_RESERVE = 10;
+
+    private static final RetryBudget sDefault = new RetryBudget(DEFAULT_RATIO, DEFAULT_RESERVE);
+
+    private final double mRatio;
+    private final double mReserve;
+    private double mBalance;
+
+    RetryBudget(double ratio, int reserve) {
+        mRatio = ratio;
+        mReserve = reserve;
+        mBalance = reserve;
+    }
+
+    /**
+     * Retrieve the budget shared by all API requests.
+     *
+     * @return RetryBudget
+     */
+    static RetryBudget getDefault() {
+        return sDefault;
+    }
+
+    /**
+     * Record that a request is being sent for the first time.
+     */
+    synchronized void onRequest() {
+        mBalance = Math.min(mReserve, mBalance + mRatio);
+    }
+
+    /**
+     * Take a retry from the budget.
+     *
+     * @return true if the retry may go ahead.
+     */
+    synchronized boolean tryRetry() {
+        if (mBalance < 1) {
+            return false;
+        }
+        mBalance -= 1;
+        return true;
+    }
+}
@@ -0,0 +1,188 @@
+/* Copyright (C) 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.plus.samples.haikuplus.api;
+
+import android.graphics.Bitmap;
+import android.os.Looper;
+
+import com.android.volley.RequestQueue;
+import com.android.volley.Response;
+import com.android.volley.VolleyError;
+import com.android.volley.toolbox.ImageLoader;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Image loader that decodes through {@link SampledImageRequest}, so images are decoded at the
+ * size of the view showing them and reuse bitmaps from a {@link BitmapPool}. Volley's loader
+ * always builds its own ImageRequest, so this one keeps its own table of requests in flight;
+ * cache keys are the same as Volley's, so cached images are found either way. An image missing
+ * from memory is looked for on disk in the background before it is requested, and is delivered
+ * the same way as one from the network.
+ */
+class SampledImageLoader extends ImageLoader {
+    /** The config images are decoded with, from the network or from disk. */
+    static final Bitmap.Config DECODE_CONFIG = Bitmap.Config.RGB_565;
+
+    private final RequestQueue mQueue;
+    private final TieredImageCache mCache;
+    private final BitmapPool mPool;
+    private final HashMap<String, Batch> mInFlight = new HashMap<String, Batch>();
+
+    SampledImageLoader(RequestQueue queue, TieredImageCache cache, BitmapPool pool) {
+        super(queue, cache);
+        mQueue = queue;
+        mCache = cache;
+        mPool = pool;
+    }
+
+    @Override
+    public ImageContainer get(final String requestUrl, ImageListener listener,
+                              final int maxWidth, final int maxHeight) {
+        if (Looper.myLooper() != Looper.getMainLooper()) {
+            throw new IllegalStateException("ImageLoader must be invoked from the main thread.");
+        }
+        final String cacheKey = getCacheKey(requestUrl, maxWidth, maxHeight);
+        Bitmap cached = mCache.getBitmap(cacheKey);
+        if (cached != null) {
+            Load load = new Load(cached, requestUrl, null, null);
+            listener.onResponse(load, true);
+            return load;
+        }
+
+        // Let the view show its placeholder until the image arrives.
+        Load load = new Load(null, requestUrl, cacheKey, listener);
+        listener.onResponse(load, true);
+        Batch batch = mInFlight.get(cacheKey);
+        if (batch == null) {
+            final Batch lookup = new Batch();
+            batch = lookup;
+            mInFlight.put(cacheKey, batch);
+            mCache.getFromDisk(cacheKey, new Response.Listener<Bitmap>() {
+                @Override
+                public void onResponse(Bitmap bitmap) {
+                    if (mInFlight.get(cacheKey) != lookup) {
+                        // Every load gave up while the disk was read.
+                        return;
+                    }
+                    if (bitmap != null) {
+                        mInFlight.remove(cacheKey);
+                        lookup.deliver(bitmap, null);
+                    } else {
+                        request(lookup, requestUrl, cacheKey, maxWidth, maxHeight);
+                    }
+                }
+            });
+        }
+        batch.mLoads.add(load);
+        return load;
+    }
+
+    /**
+     * Fetch an image from the network, once the disk has missed.
+     */
+    private void request(Batch batch, String requestUrl, final String cacheKey,
+                         int maxWidth, int maxHeight) {
+        batch.mRequest = new SampledImageRequest(requestUrl, maxWidth, maxHeight,
+                DECODE_CONFIG, mPool,
+                new Response.Listener<Bitmap>() {
+                    @Override
+                    public void onResponse(Bitmap bitmap) {
+                        mCache.putBitmap(cacheKey, bitmap);
+                        Batch done = mInFlight.remove(cacheKey);
+                        if (done != null) {
+                            done.deliver(bitmap, null);
+                        }
+                    }
+                },
+                new Response.ErrorListener() {
+                    @Override
+                    public void onErrorResponse(VolleyError error) {
+                        Batch done = mInFlight.remove(cacheKey);
+                        if (done != null) {
+                            done.deliver(null, error);
+                        }
+                    }
+                });
+        mQueue.add(batch.mRequest);
+    }
+
+    /**
+     * The key Volley's ImageLoader caches an image under.
+     */
+    private static String getCacheKey(String url, int maxWidth, int maxHeight) {
+        return new StringBuilder(url.length() + 12).append("#W").append(maxWidth)
+                .append("#H").append(maxHeight).append(url).toString();
+    }
+
+    /**
+     * One disk lookup or request in flight and the loads waiting for it.
+     */
+    private static class Batch {
+        // Null while the disk is being read.
+        private SampledImageRequest mRequest;
+        private final List<Load> mLoads = new ArrayList<Load>();
+
+        public void deliver(Bitmap bitmap, VolleyError error) {
+            for (Load load : mLoads) {
+                if (error != null) {
+                    load.mListener.onErrorResponse(error);
+                } else {
+                    load.mBitmap = bitmap;
+                    load.mListener.onResponse(load, false);
+                }
+            }
+        }
+    }
+
+    /**
+     * A load's handle, as returned to the view. Cancelling the last load waiting for a request
+     * cancels the request.
+     */
+    private class Load extends ImageContainer {
+        private final String mCacheKey;
+        private final ImageListener mListener;
+        private Bitmap mBitmap;
+
+        public Load(Bitmap bitmap, String requestUrl, String cacheKey, ImageListener listener) {
+            super(bitmap, requestUrl, cacheKey, listener);
+            mBitmap = bitmap;
+            mCacheKey = cacheKey;
+            mListener = listener;
+        }
+
+        @Override
+        public Bitmap getBitmap() {
+            return mBitmap;
+        }
+
+        @Override
+        public void cancelRequest() {
+            if (mListener == null) {
+                return;
+            }
+            Batch batch = mInFlight.get(mCacheKey);
+            if (batch != null && batch.mLoads.remove(this) && batch.mLoads.isEmpty()) {
+                if (batch.mRequest != null) {
+                    batch.mRequest.cancel();
+                }
+                mInFlight.remove(mCacheKey);
+            }
+        }
+    }
+}
@@ -0,0 +1,196 @@
+/* Copyright (C) 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.plus.samples.haikuplus.api;
+
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+import android.util.Log;
+
+import com.android.volley.DefaultRetryPolicy;
+import com.android.volley.NetworkResponse;
+import com.android.volley.ParseError;
+import com.android.volley.Request;
+import com.android.volley.Response;
+import com.android.volley.toolbox.HttpHeaderParser;
+
+/**
+ * Request for an image, decoded no larger than the view that will show it. Like Volley's
+ * ImageRequest it samples the image down by a power of two while decoding and scales the rest
+ * of the way, but the sampled bitmap is decoded into one from a {@link BitmapPool} when one
+ * fits, and goes back to the pool once it has been scaled, so a fling through a list of avatars
+ * doesn't allocate two bitmaps per row.
+ */
+class SampledImageRequest extends Request<Bitmap> {
+    private static final String TAG = "HaikuPlus-SampledImageRequest";
+    // The same retry policy as Volley's ImageRequest.
+    private static final int IMAGE_TIMEOUT_MS = 1000;
+    private static final int IMAGE_MAX_RETRIES = 2;
+    private static final float IMAGE_BACKOFF_MULT = 2f;
+    // One decode at a time, as in Volley, so a burst of images can't exhaust the heap.
+    private static final Object sDecodeLock = new Object();
+    private final Response.Listener<Bitmap> mListener;
+    private final int mMaxWidth;
+    private final int mMaxHeight;
+    private final Bitmap.Config mDecodeConfig;
+    private final BitmapPool mPool;
+
+    /**
+     * @param url the image URL.
+     * @param maxWidth the widest the bitmap may be, or 0 for no limit.
+     * @param maxHeight the tallest the bitmap may be, or 0 for no limit.
+     * @param decodeConfig the pixel format to decode to.
+     * @param pool where to find bitmaps to decode into, and to return the sampled one.
+     */
+    SampledImageRequest(String url, int maxWidth, int maxHeight, Bitmap.Config decodeConfig,
+                        BitmapPool pool, Response.Listener<Bitmap> listener,
+                        Response.ErrorListener errorListener) {
+        super(Method.GET, url, errorListener);
+        setRetryPolicy(new DefaultRetryPolicy(
+                IMAGE_TIMEOUT_MS, IMAGE_MAX_RETRIES, IMAGE_BACKOFF_MULT));
+        mListener = listener;
+        mMaxWidth = maxWidth;
+        mMaxHeight = maxHeight;
+        mDecodeConfig = decodeConfig;
+        mPool = pool;
+    }
+
+    @Override
+    public Priority getPriority() {
+        return Priority.LOW;
+    }
+
+    @Override
+    protected Response<Bitmap> parseNetworkResponse(NetworkResponse response) {
+        synchronized (sDecodeLock) {
+            try {
+                Bitmap bitmap = decode(response.data, mMaxWidth, mMaxHeight, mDecodeConfig, mPool);
+                if (bitmap == null) {
+                    return Response.error(new ParseError(response));
+                }
+                return Response.success(bitmap, HttpHeaderParser.parseCacheHeaders(response));
+            } catch (OutOfMemoryError e) {
+                Log.e(TAG, "Out of memory decoding " + getUrl());
+                return Response.error(new ParseError(e));
+            }
+        }
+    }
+
+    @Override
+    protected void deliverResponse(Bitmap bitmap) {
+        mListener.onResponse(bitmap);
+    }
+
+    /**
+     * Decode an image to fit within the given size, keeping its aspect ratio. Images smaller
+     * than that are left as they are.
+     *
+     * @return the bitmap, or null if the data is not an image.
+     */
+    static Bitmap decode(byte[] data, int maxWidth, int maxHeight, Bitmap.Config config,
+                         BitmapPool pool) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        int actualWidth = options.outWidth;
+        int actualHeight = options.outHeight;
+        if (actualWidth <= 0 || actualHeight <= 0) {
+            return null;
+        }
+        int desiredWidth = getResizedDimension(maxWidth, maxHeight, actualWidth, actualHeight);
+        int desiredHeight = getResizedDimension(maxHeight, maxWidth, actualHeight, actualWidth);
+        int sampleSize = findBestSampleSize(actualWidth, actualHeight, desiredWidth, desiredHeight);
+
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize;
+        options.inPreferredConfig = config;
+        options.inMutable = true;
+        options.inBitmap = getReusable(pool, actualWidth, actualHeight, sampleSize, config);
+        Bitmap sampled;
+        try {
+            sampled = BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        } catch (IllegalArgumentException e) {
+            // The pooled bitmap couldn't hold the image after all, so let the decoder allocate.
+            options.inBitmap = null;
+            sampled = BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        }
+        if (sampled == null
+                || (sampled.getWidth() <= desiredWidth && sampled.getHeight() <= desiredHeight)) {
+            return sampled;
+        }
+        Bitmap scaled = Bitmap.createScaledBitmap(sampled, desiredWidth, desiredHeight, true);
+        if (scaled != sampled) {
+            pool.put(sampled);
+        }
+        return scaled;
+    }
+
+    /**
+     * Find a pooled bitmap the sampled image can be decoded into. Before KitKat the bitmap must
+     * match the image exactly and the image can't be sampled; from KitKat any bitmap with enough
+     * memory will do, so the sampled size is rounded up to fit whichever way the decoder rounds.
+     */
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    private static Bitmap getReusable(BitmapPool pool, int actualWidth, int actualHeight,
+                                      int sampleSize, Bitmap.Config config) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            return pool.get((actualWidth + sampleSize - 1) / sampleSize,
+                    (actualHeight + sampleSize - 1) / sampleSize, config);
+        }
+        return sampleSize == 1 ? pool.get(actualWidth, actualHeight, config) : null;
+    }
+
+    /**
+     * Work out one side of the decoded image from the limits and the actual size, keeping the
+     * aspect ratio; the same rules as Volley's ImageRequest, so cache keys mean the same thing.
+     */
+    static int getResizedDimension(int maxPrimary, int maxSecondary, int actualPrimary,
+                                   int actualSecondary) {
+        if (maxPrimary == 0 && maxSecondary == 0) {
+            return actualPrimary;
+        }
+        if (maxPrimary == 0) {
+            double ratio = (double) maxSecondary / (double) actualSecondary;
+            return (int) (actualPrimary * ratio);
+        }
+        if (maxSecondary == 0) {
+            return maxPrimary;
+        }
+        double ratio = (double) actualSecondary / (double) actualPrimary;
+        int resized = maxPrimary;
+        if (resized * ratio > maxSecondary) {
+            resized = (int) (maxSecondary / ratio);
+        }
+        return resized;
+    }
+
+    /**
+     * Get the largest power of two to sample by that still leaves the image at least as big as
+     * the desired size.
+     */
+    static int findBestSampleSize(int actualWidth, int actualHeight, int desiredWidth,
+                                  int desiredHeight) {
+        double widthRatio = (double) actualWidth / Math.max(desiredWidth, 1);
+        double heightRatio = (double) actualHeight / Math.max(desiredHeight, 1);
+        double ratio = Math.min(widthRatio, heightRatio);
+        int sampleSize = 1;
+        while (sampleSize * 2 <= ratio) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+}
@@ -0,0 +1,108 @@
+/* Copyright (C) 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.plus.samples.haikuplus.api;
+
+import com.google.plus.samples.haikuplus.models.Haiku;
+
+import java.util.List;
+
+/**
+ * The haikus added to the stream since a watermark, newest first. A delta is complete if it
+ * holds everything since the watermark; otherwise there were more than fit in one response
+ * and the stream should be reloaded from the top instead.
+ */
+public class StreamDelta {
+    private final HaikuClient.StreamMode mMode;
+    private final StreamPage.Cursor mSince;
+    private final List<Haiku> mHaikus;
+    private final boolean mComplete;
+
+    StreamDelta(HaikuClient.StreamMode mode, StreamPage.Cursor since, List<Haiku> haikus,
+                boolean complete) {
+        mMode = mode;
+        mSince = since;
+        mHaikus = haikus;
+        mComplete = complete;
+    }
+
+    /**
+     * Get the stream mode this delta was requested for.
+     *
+     * @return StreamMode
+     */
+    public HaikuClient.StreamMode getMode() {
+        return mMode;
+    }
+
+    /**
+     * Get the watermark this delta was requested from.
+     *
+     * @return Cursor
+     */
+    public StreamPage.Cursor getSince() {
+        return mSince;
+    }
+
+    /**
+     * Get the new or changed haikus, newest first.
+     *
+     * @return list of haikus
+     */
+    public List<Haiku> getHaikus() {
+        return mHaikus;
+    }
+
+    /**
+     * Check whether this delta covers everything since the watermark.
+     *
+     * @return false if there is a gap between this delta and the watermark.
+     */
+    public boolean isComplete() {
+        return mComplete;
+    }
+
+    /**
+     * Merge this delta into a list, newest first: haikus already in the list are replaced where
+     * they are, and new ones are added to the top in order.
+     *
+     * @param haikus the list to update.
+     * @return the number of haikus added to the top.
+     */
+    public int mergeInto(List<Haiku> haikus) {
+        int added = 0;
+        for (Haiku haiku : mHaikus) {
+            int index = indexOf(haikus, haiku.id);
+            if (index >= 0) {
+                haikus.set(index, haiku);
+            } else {
+                haikus.add(added++, haiku);
+            }
+        }
+        return added;
+    }
+
+    private static int indexOf(List<Haiku> haikus, String id) {
+        if (id == null) {
+            return -1;
+        }
+        for (int i = 0; i < haikus.size(); i++) {
+            if (id.equals(haikus.get(i).id)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
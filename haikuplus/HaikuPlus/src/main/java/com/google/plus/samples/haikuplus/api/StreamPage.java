@@ -0,0 +1,163 @@
+/* Copyright (C) 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.plus.samples.haikuplus.api;
+
+import com.google.plus.samples.haikuplus.models.Haiku;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A single page of the haiku stream, along with the cursor needed to request the page after it.
+ */
+public class StreamPage {
+    private final HaikuClient.StreamMode mMode;
+    private final Cursor mCursor;
+    private final List<Haiku> mHaikus;
+    private final Cursor mNext;
+    private final boolean mIntermediate;
+
+    StreamPage(HaikuClient.StreamMode mode, Cursor cursor, List<Haiku> haikus, Cursor next,
+               boolean intermediate) {
+        mMode = mode;
+        mCursor = cursor;
+        mHaikus = haikus;
+        mNext = next;
+        mIntermediate = intermediate;
+    }
+
+    /**
+     * Get the stream mode this page was requested for.
+     *
+     * @return StreamMode
+     */
+    public HaikuClient.StreamMode getMode() {
+        return mMode;
+    }
+
+    /**
+     * Get the cursor this page was requested with, null for the first page.
+     *
+     * @return Cursor
+     */
+    public Cursor getCursor() {
+        return mCursor;
+    }
+
+    /**
+     * Get the haikus on this page, newest first.
+     *
+     * @return list of haikus
+     */
+    public List<Haiku> getHaikus() {
+        return mHaikus;
+    }
+
+    /**
+     * Get the cursor for the following page, or null if this was the last one.
+     *
+     * @return Cursor
+     */
+    public Cursor getNext() {
+        return mNext;
+    }
+
+    /**
+     * Check whether this page is a stale cached copy. If so, a fresh copy of the same page
+     * follows once it has been fetched, unless the fetch fails.
+     *
+     * @return true if a fresh copy is on its way.
+     */
+    public boolean isIntermediate() {
+        return mIntermediate;
+    }
+
+    /**
+     * Continuation point in the stream. The stream is ordered newest first, so a cursor
+     * identifies the last haiku already seen by its creation time, with the ID to break ties
+     * between haikus created in the same second.
+     */
+    public static class Cursor {
+        private static final String PARAM_TIME = "before_time";
+        private static final String PARAM_ID = "before_id";
+        private static final String PARAM_SINCE_TIME = "since_time";
+        private static final String PARAM_SINCE_ID = "since_id";
+
+        private final Date mCreationTime;
+        private final String mHaikuId;
+
+        public Cursor(Date creationTime, String haikuId) {
+            mCreationTime = creationTime;
+            mHaikuId = haikuId;
+        }
+
+        /**
+         * Build the cursor that continues the stream after the given haiku, or, used as a
+         * watermark, that marks the newest haiku already seen.
+         *
+         * @param last the last haiku on the previous page.
+         * @return Cursor, or null if the haiku can't be used as a continuation point.
+         */
+        public static Cursor after(Haiku last) {
+            if (last == null || last.creationTime == null || last.id == null) {
+                return null;
+            }
+            return new Cursor(last.creationTime, last.id);
+        }
+
+        public Date getCreationTime() {
+            return mCreationTime;
+        }
+
+        public String getHaikuId() {
+            return mHaikuId;
+        }
+
+        /**
+         * Format this cursor as query string parameters for the page after it.
+         *
+         * @return the encoded parameters, without a leading separator.
+         */
+        String toQuery() {
+            return toQuery(PARAM_TIME, PARAM_ID);
+        }
+
+        /**
+         * Format this cursor as a watermark, asking for the haikus newer than it.
+         *
+         * @return the encoded parameters, without a leading separator.
+         */
+        String toSinceQuery() {
+            return toQuery(PARAM_SINCE_TIME, PARAM_SINCE_ID);
+        }
+
+        private String toQuery(String timeParam, String idParam) {
+            SimpleDateFormat format =
+                    new SimpleDateFormat(HaikuTypeAdapterFactory.DATE_FORMAT, Locale.US);
+            try {
+                return timeParam + "=" + URLEncoder.encode(format.format(mCreationTime), "UTF-8")
+                        + "&" + idParam + "=" + URLEncoder.encode(mHaikuId, "UTF-8");
+            } catch (UnsupportedEncodingException e) {
+                // UTF-8 is always supported.
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/* Copyright (C) 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.plus.samples.haikuplus.api;
+
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.android.volley.Response;
+import com.android.volley.toolbox.ImageLoader;
+
+/**
+ * Image cache for the {@link ImageLoader} with two tiers: decoded bitmaps in memory, backed by
+ * scaled, encoded copies on disk that survive the process. {@link #getBitmap} only looks in
+ * memory, because the loader calls it on the main thread; a loader that misses asks
+ * {@link #getFromDisk} before going to the network, so that after a cold start images appear
+ * without waiting for it.
+ */
+class TieredImageCache implements ImageLoader.ImageCache {
+    private final BitmapLruCache mMemory;
+    private final ImageDiskCache mDisk;
+    private final Bitmap.Config mConfig;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * @param memory the in-memory tier.
+     * @param disk the on-disk tier.
+     * @param config the config to decode images from disk with, the same as the loader uses
+     *               for images from the network.
+     */
+    TieredImageCache(BitmapLruCache memory, ImageDiskCache disk, Bitmap.Config config) {
+        mMemory = memory;
+        mDisk = disk;
+        mConfig = config;
+    }
+
+    @Override
+    public Bitmap getBitmap(String key) {
+        return mMemory.getBitmap(key);
+    }
+
+    /**
+     * Read an image from disk on the disk thread, promoting it back into memory.
+     *
+     * @param key the image cache key.
+     * @param listener called on the main thread with the image, or with null if it is not
+     *                 stored.
+     */
+    void getFromDisk(final String key, final Response.Listener<Bitmap> listener) {
+        mDisk.execute(new Runnable() {
+            @Override
+            public void run() {
+                final Bitmap bitmap = mDisk.get(key, mConfig);
+                if (bitmap != null) {
+                    mMemory.putBitmap(key, bitmap);
+                }
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        listener.onResponse(bitmap);
+                    }
+                });
+            }
+        });
+    }
+
+    @Override
+    public void putBitmap(String key, Bitmap bitmap) {
+        // Only called for images that were just loaded, so never for one read from disk.
+        mMemory.putBitmap(key, bitmap);
+        mDisk.put(key, bitmap);
+    }
+
+    /**
+     * Load the most recently used images from disk into memory in the background, so the
+     * first screen after a cold start finds them there.
+     *
+     * @param maxBytes the most memory to fill this way.
+     */
+    void warmUp(final int maxBytes) {
+        mDisk.execute(new Runnable() {
+            @Override
+            public void run() {
+                int loaded = 0;
+                for (String key : mDisk.getRecentKeys()) {
+                    Bitmap bitmap = mDisk.peek(key, mConfig);
+                    if (bitmap == null) {
+                        continue;
+                    }
+                    loaded += BitmapLruCache.getBitmapBytes(bitmap);
+                    if (loaded > maxBytes) {
+                        break;
+                    }
+                    mMemory.putBitmap(key, bitmap);
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,65 @@
+/* Copyright (C) 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.plus.samples.haikuplus.api;
+
+import com.android.volley.toolbox.HttpStack;
+import com.android.volley.toolbox.HurlStack;
+
+/**
+ * HTTP transport settings for the {@link VolleyContainer} request queue: the stack that opens
+ * connections and the number of network dispatcher threads that share them.
+ *
+ * The default is a plain {@link HurlStack}, whose connections are kept alive in the platform's
+ * own pool. Any other {@link HttpStack} can be supplied, for example one backed by a client that
+ * multiplexes requests over HTTP/2, or a HurlStack with a UrlRewriter to reach a local server.
+ */
+public class Transport {
+    /** Volley's own default; enough to keep the startup requests in parallel. */
+    public static final int DEFAULT_THREAD_POOL_SIZE = 4;
+
+    private final HttpStack mStack;
+    private final int mThreadPoolSize;
+
+    /**
+     * @param stack the stack used to perform requests.
+     * @param threadPoolSize the number of network dispatcher threads.
+     */
+    public Transport(HttpStack stack, int threadPoolSize) {
+        if (threadPoolSize < 1) {
+            throw new IllegalArgumentException("threadPoolSize must be at least 1");
+        }
+        mStack = stack;
+        mThreadPoolSize = threadPoolSize;
+    }
+
+    /**
+     * Build the default transport: a HurlStack shared by the dispatcher threads.
+     *
+     * @param threadPoolSize the number of network dispatcher threads.
+     * @return Transport
+     */
+    public static Transport createDefault(int threadPoolSize) {
+        return new Transport(new HurlStack(), threadPoolSize);
+    }
+
+    public HttpStack getStack() {
+        return mStack;
+    }
+
+    public int getThreadPoolSize() {
+        return mThreadPoolSize;
+    }
+}
@@ -15,13 +15,18 @@
 
 package com.google.plus.samples.haikuplus.api;
 
+import android.content.ComponentCallbacks2;
 import android.content.Context;
-import android.graphics.Bitmap;
-import android.util.LruCache;
+import android.content.res.Configuration;
 
 import com.android.volley.RequestQueue;
+import com.android.volley.VolleyError;
+import com.android.volley.toolbox.BasicNetwork;
+import com.android.volley.toolbox.ByteArrayPool;
+import com.android.volley.toolbox.DiskBasedCache;
 import com.android.volley.toolbox.ImageLoader;
-import com.android.volley.toolbox.Volley;
+
+import java.io.File;
 
 /**
  * A singleton container class for the Volley request queue
@@ -30,26 +35,88 @@ import com.android.volley.toolbox.Volley;
  * @author ianbarber@google.com (Ian Barber)
  */
 public class VolleyContainer {
-    private static final int CACHE_SIZE = 20;
+    // Same directory as Volley.newRequestQueue, so existing cache entries are kept.
+    private static final String DISK_CACHE_DIR = "volley";
+    private static final int DISK_CACHE_BYTES = 10 * 1024 * 1024;
+    // Response buffers are recycled between requests rather than allocated for each one.
+    private static final int BUFFER_POOL_BYTES = 64 * 1024;
+    // Scaled images, kept apart from the response cache so they survive it filling with JSON.
+    private static final String IMAGE_CACHE_DIR = "images";
+    private static final int IMAGE_CACHE_BYTES = 4 * 1024 * 1024;
+    // Share of the memory cache filled from disk at startup.
+    private static final int WARM_UP_FRACTION = 4;
+    // Share of the memory cache's budget kept as bitmaps to decode into.
+    private static final int POOL_FRACTION = 8;
     private static VolleyContainer mInstance = null;
+    // Shared by every container, since it owns its directory.
+    private static ImageDiskCache sImageDisk;
+    private static Transport sTransport;
     private RequestQueue mRequestQueue;
+    private InvalidatingCache mCache;
     private ImageLoader mImageLoader;
+    private BitmapLruCache mImageCache;
+    private BitmapPool mImagePool;
+    private Context mAppContext;
+    private ComponentCallbacks2 mTrimCallbacks;
 
     private VolleyContainer(Context context) {
-        mRequestQueue = Volley.newRequestQueue(context);
-        mImageLoader = new ImageLoader(mRequestQueue, new ImageLoader.ImageCache() {
-            private final LruCache<String, Bitmap> mCache =
-                    new LruCache<String, Bitmap>(CACHE_SIZE);
+        Transport transport = sTransport != null
+                ? sTransport : Transport.createDefault(Transport.DEFAULT_THREAD_POOL_SIZE);
+        File cacheDir = new File(context.getCacheDir(), DISK_CACHE_DIR);
+        BasicNetwork network =
+                new BasicNetwork(transport.getStack(), new ByteArrayPool(BUFFER_POOL_BYTES));
+        mCache = new InvalidatingCache(new DiskBasedCache(cacheDir, DISK_CACHE_BYTES));
+        mRequestQueue = new RequestQueue(
+                mCache,
+                new ResilientNetwork(network, RetryBudget.getDefault()),
+                transport.getThreadPoolSize());
+        mRequestQueue.start();
+        mImageCache = new BitmapLruCache(BitmapLruCache.getDefaultSize(context));
+        if (sImageDisk == null) {
+            sImageDisk = new ImageDiskCache(
+                    new File(context.getCacheDir(), IMAGE_CACHE_DIR), IMAGE_CACHE_BYTES);
+        }
+        TieredImageCache images = new TieredImageCache(
+                mImageCache, sImageDisk, SampledImageLoader.DECODE_CONFIG);
+        images.warmUp(mImageCache.maxSize() / WARM_UP_FRACTION);
+        mImagePool = new BitmapPool(mImageCache.maxSize() / POOL_FRACTION);
+        mImageLoader = new SampledImageLoader(mRequestQueue, images, mImagePool);
+        mAppContext = context.getApplicationContext();
+        mTrimCallbacks = new ComponentCallbacks2() {
+            @Override
+            public void onTrimMemory(int level) {
+                mImageCache.onTrimMemory(level);
+                mImagePool.onTrimMemory(level);
+            }
+
             @Override
-            public Bitmap getBitmap(String s) {
-                return mCache.get(s);
+            public void onLowMemory() {
+                mImageCache.evictAll();
+                mImagePool.evictAll();
             }
 
             @Override
-            public void putBitmap(String s, Bitmap bitmap) {
-                mCache.put(s, bitmap);
+            public void onConfigurationChanged(Configuration newConfig) {
             }
-        });
+        };
+        mAppContext.registerComponentCallbacks(mTrimCallbacks);
+    }
+
+    /**
+     * Set the transport used by the request queue; the default is a plain HurlStack. If the
+     * queue has already been created it is stopped, dropping any requests still on it, and the
+     * next call to {@link #getInstance(Context)} builds a new one. This is meant for tests that
+     * point the client at a local server.
+     *
+     * @param transport the transport to use, or null for the default.
+     */
+    public static void setTransport(Transport transport) {
+        sTransport = transport;
+        if (mInstance != null) {
+            mInstance.mRequestQueue.stop();
+            mInstance.mAppContext.unregisterComponentCallbacks(mInstance.mTrimCallbacks);
+            mInstance = null;
+        }
     }
 
     public static VolleyContainer getInstance(Context context) {
@@ -63,7 +130,106 @@ public class VolleyContainer {
         return mRequestQueue;
     }
 
+    /**
+     * Expire every cached response whose cache key starts with a prefix, because a write has
+     * changed it. Cheap enough for the main thread; the entries are checked as they are read.
+     *
+     * @param keyPrefix the start of the cache keys to expire, such as the URL of a collection.
+     */
+    void invalidateCache(String keyPrefix) {
+        mCache.invalidatePrefix(keyPrefix);
+    }
+
     public ImageLoader getImageLoader() {
         return mImageLoader;
     }
+
+    /**
+     * Get the memory cache behind the image loaders, for example to read its hit rate.
+     */
+    public BitmapLruCache getImageCache() {
+        return mImageCache;
+    }
+
+    /**
+     * Get the pool of bitmaps that images are decoded into, for example to read how often a
+     * decode found one to reuse.
+     */
+    public BitmapPool getImagePool() {
+        return mImagePool;
+    }
+
+    /**
+     * Get an image loader whose loads are issued in a scope. It shares the cache and in-flight
+     * requests of {@link #getImageLoader()}, but cancelling the scope cancels every load made
+     * through it that has not yet completed.
+     *
+     * @param scope the scope to issue loads in.
+     */
+    public ImageLoader getImageLoader(RequestScope scope) {
+        return new ScopedImageLoader(scope);
+    }
+
+    private class ScopedImageLoader extends ImageLoader {
+        private final RequestScope mScope;
+
+        public ScopedImageLoader(RequestScope scope) {
+            super(mRequestQueue, null);
+            mScope = scope;
+        }
+
+        @Override
+        public boolean isCached(String requestUrl, int maxWidth, int maxHeight) {
+            return mImageLoader.isCached(requestUrl, maxWidth, maxHeight);
+        }
+
+        @Override
+        public ImageContainer get(String requestUrl, ImageListener listener,
+                                  int maxWidth, int maxHeight) {
+            ScopedLoad load = new ScopedLoad(listener);
+            load.mContainer = mImageLoader.get(requestUrl, load, maxWidth, maxHeight);
+            if (!load.mDone) {
+                mScope.add(load);
+            }
+            return load.mContainer;
+        }
+    }
+
+    /**
+     * Tracks one image load in a scope, finishing once the image or an error is delivered.
+     */
+    private static class ScopedLoad implements ImageLoader.ImageListener, RequestScope.Member {
+        private final ImageLoader.ImageListener mListener;
+        private ImageLoader.ImageContainer mContainer;
+        private boolean mDone;
+
+        public ScopedLoad(ImageLoader.ImageListener listener) {
+            mListener = listener;
+        }
+
+        @Override
+        public void onResponse(ImageLoader.ImageContainer container, boolean isImmediate) {
+            mDone = container.getBitmap() != null;
+            mListener.onResponse(container, isImmediate);
+        }
+
+        @Override
+        public void onErrorResponse(VolleyError error) {
+            mDone = true;
+            mListener.onErrorResponse(error);
+        }
+
+        @Override
+        public boolean isDone() {
+            return mDone;
+        }
+
+        @Override
+        public void cancel() {
+            mDone = true;
+            if (mContainer != null) {
+                mContainer.cancelRequest();
+            }
+        }
+    }
 }
@@ -0,0 +1,103 @@
+/* Copyright (C) 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.plus.samples.haikuplus.api;
+
+import com.google.plus.samples.haikuplus.models.Haiku;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Write-behind buffer for votes. Votes are held for a short window so that a burst of taps is
+ * sent together and the radio is woken once per burst. Each tap is still its own request, as
+ * the API records one vote per request.
+ * All methods must be called on the main thread.
+ */
+class VoteQueue {
+    /** How long a vote waits for others to join it before being sent. */
+    static final long FLUSH_DELAY_MS = 2000;
+
+    private final Map<String, PendingVote> mPending = new LinkedHashMap<String, PendingVote>();
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final Runnable mFlush = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    /**
+     * Add a vote to the queue, merging it with any vote for the same haiku that has not been
+     * sent yet.
+     *
+     * @param client the client to send the vote with, the most recent one is used.
+     * @param haiku the haiku to vote for.
+     * @param listener the object to call when the vote has been written.
+     */
+    public void add(HaikuClient client, Haiku haiku, HaikuClient.HaikuServiceListener listener) {
+        PendingVote vote = mPending.get(haiku.id);
+        if (vote == null) {
+            vote = new PendingVote();
+            mPending.put(haiku.id, vote);
+        }
+        vote.mClient = client;
+        vote.mHaiku = haiku;
+        vote.mCount++;
+        if (listener != null && !vote.mListeners.contains(listener)) {
+            vote.mListeners.add(listener);
+        }
+        if (mPending.size() == 1 && vote.mCount == 1) {
+            // First vote of a burst starts the window; later ones ride along with it.
+            mHandler.postDelayed(mFlush, FLUSH_DELAY_MS);
+        }
+    }
+
+    /**
+     * Send all queued votes now.
+     */
+    public void flush() {
+        mHandler.removeCallbacks(mFlush);
+        List<PendingVote> votes = new ArrayList<PendingVote>(mPending.values());
+        mPending.clear();
+        for (PendingVote vote : votes) {
+            vote.mClient.sendVotes(vote.mHaiku, vote.mCount, vote.mListeners);
+        }
+    }
+
+    /**
+     * Get the number of votes waiting to be sent.
+     */
+    public int getPendingCount() {
+        int count = 0;
+        for (PendingVote vote : mPending.values()) {
+            count += vote.mCount;
+        }
+        return count;
+    }
+
+    private static class PendingVote {
+        private HaikuClient mClient;
+        private Haiku mHaiku;
+        private int mCount;
+        private final List<HaikuClient.HaikuServiceListener> mListeners =
+                new ArrayList<HaikuClient.HaikuServiceListener>();
+    }
+}
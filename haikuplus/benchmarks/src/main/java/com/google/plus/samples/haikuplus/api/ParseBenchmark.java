@@ -0,0 +1,73 @@
+/* Copyright (C) 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.plus.samples.haikuplus.api;
+
+import com.android.volley.NetworkResponse;
+import com.android.volley.Request;
+import com.android.volley.Response;
+import com.google.plus.samples.haikuplus.benchmarks.StreamPayloads;
+import com.google.plus.samples.haikuplus.models.Haiku;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing of stream responses by {@link HaikuApiRequest#parseNetworkResponse}, as run on the
+ * network dispatcher threads, across stream sizes and wire formats.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class ParseBenchmark {
+    @Param({"10", "100", "1000", "10000", "100000"})
+    public int streamSize;
+
+    @Param({StreamPayloads.JSON, StreamPayloads.JSON_GZIP, StreamPayloads.MSGPACK})
+    public String format;
+
+    private HaikuApiRequest<List<Haiku>> mRequest;
+    private NetworkResponse mResponse;
+
+    @Setup
+    public void setUp() throws IOException {
+        byte[] body = StreamPayloads.encode(StreamPayloads.stream(streamSize), format);
+        mResponse = StreamPayloads.response(body, format);
+        mRequest = new HaikuApiRequest<List<Haiku>>(HaikuCodecs.HAIKU_LIST, Request.Method.GET,
+                "https://example.com/api/haikus", null, null, false);
+        mRequest.setTag("/api/haikus");
+    }
+
+    @Benchmark
+    public Response<List<Haiku>> parseNetworkResponse() {
+        return mRequest.parseNetworkResponse(mResponse);
+    }
+}
@@ -0,0 +1,90 @@
+/* Copyright (C) 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.plus.samples.haikuplus.api;
+
+import com.android.volley.AuthFailureError;
+import com.android.volley.Request;
+import com.google.plus.samples.haikuplus.benchmarks.StreamPayloads;
+import com.google.plus.samples.haikuplus.models.Haiku;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-request work done before a request goes on the wire: building its headers and encoding
+ * its body.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class RequestBenchmark {
+    private HaikuApiRequest<List<Haiku>> mGet;
+    private HaikuApiRequest<Haiku> mPost;
+    private HaikuApiRequest<Haiku> mCompressedPost;
+    private Haiku mHaiku;
+
+    @Setup
+    public void setUp() {
+        mGet = new HaikuApiRequest<List<Haiku>>(HaikuCodecs.HAIKU_LIST, Request.Method.GET,
+                "https://example.com/api/haikus?limit=20", null, null, true);
+        mGet.setTag("/api/haikus");
+        mGet.setConditional(true);
+        mHaiku = StreamPayloads.stream(1).get(0);
+        mPost = newPost();
+        mCompressedPost = newPost();
+        mCompressedPost.setCompressBody(true);
+    }
+
+    private static HaikuApiRequest<Haiku> newPost() {
+        HaikuApiRequest<Haiku> post = new HaikuApiRequest<Haiku>(HaikuCodecs.HAIKU,
+                Request.Method.POST, "https://example.com/api/haikus", null, null, false);
+        post.setTag("/api/haikus");
+        post.setIdempotencyKey("0f8fad5b-d9cb-469f-a165-70867728950e");
+        return post;
+    }
+
+    @Benchmark
+    public Map<String, String> getHeaders() throws AuthFailureError {
+        return mGet.getHeaders();
+    }
+
+    @Benchmark
+    public byte[] setBody() {
+        mPost.setBody(mHaiku);
+        return mPost.getBody();
+    }
+
+    @Benchmark
+    public byte[] setBodyCompressed() {
+        mCompressedPost.setBody(mHaiku);
+        return mCompressedPost.getBody();
+    }
+}
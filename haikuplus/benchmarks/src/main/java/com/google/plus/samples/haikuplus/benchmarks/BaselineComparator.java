@@ -0,0 +1,131 @@
+/* Copyright (C) 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.plus.samples.haikuplus.benchmarks;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Compare two sets of JMH results in JSON form, and exit with a failure status if any benchmark
+ * in both got worse by more than a threshold. A change only counts as a regression if it is also
+ * larger than the two runs' error margins combined, so noise alone doesn't fail the build.
+ *
+ * Usage: BaselineComparator baseline.json results.json [threshold-percent]
+ */
+public final class BaselineComparator {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final double DEFAULT_THRESHOLD_PERCENT = 10;
+
+    private BaselineComparator() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: BaselineComparator baseline.json results.json [percent]");
+            System.exit(2);
+        }
+        double threshold = args.length > 2
+                ? Double.parseDouble(args[2]) : DEFAULT_THRESHOLD_PERCENT;
+        Map<String, Score> baseline = read(args[0]);
+        Map<String, Score> current = read(args[1]);
+
+        int regressions = 0;
+        for (Map.Entry<String, Score> entry : current.entrySet()) {
+            Score now = entry.getValue();
+            Score before = baseline.get(entry.getKey());
+            if (before == null) {
+                System.out.println(String.format(Locale.US, "NEW        %s: %.3f %s",
+                        entry.getKey(), now.value, now.unit));
+                continue;
+            }
+            // Positive when worse, whichever direction the mode counts as better.
+            double change = (now.value - before.value) / before.value * 100;
+            if (now.higherIsBetter) {
+                change = -change;
+            }
+            boolean significant =
+                    Math.abs(now.value - before.value) > now.error + before.error;
+            boolean regressed = change > threshold && significant;
+            if (regressed) {
+                regressions++;
+            }
+            System.out.println(String.format(Locale.US, "%-10s %s: %.3f -> %.3f %s (%+.1f%%)",
+                    regressed ? "REGRESSED" : change < -threshold && significant
+                            ? "IMPROVED" : "OK",
+                    entry.getKey(), before.value, now.value, now.unit, change));
+        }
+        if (regressions > 0) {
+            System.out.println(regressions + " benchmarks regressed by more than " + threshold
+                    + "%");
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Read a results file into scores keyed by benchmark name and parameters.
+     */
+    private static Map<String, Score> read(String path) throws IOException {
+        Reader reader = new InputStreamReader(new FileInputStream(path), UTF_8);
+        try {
+            JsonArray results = new JsonParser().parse(reader).getAsJsonArray();
+            Map<String, Score> scores = new TreeMap<String, Score>();
+            for (JsonElement element : results) {
+                JsonObject result = element.getAsJsonObject();
+                StringBuilder key = new StringBuilder(result.get("benchmark").getAsString());
+                if (result.has("params")) {
+                    // Sorted, so the key doesn't depend on the order JMH wrote them in.
+                    Map<String, String> params = new TreeMap<String, String>();
+                    for (Map.Entry<String, JsonElement> param
+                            : result.getAsJsonObject("params").entrySet()) {
+                        params.put(param.getKey(), param.getValue().getAsString());
+                    }
+                    key.append(params);
+                }
+                JsonObject metric = result.getAsJsonObject("primaryMetric");
+                Score score = new Score();
+                score.value = metric.get("score").getAsDouble();
+                JsonElement error = metric.get("scoreError");
+                // JMH writes "NaN" when there were too few iterations to estimate the error.
+                score.error = error == null || !error.isJsonPrimitive()
+                        || Double.isNaN(error.getAsDouble()) ? 0 : error.getAsDouble();
+                score.unit = metric.get("scoreUnit").getAsString();
+                score.higherIsBetter = "thrpt".equals(result.get("mode").getAsString());
+                scores.put(key.toString(), score);
+            }
+            return scores;
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static class Score {
+        double value;
+        double error;
+        String unit;
+        boolean higherIsBetter;
+    }
+}
@@ -0,0 +1,141 @@
+/* Copyright (C) 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.plus.samples.haikuplus.benchmarks;
+
+import com.android.volley.NetworkResponse;
+import com.google.plus.samples.haikuplus.api.HaikuCodecs;
+import com.google.plus.samples.haikuplus.api.MessagePackCodec;
+import com.google.plus.samples.haikuplus.models.Haiku;
+import com.google.plus.samples.haikuplus.models.User;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Synthetic stream payloads, shaped like the server's responses. Generation is deterministic so
+ * that runs are comparable.
+ */
+public final class StreamPayloads {
+    /** Wire formats a stream can be encoded in. */
+    public static final String JSON = "json";
+    public static final String JSON_GZIP = "json-gzip";
+    public static final String MSGPACK = "msgpack";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final long EPOCH = 1420070400000L;
+
+    private StreamPayloads() {
+    }
+
+    /**
+     * Build a stream of haikus, one a minute, by a handful of authors.
+     *
+     * @param count the number of haikus.
+     * @return the haikus, newest first.
+     */
+    public static List<Haiku> stream(int count) {
+        List<User> authors = new ArrayList<User>();
+        for (int i = 0; i < 8; i++) {
+            User author = new User();
+            author.id = "user" + i;
+            author.googlePlusId = String.valueOf(100000000000000000L + i);
+            author.googleDisplayName = "Author Number " + i;
+            author.googlePhotoUrl = "https://lh3.googleusercontent.com/photo" + i + "/photo.jpg";
+            author.googleProfileUrl = "https://plus.google.com/" + author.googlePlusId;
+            author.lastUpdated = new Date(EPOCH);
+            authors.add(author);
+        }
+        List<Haiku> haikus = new ArrayList<Haiku>(count);
+        for (int i = 0; i < count; i++) {
+            haikus.add(haiku(count - i, authors.get(i % authors.size())));
+        }
+        return haikus;
+    }
+
+    /**
+     * Build a single haiku.
+     */
+    public static Haiku haiku(int number, User author) {
+        Haiku haiku = new Haiku();
+        haiku.id = String.format(Locale.US, "haiku%06d", number);
+        haiku.author = author;
+        haiku.title = "Haiku number " + number;
+        haiku.lineOne = "An old silent pond";
+        haiku.lineTwo = "A frog jumps into the pond";
+        haiku.lineThree = "Splash! Silence again.";
+        haiku.votes = number % 50;
+        haiku.creationTime = new Date(EPOCH + number * 60000L);
+        haiku.contentUrl = "https://example.com/haikus/" + haiku.id;
+        haiku.contentDeepLinkId = "/haikus/" + haiku.id;
+        haiku.callToActionUrl = haiku.contentUrl + "?action=vote";
+        haiku.callToActionDeepLinkId = haiku.contentDeepLinkId + "?action=vote";
+        return haiku;
+    }
+
+    /**
+     * Encode a stream as the server would send it.
+     *
+     * @param haikus the stream.
+     * @param format {@link #JSON}, {@link #JSON_GZIP} or {@link #MSGPACK}.
+     * @return the response body.
+     */
+    public static byte[] encode(List<Haiku> haikus, String format) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        if (MSGPACK.equals(format)) {
+            MessagePackCodec.writeHaikuList(haikus, out);
+            return out.toByteArray();
+        }
+        byte[] json = HaikuCodecs.getGson().toJson(haikus, HaikuCodecs.HAIKU_LIST.getType())
+                .getBytes(UTF_8);
+        if (JSON.equals(format)) {
+            return json;
+        } else if (JSON_GZIP.equals(format)) {
+            GZIPOutputStream gzip = new GZIPOutputStream(out);
+            gzip.write(json);
+            gzip.close();
+            return out.toByteArray();
+        }
+        throw new IllegalArgumentException("Unknown format " + format);
+    }
+
+    /**
+     * Wrap a body in the response the server would send with it.
+     *
+     * @param body the encoded body, see {@link #encode(List, String)}.
+     * @param format the format it was encoded in.
+     * @return NetworkResponse
+     */
+    public static NetworkResponse response(byte[] body, String format) {
+        Map<String, String> headers = new HashMap<String, String>();
+        if (MSGPACK.equals(format)) {
+            headers.put("Content-Type", MessagePackCodec.CONTENT_TYPE);
+        } else {
+            headers.put("Content-Type", "application/json; charset=UTF-8");
+        }
+        if (JSON_GZIP.equals(format)) {
+            headers.put("Content-Encoding", "gzip");
+        }
+        return new NetworkResponse(200, body, headers, false);
+    }
+}
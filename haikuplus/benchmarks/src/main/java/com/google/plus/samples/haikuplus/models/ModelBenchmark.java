@@ -0,0 +1,64 @@
+/* Copyright (C) 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.plus.samples.haikuplus.models;
+
+import com.google.plus.samples.haikuplus.benchmarks.StreamPayloads;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Model helpers called while binding the stream and handling deep links.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class ModelBenchmark {
+    private Haiku mHaiku;
+
+    @Setup
+    public void setUp() {
+        mHaiku = StreamPayloads.stream(1).get(0);
+    }
+
+    @Benchmark
+    public HaikuDeepLink deepLinkFromString() {
+        return HaikuDeepLink.fromString(mHaiku.contentDeepLinkId);
+    }
+
+    @Benchmark
+    public HaikuDeepLink deepLinkWithActionFromString() {
+        return HaikuDeepLink.fromString(mHaiku.callToActionDeepLinkId);
+    }
+
+    @Benchmark
+    public String getFormattedDate() {
+        return mHaiku.getFormattedDate();
+    }
+}
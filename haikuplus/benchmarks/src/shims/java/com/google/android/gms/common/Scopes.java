@@ -0,0 +1,28 @@
+/* Copyright (C) 2014 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.android.gms.common;
+
+/**
+ * JVM stand-in for Play Services' Scopes, with just what the app's Constants uses. Play
+ * Services isn't on this module's classpath, and Constants is compiled in for its server URL
+ * and user agent.
+ */
+public final class Scopes {
+    public static final String PLUS_LOGIN = "https://www.googleapis.com/auth/plus.login";
+
+    private Scopes() {
+    }
+}